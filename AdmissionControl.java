@@ -0,0 +1,171 @@
+package com.chat.db;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.json.JSONObject;
+
+/**
+ * AdmissionControl caps the statements of {@link SmartCrudEngine} running at
+ * once, with a separate limit per operation type (insert, select, update,
+ * delete, upsert, other), so that a slow database is not buried under an
+ * unbounded pile of waiting callers. <br>
+ * A caller over the limit waits in line up to {@code maxwait} ms and is then
+ * turned away, letting the engine answer at once instead of queueing without
+ * end.
+ * <p>
+ * Each limit adapts to the observed latency (additive increase,
+ * multiplicative decrease): a statement finishing within {@code target} ms
+ * raises its limit by {@code 1/limit}, about one per window of calls, while a
+ * slower one or a statement timeout cuts it by {@link #BACKOFF}, at most
+ * once per {@code target} ms so one burst of slow calls counts once. Limits
+ * stay between {@code min} and {@code max}.
+ */
+public class AdmissionControl {
+
+	/** Factor applied to a limit on overload. */
+	protected static final double BACKOFF = 0.9;
+
+	protected final int min;
+	protected final int max;
+	protected final long target;
+	protected final long maxwait;
+
+	private final Limit[] limits = new Limit[EngineMetrics.OPERATIONS.length];
+
+	/**
+	 * @param initial starting limit of each operation type
+	 * @param min     lowest limit
+	 * @param max     highest limit
+	 * @param target  latency in ms above which a statement counts as overload
+	 * @param maxwait ms a caller may wait for admission
+	 */
+	public AdmissionControl(int initial, int min, int max, long target, long maxwait) {
+		if (min <= 0 || max < min || initial < min || initial > max || target <= 0 || maxwait < 0) {
+			throw new IllegalArgumentException("Invalid admission settings initial=" + initial + " min=" + min
+					+ " max=" + max + " target=" + target + " wait=" + maxwait);
+		}
+		this.min = min;
+		this.max = max;
+		this.target = target;
+		this.maxwait = maxwait;
+		for (int o = 0; o < limits.length; o++) {
+			limits[o] = new Limit(initial);
+		}
+	}
+
+	/**
+	 * Waits for a free slot of the operation type.
+	 *
+	 * @param op operation index from {@link EngineMetrics#operation(String)}
+	 * @return {@code true} if admitted; the caller must then call
+	 *         {@link #release(int, long, boolean)}. {@code false} if no slot
+	 *         freed up within {@code maxwait} ms
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public boolean acquire(int op) throws InterruptedException {
+		Limit l = limits[op];
+		l.lock.lockInterruptibly();
+		try {
+			long remaining = TimeUnit.MILLISECONDS.toNanos(maxwait);
+			l.waiting++;
+			try {
+				while (l.inflight >= (int) l.limit) {
+					if (remaining <= 0) {
+						l.rejected++;
+						return false;
+					}
+					remaining = l.free.awaitNanos(remaining);
+				}
+			} finally {
+				l.waiting--;
+			}
+			l.inflight++;
+			l.admitted++;
+			return true;
+		} finally {
+			l.lock.unlock();
+		}
+	}
+
+	/**
+	 * Frees the slot of an admitted statement and adapts the limit.
+	 *
+	 * @param op       operation index passed to {@link #acquire(int)}
+	 * @param nanos    time the statement took
+	 * @param overload {@code true} if the statement timed out
+	 */
+	public void release(int op, long nanos, boolean overload) {
+		Limit l = limits[op];
+		long now = System.nanoTime();
+		l.lock.lock();
+		try {
+			l.inflight--;
+			if (overload || nanos > TimeUnit.MILLISECONDS.toNanos(target)) {
+				if (now - l.lastcut > TimeUnit.MILLISECONDS.toNanos(target)) {
+					l.limit = Math.max(min, l.limit * BACKOFF);
+					l.lastcut = now;
+					l.cuts++;
+				}
+				l.free.signal();
+			} else {
+				int before = (int) l.limit;
+				l.limit = Math.min(max, l.limit + 1.0 / l.limit);
+				if ((int) l.limit > before) {
+					l.free.signalAll();
+				} else {
+					l.free.signal();
+				}
+			}
+		} finally {
+			l.lock.unlock();
+		}
+	}
+
+	/**
+	 * @return JSON object with the settings and, per operation type, the
+	 *         current limit, running and waiting statements and the admitted,
+	 *         rejected and limit cut counts
+	 */
+	public JSONObject stats() {
+		JSONObject ops = new JSONObject();
+		for (int o = 0; o < limits.length; o++) {
+			Limit l = limits[o];
+			JSONObject st = new JSONObject();
+			l.lock.lock();
+			try {
+				st.put("limit", (int) l.limit);
+				st.put("inflight", l.inflight);
+				st.put("waiting", l.waiting);
+				st.put("admitted", l.admitted);
+				st.put("rejected", l.rejected);
+				st.put("cuts", l.cuts);
+			} finally {
+				l.lock.unlock();
+			}
+			ops.put(EngineMetrics.OPERATIONS[o], st);
+		}
+		return new JSONObject().put("min", min).put("max", max).put("target_ms", target).put("wait_ms", maxwait)
+				.put("operations", ops);
+	}
+
+	/**
+	 * Limit and counters of one operation type, guarded by its lock.
+	 */
+	private static final class Limit {
+		final ReentrantLock lock = new ReentrantLock();
+		final Condition free = lock.newCondition();
+		double limit;
+		int inflight;
+		int waiting;
+		long admitted;
+		long rejected;
+		long cuts;
+		long lastcut = System.nanoTime() - TimeUnit.DAYS.toNanos(1);
+
+		Limit(int initial) {
+			this.limit = initial;
+		}
+	}
+}
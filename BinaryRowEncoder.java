@@ -0,0 +1,206 @@
+package com.chat.db;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+
+/**
+ * BinaryRowEncoder writes the rows of a {@link java.sql.ResultSet} in the
+ * engine's length-prefixed binary format, for JVM callers that decode the
+ * response with {@link CompactResultDecoder} instead of parsing JSON. <br>
+ * All numbers are big-endian, as written by {@link DataOutputStream}; a
+ * string is an int byte length followed by its UTF-8 bytes.
+ * <ul>
+ *     <li>header – magic {@code "SCEB"}, version byte, short column count and
+ *     for each column its name, type name and a kind byte</li>
+ *     <li>rows – an int frame length followed by the frame: a null bitmap of
+ *     one bit per column (lowest bit first), then the non-null values by
+ *     kind: int, long, double, float, decimal as string, boolean as byte,
+ *     and anything else as string</li>
+ *     <li>trailer – frame length -1, long row count, status byte (0 done, 1
+ *     error) and the message</li>
+ * </ul>
+ * Column kinds are those of {@link JsonRowEncoder}, so a value is read with
+ * the same getter in both formats.
+ */
+public final class BinaryRowEncoder {
+
+	/** {@code "SCEB"} */
+	public static final int MAGIC = 0x53434542;
+	public static final byte VERSION = 2;
+	/** Frame length that starts the trailer. */
+	public static final int END = -1;
+
+	private final JsonRowEncoder columns;
+	private final DataOutputStream out;
+	private final int colCount;
+	private byte[] frame = new byte[256];
+	private int flen;
+
+	/**
+	 * @param columns column names and kinds of the result set
+	 * @param out     destination
+	 */
+	public BinaryRowEncoder(JsonRowEncoder columns, DataOutputStream out) {
+		this.columns = columns;
+		this.out = out;
+		this.colCount = columns == null ? 0 : columns.columnCount();
+	}
+
+	/**
+	 * Writes the magic, version and column descriptions.
+	 *
+	 * @throws IOException if writing fails
+	 */
+	public void header() throws IOException {
+		out.writeInt(MAGIC);
+		out.writeByte(VERSION);
+		out.writeShort(colCount);
+		for (int i = 0; i < colCount; i++) {
+			string(columns.columnName(i));
+			string(String.valueOf(columns.columnType(i)));
+			out.writeByte(columns.columnKind(i));
+		}
+	}
+
+	/**
+	 * Writes the current row as one frame.
+	 *
+	 * @param rs result set positioned on a row
+	 * @throws SQLException if a value cannot be read
+	 * @throws IOException  if writing fails
+	 */
+	public void row(ResultSet rs) throws SQLException, IOException {
+		int bitmap = (colCount + 7) >>> 3;
+		ensure(bitmap);
+		Arrays.fill(frame, 0, bitmap, (byte) 0);
+		flen = bitmap;
+		for (int i = 0; i < colCount; i++) {
+			if (!value(rs, i)) {
+				frame[i >>> 3] |= (byte) (1 << (i & 7));
+			}
+		}
+		out.writeInt(flen);
+		out.write(frame, 0, flen);
+	}
+
+	/**
+	 * Writes the trailer.
+	 *
+	 * @param rows    number of rows written
+	 * @param error   error message, {@code null} when the query completed
+	 * @param message completion message
+	 * @throws IOException if writing fails
+	 */
+	public void end(long rows, String error, String message) throws IOException {
+		out.writeInt(END);
+		out.writeLong(rows);
+		out.writeByte(error == null ? 0 : 1);
+		string(error == null ? message : error);
+	}
+
+	/**
+	 * Appends the value of column {@code i} to the frame.
+	 *
+	 * @return {@code false} if the value is SQL NULL
+	 */
+	private boolean value(ResultSet rs, int i) throws SQLException {
+		int col = i + 1;
+		switch (columns.columnKind(i)) {
+		case JsonRowEncoder.INT: {
+			int v = rs.getInt(col);
+			if (rs.wasNull())
+				return false;
+			putint(v);
+			return true;
+		}
+		case JsonRowEncoder.LONG: {
+			long v = rs.getLong(col);
+			if (rs.wasNull())
+				return false;
+			putlong(v);
+			return true;
+		}
+		case JsonRowEncoder.DOUBLE: {
+			double v = rs.getDouble(col);
+			if (rs.wasNull())
+				return false;
+			putlong(Double.doubleToLongBits(v));
+			return true;
+		}
+		case JsonRowEncoder.FLOAT: {
+			float v = rs.getFloat(col);
+			if (rs.wasNull())
+				return false;
+			putint(Float.floatToIntBits(v));
+			return true;
+		}
+		case JsonRowEncoder.DECIMAL: {
+			BigDecimal v = rs.getBigDecimal(col);
+			if (v == null)
+				return false;
+			putstring(v.toString());
+			return true;
+		}
+		case JsonRowEncoder.BOOLEAN: {
+			boolean v = rs.getBoolean(col);
+			if (rs.wasNull())
+				return false;
+			ensure(1);
+			frame[flen++] = (byte) (v ? 1 : 0);
+			return true;
+		}
+		case JsonRowEncoder.STRING: {
+			String v = rs.getString(col);
+			if (v == null)
+				return false;
+			putstring(v);
+			return true;
+		}
+		default: {
+			Object v = rs.getObject(col);
+			if (v == null)
+				return false;
+			putstring(v.toString());
+			return true;
+		}
+		}
+	}
+
+	private void putint(int v) {
+		ensure(4);
+		frame[flen++] = (byte) (v >>> 24);
+		frame[flen++] = (byte) (v >>> 16);
+		frame[flen++] = (byte) (v >>> 8);
+		frame[flen++] = (byte) v;
+	}
+
+	private void putlong(long v) {
+		putint((int) (v >>> 32));
+		putint((int) v);
+	}
+
+	private void putstring(String s) {
+		byte[] b = s.getBytes(StandardCharsets.UTF_8);
+		putint(b.length);
+		ensure(b.length);
+		System.arraycopy(b, 0, frame, flen, b.length);
+		flen += b.length;
+	}
+
+	private void ensure(int n) {
+		if (flen + n > frame.length) {
+			frame = Arrays.copyOf(frame, Math.max(flen + n, frame.length * 2));
+		}
+	}
+
+	private void string(String s) throws IOException {
+		byte[] b = s.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(b.length);
+		out.write(b);
+	}
+}
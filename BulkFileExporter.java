@@ -0,0 +1,318 @@
+package com.chat.db;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.zip.GZIPOutputStream;
+
+import org.json.JSONObject;
+
+/**
+ * BulkFileExporter writes the result of a SELECT to an NDJSON or CSV file as
+ * the rows arrive from the cursor, so that memory use does not grow with the
+ * size of the result. <br>
+ * Rows are encoded into a reusable buffer, converted to UTF-8 into a fixed
+ * byte buffer and written to the file's {@link FileChannel} whenever the
+ * buffer fills; with gzip the bytes pass through a {@link GZIPOutputStream}
+ * on the channel instead.
+ * <p>
+ * NDJSON rows are written by {@link JsonRowEncoder}, one object per line. CSV
+ * follows RFC 4180 and matches what {@link BulkFileLoader} reads back: fields
+ * holding the delimiter, quotes or line breaks are quoted, SQL NULL is an
+ * empty field and an empty string is {@code ""}.
+ */
+public class BulkFileExporter {
+
+	/** Size of the output byte buffer. */
+	protected static final int BUFFER = 1 << 18;
+
+	protected final SmartCrudEngine engine;
+	protected final String query;
+	protected final List<Object> binds;
+	protected final Path file;
+	protected final boolean ndjson;
+	protected final char delimiter;
+	protected final boolean header;
+	protected final boolean gzip;
+	protected final boolean primary;
+	protected final int fetchsize;
+	protected final long progressinterval;
+	protected final Consumer<JSONObject> progress;
+
+	private final byte[] buf = new byte[BUFFER];
+	private final StringBuilder row = new StringBuilder(256);
+	private int blen;
+	private OutputStream out;
+	private FileChannel ch;
+	private long rows;
+	private long bytes;
+	private long started;
+
+	/**
+	 * @param engine           engine whose connection pool runs the query
+	 * @param query            SELECT with JDBC {@code ?} markers
+	 * @param binds            values for the markers, in order
+	 * @param file             destination file, created or truncated
+	 * @param ndjson           {@code true} for NDJSON, {@code false} for CSV
+	 * @param delimiter        CSV field delimiter
+	 * @param header           CSV only: write the column names as the first record
+	 * @param gzip             compress the file with gzip
+	 * @param primary          read from the primary even with replicas configured
+	 * @param fetchsize        JDBC fetch size
+	 * @param progressinterval ms between progress reports
+	 * @param progress         receives the progress reports, may be {@code null}
+	 */
+	public BulkFileExporter(SmartCrudEngine engine, String query, List<Object> binds, Path file, boolean ndjson,
+			char delimiter, boolean header, boolean gzip, boolean primary, int fetchsize, long progressinterval,
+			Consumer<JSONObject> progress) {
+		if (fetchsize <= 0) {
+			throw new IllegalArgumentException("Invalid export fetch size " + fetchsize);
+		}
+		this.engine = engine;
+		this.query = query;
+		this.binds = binds;
+		this.file = file;
+		this.ndjson = ndjson;
+		this.delimiter = delimiter;
+		this.header = header;
+		this.gzip = gzip;
+		this.primary = primary;
+		this.fetchsize = fetchsize;
+		this.progressinterval = progressinterval;
+		this.progress = progress;
+	}
+
+	/**
+	 * Runs the query and writes every row to the file. The response uses the
+	 * engine's format, with {@code effected_row} the number of rows written plus
+	 * {@code bytes} (before compression), {@code file_bytes},
+	 * {@code elapsed_ms} and {@code rows_per_sec}. On a database error the rows
+	 * written so far stay in the file and the response reports
+	 * {@code "sign":"ERROR"}. With admission control on, the export takes one
+	 * select slot; an export not admitted returns the {@code ADMREJ} error and
+	 * leaves the file untouched.
+	 *
+	 * @return JSON response
+	 * @throws ClassNotFoundException if database driver class is not found
+	 * @throws IOException            if the file cannot be written
+	 */
+	public JSONObject export() throws ClassNotFoundException, IOException {
+		int op = EngineMetrics.operation("select");
+		started = System.nanoTime();
+		String error = null;
+
+		engine.debuglog("Export of " + file + " from: " + query);
+
+		String rejected = engine.admit(op);
+		if (rejected != null) {
+			return new JSONObject(rejected);
+		}
+		boolean overload = false;
+		long admitted = System.nanoTime();
+		try (FileChannel fc = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			ch = fc;
+			out = gzip ? new GZIPOutputStream(Channels.newOutputStream(fc), 1 << 16) : null;
+			long t0 = System.nanoTime();
+			try (Connection cn = engine.readConnection(primary)) {
+				long t1 = System.nanoTime();
+				engine.metrics.phase(op, EngineMetrics.ACQUIRE, t1 - t0);
+				// cursor based fetching needs an open transaction on some drivers
+				cn.setAutoCommit(false);
+				try (PreparedStatement ps = cn.prepareStatement(query)) {
+					SmartCrudEngine.trackstatement(ps);
+					engine.timeout(ps);
+					ps.setFetchSize(fetchsize);
+					SmartCrudEngine.bindvalues(ps, binds);
+					try (ResultSet rs = ps.executeQuery()) {
+						long t2 = System.nanoTime();
+						engine.metrics.phase(op, EngineMetrics.EXECUTE, t2 - t1);
+						writerows(rs);
+						engine.metrics.phase(op, EngineMetrics.SERIALIZE, System.nanoTime() - t2);
+					}
+				}
+				cn.commit();
+				engine.metrics.done(op, rows);
+			} catch (SQLException e) {
+				engine.dberror(e);
+				overload = e instanceof SQLTimeoutException;
+				error = e.getMessage();
+			}
+			flushbuffer();
+			if (out != null) {
+				out.close();
+			}
+		} finally {
+			// timed per fetch of fetchsize rows, as batches are per chunk
+			int fetch = Math.max(1, fetchsize);
+			long fetches = Math.max(1, (rows + fetch - 1) / fetch);
+			engine.release(op, (System.nanoTime() - admitted) / fetches, overload);
+		}
+		if (progress != null) {
+			progress.accept(progressreport(true));
+		}
+		return response(error);
+	}
+
+	private void writerows(ResultSet rs) throws SQLException, IOException {
+		long nextreport = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(progressinterval);
+		if (ndjson) {
+			JsonRowEncoder encoder = new JsonRowEncoder(rs.getMetaData());
+			while (rs.next()) {
+				write(encoder.encode(rs).append('\n'));
+				rows++;
+				if (progress != null && (rows & 1023) == 0 && System.nanoTime() >= nextreport) {
+					progress.accept(progressreport(false));
+					nextreport = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(progressinterval);
+				}
+			}
+			return;
+		}
+		int cols = rs.getMetaData().getColumnCount();
+		if (header) {
+			row.setLength(0);
+			for (int i = 1; i <= cols; i++) {
+				if (i > 1) {
+					row.append(delimiter);
+				}
+				csvfield(rs.getMetaData().getColumnLabel(i), row);
+			}
+			write(row.append("\r\n"));
+		}
+		while (rs.next()) {
+			row.setLength(0);
+			for (int i = 1; i <= cols; i++) {
+				if (i > 1) {
+					row.append(delimiter);
+				}
+				String v = rs.getString(i);
+				if (v != null) {
+					csvfield(v, row);
+				}
+			}
+			write(row.append("\r\n"));
+			rows++;
+			if (progress != null && (rows & 1023) == 0 && System.nanoTime() >= nextreport) {
+				progress.accept(progressreport(false));
+				nextreport = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(progressinterval);
+			}
+		}
+	}
+
+	/**
+	 * Appends a CSV field, quoting it when it is empty or holds the delimiter,
+	 * a quote or a line break.
+	 */
+	private void csvfield(String v, StringBuilder sb) {
+		boolean quote = v.isEmpty();
+		for (int i = 0; i < v.length() && !quote; i++) {
+			char c = v.charAt(i);
+			quote = c == delimiter || c == '"' || c == '\n' || c == '\r';
+		}
+		if (!quote) {
+			sb.append(v);
+			return;
+		}
+		sb.append('"');
+		for (int i = 0; i < v.length(); i++) {
+			char c = v.charAt(i);
+			if (c == '"') {
+				sb.append('"');
+			}
+			sb.append(c);
+		}
+		sb.append('"');
+	}
+
+	/**
+	 * Encodes {@code s} as UTF-8 into the byte buffer, flushing it when full.
+	 */
+	private void write(CharSequence s) throws IOException {
+		int len = s.length();
+		for (int i = 0; i < len; i++) {
+			if (blen > BUFFER - 4) {
+				flushbuffer();
+			}
+			char c = s.charAt(i);
+			if (c < 0x80) {
+				buf[blen++] = (byte) c;
+			} else if (c < 0x800) {
+				buf[blen++] = (byte) (0xC0 | (c >> 6));
+				buf[blen++] = (byte) (0x80 | (c & 0x3F));
+			} else if (Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(s.charAt(i + 1))) {
+				int cp = Character.toCodePoint(c, s.charAt(++i));
+				buf[blen++] = (byte) (0xF0 | (cp >> 18));
+				buf[blen++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+				buf[blen++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+				buf[blen++] = (byte) (0x80 | (cp & 0x3F));
+			} else if (Character.isSurrogate(c)) {
+				buf[blen++] = '?';
+			} else {
+				buf[blen++] = (byte) (0xE0 | (c >> 12));
+				buf[blen++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+				buf[blen++] = (byte) (0x80 | (c & 0x3F));
+			}
+		}
+	}
+
+	private void flushbuffer() throws IOException {
+		if (blen == 0) {
+			return;
+		}
+		if (out != null) {
+			out.write(buf, 0, blen);
+		} else {
+			ByteBuffer bb = ByteBuffer.wrap(buf, 0, blen);
+			while (bb.hasRemaining()) {
+				ch.write(bb);
+			}
+		}
+		bytes += blen;
+		blen = 0;
+	}
+
+	private JSONObject progressreport(boolean done) {
+		long elapsed = (System.nanoTime() - started) / 1_000_000L;
+		JSONObject report = new JSONObject();
+		report.put("file", file.toString());
+		report.put("rows", rows);
+		report.put("bytes", bytes + blen);
+		report.put("elapsed_ms", elapsed);
+		report.put("rows_per_sec", elapsed == 0 ? rows : rows * 1000 / elapsed);
+		report.put("done", done);
+		engine.debuglog("Export progress: " + report);
+		return report;
+	}
+
+	private JSONObject response(String error) throws IOException {
+		long elapsed = (System.nanoTime() - started) / 1_000_000L;
+		JSONObject response = new JSONObject();
+		response.put("executed_cmd", "EXPORT");
+		response.put("effected_row", rows);
+		response.put("bytes", bytes);
+		response.put("file_bytes", Files.size(file));
+		response.put("elapsed_ms", elapsed);
+		response.put("rows_per_sec", elapsed == 0 ? rows : rows * 1000 / elapsed);
+		if (error != null) {
+			response.put("sign", "ERROR");
+			response.put("error", error);
+		} else {
+			response.put("sign", "DONE");
+			response.put("message", "[EXPORT] executed. Rows exported: " + rows);
+		}
+		return response;
+	}
+}
@@ -0,0 +1,734 @@
+package com.chat.db;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+import org.json.JSONObject;
+
+/**
+ * BulkFileLoader loads a CSV or NDJSON file into a table through batched
+ * prepared inserts of {@link SmartCrudEngine}. <br>
+ * The file is read through memory-mapped windows of its {@link FileChannel}
+ * and parsed byte by byte into value arrays, without building a
+ * {@link JSONObject} per record. The parser hands chunks of records to a
+ * bounded queue; loader threads, each with its own pooled connection, insert
+ * every chunk with one {@code executeBatch} and commit it. With admission
+ * control on, each loader thread takes an insert slot; the load runs on the
+ * threads admitted and fails with {@code ADMREJ} only if none is.
+ * <p>
+ * CSV follows RFC 4180: fields may be quoted with {@code "}, quoted fields may
+ * contain delimiters, doubled quotes and line breaks, and an empty unquoted
+ * field is loaded as NULL. NDJSON holds one flat JSON object per line; nested
+ * objects and arrays are loaded as their JSON text.
+ * <p>
+ * The first failing chunk stops the load; chunks committed before it stay
+ * committed, and the response reports the record number the chunk started at.
+ */
+public class BulkFileLoader {
+
+	/** Size of a memory-mapped window of the file. */
+	protected static final int WINDOW = 1 << 26;
+
+	protected final SmartCrudEngine engine;
+	protected final Path file;
+	protected final String table;
+	protected final boolean ndjson;
+	protected final char delimiter;
+	protected final boolean header;
+	protected final Map<String, String> mapping;
+	protected final int chunksize;
+	protected final int threads;
+	protected final long progressinterval;
+	protected final Consumer<JSONObject> progress;
+
+	private final LongAdder loaded = new LongAdder();
+	private volatile Throwable failure;
+	private volatile long failedrecord = -1;
+	private volatile long position;
+	private long filesize;
+	private long started;
+	/** Parser state: fields of the current CSV record and the bytes of the current field. */
+	private final List<String> scratch = new ArrayList<>();
+	private byte[] field = new byte[256];
+	private int flen;
+
+	/**
+	 * @param engine           engine whose connection pool runs the inserts
+	 * @param file             CSV or NDJSON file
+	 * @param table            upper-case target table
+	 * @param ndjson           {@code true} for NDJSON, {@code false} for CSV
+	 * @param delimiter        CSV field delimiter
+	 * @param header           CSV only: the first record holds the field names
+	 * @param mapping          source field to target column, in target order; {@code null} loads every field into
+	 *                         the column of the same name. CSV fields without a header are named by their
+	 *                         1-based position
+	 * @param chunksize        records per batch and commit
+	 * @param threads          loader threads
+	 * @param progressinterval ms between progress reports
+	 * @param progress         receives the progress reports, may be {@code null}
+	 */
+	public BulkFileLoader(SmartCrudEngine engine, Path file, String table, boolean ndjson, char delimiter,
+			boolean header, Map<String, String> mapping, int chunksize, int threads, long progressinterval,
+			Consumer<JSONObject> progress) {
+		if (chunksize <= 0 || threads <= 0) {
+			throw new IllegalArgumentException("Invalid bulk load settings chunk=" + chunksize + " threads=" + threads);
+		}
+		this.engine = engine;
+		this.file = file;
+		this.table = table;
+		this.ndjson = ndjson;
+		this.delimiter = delimiter;
+		this.header = header;
+		this.mapping = mapping;
+		this.chunksize = chunksize;
+		this.threads = threads;
+		this.progressinterval = progressinterval;
+		this.progress = progress;
+	}
+
+	/**
+	 * Loads the file and returns the result in the engine's response format,
+	 * with {@code effected_row} the number of committed records plus
+	 * {@code bytes}, {@code elapsed_ms} and {@code rows_per_sec}.
+	 *
+	 * @return JSON response
+	 * @throws Exception if the file cannot be read or its fields cannot be mapped
+	 */
+	public JSONObject load() throws Exception {
+		started = System.nanoTime();
+		try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+			filesize = ch.size();
+			MappedReader in = new MappedReader(ch, filesize);
+			in.skipbom();
+			Fields fields = ndjson ? ndjsonfields(in) : csvfields(in);
+			if (fields == null) {
+				return response(0);
+			}
+			String sql = engine.insertShape(table, fields.targets).sql();
+			engine.debuglog("Bulk load of " + file + " into: " + sql);
+			SchemaCache.Table columns = engine.schema == null ? null
+					: engine.schema.check(table, Arrays.asList(fields.targets));
+
+			// one admission slot per loader thread; the load runs on the threads admitted
+			int op = EngineMetrics.operation("insert");
+			int admitted = 0;
+			while (admitted < threads) {
+				String rejected = engine.admit(op);
+				if (rejected != null) {
+					if (admitted == 0) {
+						return new JSONObject(rejected);
+					}
+					break;
+				}
+				admitted++;
+			}
+			ArrayBlockingQueue<Chunk> queue = new ArrayBlockingQueue<>(admitted * 2);
+			List<Thread> loaders = new ArrayList<>();
+			for (int t = 0; t < admitted; t++) {
+				Thread th = new Thread(() -> loadloop(sql, fields.targets, columns, queue),
+						"SmartCrudEngine-bulkload-" + t);
+				th.setDaemon(true);
+				th.start();
+				loaders.add(th);
+			}
+			long record = fields.first;
+			long nextreport = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(progressinterval);
+			try {
+				while (failure == null) {
+					Chunk chunk = new Chunk(record, chunksize);
+					while (chunk.rows.size() < chunksize) {
+						Object[] row = ndjson ? ndjsonrecord(in, fields) : csvrecord(in, fields);
+						if (row == null) {
+							break;
+						}
+						chunk.rows.add(row);
+					}
+					if (chunk.rows.isEmpty()) {
+						break;
+					}
+					record += chunk.rows.size();
+					position = in.position();
+					queue.put(chunk);
+					if (progress != null && System.nanoTime() >= nextreport) {
+						progress.accept(progressreport(false));
+						nextreport = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(progressinterval);
+					}
+				}
+			} catch (Exception e) {
+				if (failure == null) {
+					failure = e;
+					failedrecord = record;
+				}
+			} finally {
+				for (int t = 0; t < admitted; t++) {
+					queue.put(Chunk.END);
+				}
+				for (Thread th : loaders) {
+					th.join();
+				}
+			}
+			position = in.position();
+		}
+		if (progress != null) {
+			progress.accept(progressreport(true));
+		}
+		return response(loaded.sum());
+	}
+
+	/**
+	 * Loader thread: inserts and commits each chunk until the end marker. After
+	 * a failure the remaining chunks are discarded. With schema metadata the
+	 * values are converted to their column types first.
+	 */
+	private void loadloop(String sql, String[] targets, SchemaCache.Table columns, ArrayBlockingQueue<Chunk> queue) {
+		int op = EngineMetrics.operation("insert");
+		Chunk chunk = null;
+		long chunks = 0;
+		long execute = 0;
+		boolean overload = false;
+		long start = System.nanoTime();
+		try (Connection cn = engine.getPool().borrow()) {
+			cn.setAutoCommit(false);
+			try (PreparedStatement ps = cn.prepareStatement(sql)) {
+				engine.timeout(ps);
+				while ((chunk = queue.take()) != Chunk.END) {
+					if (failure != null) {
+						continue;
+					}
+					long t0 = System.nanoTime();
+					try {
+						for (Object[] row : chunk.rows) {
+							List<Object> binds = Arrays.asList(row);
+							if (columns != null) {
+								columns.convert(targets, binds);
+							}
+							SmartCrudEngine.bindvalues(ps, binds);
+							ps.addBatch();
+						}
+						ps.executeBatch();
+						cn.commit();
+					} catch (SQLException | SchemaCache.SchemaException e) {
+						ps.clearBatch();
+						cn.rollback();
+						throw e;
+					}
+					long t1 = System.nanoTime();
+					engine.metrics.phase(op, EngineMetrics.EXECUTE, t1 - t0);
+					engine.metrics.done(op, chunk.rows.size());
+					loaded.add(chunk.rows.size());
+					chunks++;
+					execute += t1 - t0;
+				}
+				chunk = null;
+			}
+		} catch (Throwable e) {
+			synchronized (this) {
+				if (failure == null) {
+					failure = e;
+					failedrecord = chunk == null ? -1 : chunk.first;
+				}
+			}
+			engine.dberror(e instanceof Exception ? (Exception) e : new Exception(e));
+			overload = e instanceof SQLTimeoutException;
+			try {
+				while (chunk != Chunk.END) {
+					chunk = queue.take();
+				}
+			} catch (InterruptedException ie) {
+				Thread.currentThread().interrupt();
+			}
+		} finally {
+			// timed per chunk, as batches are
+			engine.release(op, chunks > 0 ? execute / chunks : System.nanoTime() - start, overload);
+		}
+	}
+
+	private JSONObject progressreport(boolean done) {
+		long rows = loaded.sum();
+		long elapsed = (System.nanoTime() - started) / 1_000_000L;
+		JSONObject report = new JSONObject();
+		report.put("file", file.toString());
+		report.put("rows", rows);
+		report.put("bytes", position);
+		report.put("total_bytes", filesize);
+		report.put("percent", filesize == 0 ? 100.0 : Math.round(position * 1000.0 / filesize) / 10.0);
+		report.put("elapsed_ms", elapsed);
+		report.put("rows_per_sec", elapsed == 0 ? rows : rows * 1000 / elapsed);
+		report.put("done", done);
+		engine.debuglog("Bulk load progress: " + report);
+		return report;
+	}
+
+	private JSONObject response(long rows) {
+		long elapsed = (System.nanoTime() - started) / 1_000_000L;
+		JSONObject response = new JSONObject();
+		response.put("executed_cmd", "BULKLOAD");
+		response.put("effected_row", rows);
+		response.put("bytes", position);
+		response.put("elapsed_ms", elapsed);
+		response.put("rows_per_sec", elapsed == 0 ? rows : rows * 1000 / elapsed);
+		if (failure != null) {
+			response.put("sign", "ERROR");
+			response.put("error", String.valueOf(failure.getMessage()));
+			response.put("failed_record", failedrecord);
+		} else {
+			response.put("sign", "DONE");
+			response.put("message", "[BULKLOAD] executed. Rows loaded: " + rows);
+		}
+		return response;
+	}
+
+	/**
+	 * Source fields of the file and the target columns they load into.
+	 */
+	private static final class Fields {
+		String[] targets;
+		/** CSV: target position of each field by field index, -1 if unmapped. */
+		int[] bypos;
+		/** NDJSON: target position by key. */
+		Map<String, Integer> bykey;
+		/** NDJSON record read while resolving the fields, loaded first. */
+		Object[] pending;
+		/** Record number of the first data record. */
+		long first = 1;
+	}
+
+	private Fields csvfields(MappedReader in) throws Exception {
+		Fields f = new Fields();
+		List<String> names = new ArrayList<>();
+		if (header) {
+			if (!csvfields(in, names)) {
+				return null;
+			}
+			for (int i = 0; i < names.size(); i++) {
+				names.set(i, names.get(i) == null ? String.valueOf(i + 1) : names.get(i).trim());
+			}
+		}
+		if (mapping == null) {
+			if (!header)
+				throw new Exception("CSV without header needs a column mapping");
+			f.targets = names.toArray(new String[0]);
+			f.bypos = new int[names.size()];
+			for (int i = 0; i < f.bypos.length; i++) {
+				f.bypos[i] = i;
+			}
+			return f;
+		}
+		f.targets = mapping.values().toArray(new String[0]);
+		List<String> sources = new ArrayList<>(mapping.keySet());
+		int width = 0;
+		for (int t = 0; t < sources.size(); t++) {
+			int idx = header ? names.indexOf(sources.get(t)) : position(sources.get(t));
+			if (idx < 0)
+				throw new Exception("Mapped field " + sources.get(t) + " is not in the file");
+			width = Math.max(width, idx + 1);
+		}
+		f.bypos = new int[Math.max(width, names.size())];
+		Arrays.fill(f.bypos, -1);
+		for (int t = 0; t < sources.size(); t++) {
+			f.bypos[header ? names.indexOf(sources.get(t)) : position(sources.get(t))] = t;
+		}
+		return f;
+	}
+
+	private static int position(String source) throws Exception {
+		try {
+			return Integer.parseInt(source.trim()) - 1;
+		} catch (NumberFormatException e) {
+			throw new Exception("CSV without header is mapped by 1-based field position, not " + source);
+		}
+	}
+
+	private Fields ndjsonfields(MappedReader in) throws Exception {
+		Fields f = new Fields();
+		f.bykey = new HashMap<>();
+		if (mapping != null) {
+			f.targets = mapping.values().toArray(new String[0]);
+			int t = 0;
+			for (String source : mapping.keySet()) {
+				f.bykey.put(source, t++);
+			}
+			return f;
+		}
+		// without a mapping the keys of the first record name the columns
+		LinkedHashMap<String, Object> first = new LinkedHashMap<>();
+		if (!ndjsonobject(in, first)) {
+			return null;
+		}
+		f.targets = first.keySet().toArray(new String[0]);
+		for (int t = 0; t < f.targets.length; t++) {
+			f.bykey.put(f.targets[t], t);
+		}
+		f.pending = first.values().toArray();
+		return f;
+	}
+
+	/**
+	 * Reads the next CSV record into a row in target order.
+	 *
+	 * @return row, or {@code null} at end of file
+	 */
+	private Object[] csvrecord(MappedReader in, Fields f) throws Exception {
+		List<String> values = scratch;
+		values.clear();
+		if (!csvfields(in, values)) {
+			return null;
+		}
+		Object[] row = new Object[f.targets.length];
+		for (int i = 0; i < values.size() && i < f.bypos.length; i++) {
+			if (f.bypos[i] >= 0) {
+				row[f.bypos[i]] = values.get(i);
+			}
+		}
+		return row;
+	}
+
+	/**
+	 * Reads the fields of the next non-blank CSV record.
+	 *
+	 * @return {@code false} at end of file
+	 */
+	private boolean csvfields(MappedReader in, List<String> out) throws IOException {
+		int c = in.next();
+		while (c == '\n' || c == '\r') {
+			c = in.next();
+		}
+		if (c < 0) {
+			return false;
+		}
+		while (true) {
+			flen = 0;
+			boolean quoted = c == '"';
+			if (quoted) {
+				while (true) {
+					c = in.next();
+					if (c < 0) {
+						break;
+					}
+					if (c == '"') {
+						c = in.next();
+						if (c != '"') {
+							break;
+						}
+					}
+					add(c);
+				}
+				// tolerate text after the closing quote
+				while (c >= 0 && c != delimiter && c != '\n' && c != '\r') {
+					add(c);
+					c = in.next();
+				}
+			} else {
+				while (c >= 0 && c != delimiter && c != '\n' && c != '\r') {
+					add(c);
+					c = in.next();
+				}
+			}
+			out.add(!quoted && flen == 0 ? null : new String(field, 0, flen, StandardCharsets.UTF_8));
+			if (c == delimiter) {
+				c = in.next();
+				continue;
+			}
+			if (c == '\r' && in.peek() == '\n') {
+				in.next();
+			}
+			return true;
+		}
+	}
+
+	private void add(int b) {
+		if (flen == field.length) {
+			field = Arrays.copyOf(field, field.length * 2);
+		}
+		field[flen++] = (byte) b;
+	}
+
+	/**
+	 * Reads the next NDJSON record into a row in target order.
+	 *
+	 * @return row, or {@code null} at end of file
+	 */
+	private Object[] ndjsonrecord(MappedReader in, Fields f) throws Exception {
+		if (f.pending != null) {
+			Object[] row = f.pending;
+			f.pending = null;
+			return row;
+		}
+		Object[] row = new Object[f.targets.length];
+		return ndjsonrow(in, f.bykey, row) ? row : null;
+	}
+
+	private boolean ndjsonobject(MappedReader in, LinkedHashMap<String, Object> out) throws Exception {
+		int c = skipspace(in);
+		if (c < 0) {
+			return false;
+		}
+		if (c != '{')
+			throw new Exception("NDJSON record does not start with { at byte " + (in.position() - 1));
+		c = skipspace(in);
+		while (c != '}') {
+			String key = jsonkey(in, c);
+			out.put(key, jsonvalue(in, skipspace(in)));
+			c = skipspace(in);
+			if (c == ',') {
+				c = skipspace(in);
+			}
+		}
+		return true;
+	}
+
+	private boolean ndjsonrow(MappedReader in, Map<String, Integer> bykey, Object[] row) throws Exception {
+		int c = skipspace(in);
+		if (c < 0) {
+			return false;
+		}
+		if (c != '{')
+			throw new Exception("NDJSON record does not start with { at byte " + (in.position() - 1));
+		c = skipspace(in);
+		while (c != '}') {
+			String key = jsonkey(in, c);
+			Integer t = bykey.get(key);
+			Object v = jsonvalue(in, skipspace(in));
+			if (t != null) {
+				row[t] = v;
+			}
+			c = skipspace(in);
+			if (c == ',') {
+				c = skipspace(in);
+			}
+		}
+		return true;
+	}
+
+	private String jsonkey(MappedReader in, int c) throws Exception {
+		if (c != '"')
+			throw new Exception("Expected a field name at byte " + (in.position() - 1));
+		String key = jsonstring(in);
+		if (skipspace(in) != ':')
+			throw new Exception("Expected : after field " + key);
+		return key;
+	}
+
+	private Object jsonvalue(MappedReader in, int c) throws Exception {
+		switch (c) {
+		case '"':
+			return jsonstring(in);
+		case '{':
+		case '[':
+			return jsonraw(in, c);
+		case 't':
+		case 'f':
+		case 'n': {
+			flen = 0;
+			add(c);
+			while (Character.isLetter(in.peek())) {
+				add(in.next());
+			}
+			String word = new String(field, 0, flen, StandardCharsets.US_ASCII);
+			if (word.equals("true"))
+				return Boolean.TRUE;
+			if (word.equals("false"))
+				return Boolean.FALSE;
+			if (word.equals("null"))
+				return null;
+			throw new Exception("Unexpected value " + word);
+		}
+		default: {
+			flen = 0;
+			add(c);
+			boolean decimal = false;
+			int p = in.peek();
+			while (p >= 0 && (Character.isDigit(p) || p == '.' || p == 'e' || p == 'E' || p == '-' || p == '+')) {
+				decimal |= p == '.' || p == 'e' || p == 'E';
+				add(in.next());
+				p = in.peek();
+			}
+			String num = new String(field, 0, flen, StandardCharsets.US_ASCII);
+			try {
+				if (!decimal && flen < 19) {
+					return Long.parseLong(num);
+				}
+				return new BigDecimal(num);
+			} catch (NumberFormatException e) {
+				throw new Exception("Invalid number " + num);
+			}
+		}
+		}
+	}
+
+	private String jsonstring(MappedReader in) throws Exception {
+		flen = 0;
+		while (true) {
+			int c = in.next();
+			if (c < 0)
+				throw new Exception("Unterminated string");
+			if (c == '"') {
+				return new String(field, 0, flen, StandardCharsets.UTF_8);
+			}
+			if (c != '\\') {
+				add(c);
+				continue;
+			}
+			c = in.next();
+			switch (c) {
+			case 'n':
+				add('\n');
+				break;
+			case 't':
+				add('\t');
+				break;
+			case 'r':
+				add('\r');
+				break;
+			case 'b':
+				add('\b');
+				break;
+			case 'f':
+				add('\f');
+				break;
+			case 'u': {
+				int cp = 0;
+				for (int i = 0; i < 4; i++) {
+					cp = cp * 16 + Character.digit(in.next(), 16);
+				}
+				if (Character.isHighSurrogate((char) cp) && in.peek() == '\\') {
+					in.next();
+					in.next();
+					int lo = 0;
+					for (int i = 0; i < 4; i++) {
+						lo = lo * 16 + Character.digit(in.next(), 16);
+					}
+					cp = Character.toCodePoint((char) cp, (char) lo);
+				}
+				for (byte b : new String(Character.toChars(cp)).getBytes(StandardCharsets.UTF_8)) {
+					add(b);
+				}
+				break;
+			}
+			default:
+				add(c);
+			}
+		}
+	}
+
+	/**
+	 * Returns a nested object or array as its JSON text.
+	 */
+	private String jsonraw(MappedReader in, int open) throws Exception {
+		flen = 0;
+		add(open);
+		int depth = 1;
+		boolean instring = false;
+		while (depth > 0) {
+			int c = in.next();
+			if (c < 0)
+				throw new Exception("Unterminated nested value");
+			add(c);
+			if (instring) {
+				if (c == '\\') {
+					add(in.next());
+				} else if (c == '"') {
+					instring = false;
+				}
+			} else if (c == '"') {
+				instring = true;
+			} else if (c == '{' || c == '[') {
+				depth++;
+			} else if (c == '}' || c == ']') {
+				depth--;
+			}
+		}
+		return new String(field, 0, flen, StandardCharsets.UTF_8);
+	}
+
+	private static int skipspace(MappedReader in) throws IOException {
+		int c = in.next();
+		while (c == ' ' || c == '\t' || c == '\n' || c == '\r') {
+			c = in.next();
+		}
+		return c;
+	}
+
+	/**
+	 * A run of parsed records and the record number of its first one.
+	 */
+	private static final class Chunk {
+		static final Chunk END = new Chunk(-1, 0);
+		final long first;
+		final List<Object[]> rows;
+
+		Chunk(long first, int size) {
+			this.first = first;
+			this.rows = new ArrayList<>(size);
+		}
+	}
+
+	/**
+	 * Sequential byte reader over memory-mapped windows of a file.
+	 */
+	private static final class MappedReader {
+		private final FileChannel ch;
+		private final long size;
+		private long base;
+		private MappedByteBuffer buf;
+
+		MappedReader(FileChannel ch, long size) throws IOException {
+			this.ch = ch;
+			this.size = size;
+			this.buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(WINDOW, size));
+		}
+
+		int next() throws IOException {
+			if (!buf.hasRemaining() && !remap()) {
+				return -1;
+			}
+			return buf.get() & 0xff;
+		}
+
+		int peek() throws IOException {
+			if (!buf.hasRemaining() && !remap()) {
+				return -1;
+			}
+			return buf.get(buf.position()) & 0xff;
+		}
+
+		long position() {
+			return base + buf.position();
+		}
+
+		void skipbom() throws IOException {
+			if (size >= 3 && buf.get(0) == (byte) 0xEF && buf.get(1) == (byte) 0xBB && buf.get(2) == (byte) 0xBF) {
+				buf.position(3);
+			}
+		}
+
+		private boolean remap() throws IOException {
+			long next = base + buf.limit();
+			if (next >= size) {
+				return false;
+			}
+			base = next;
+			buf = ch.map(FileChannel.MapMode.READ_ONLY, base, Math.min(WINDOW, size - base));
+			return true;
+		}
+	}
+}
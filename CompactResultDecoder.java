@@ -0,0 +1,265 @@
+package com.chat.db;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * CompactResultDecoder reads the compact select responses of
+ * {@link SmartCrudEngine} back into rows on the client side:
+ * <ul>
+ *     <li>JSON with {@code "format":"array"} – {@code query_data} holds one
+ *     positional array per row</li>
+ *     <li>JSON with {@code "format":"column"} – {@code query_data} holds one
+ *     array of values per column</li>
+ *     <li>the binary format written by {@link BinaryRowEncoder}</li>
+ * </ul>
+ * In all three the column names and types are listed once, ahead of the
+ * values. Values decode to {@link Integer}, {@link Long}, {@link Double},
+ * {@link BigDecimal}, {@link Boolean} or {@link String}, with SQL NULL as
+ * {@code null}.
+ */
+public final class CompactResultDecoder {
+
+	private final List<String> names = new ArrayList<>();
+	private final List<String> types = new ArrayList<>();
+	private final List<Object[]> rows = new ArrayList<>();
+	private boolean done;
+	private String message;
+
+	private CompactResultDecoder() {
+	}
+
+	/**
+	 * Decodes a JSON response in the {@code array} or {@code column} format.
+	 * An error response without rows decodes to a result with no columns.
+	 *
+	 * @param json response text
+	 * @return decoded result
+	 * @throws IllegalArgumentException if the response is not in a compact format
+	 */
+	public static CompactResultDecoder parse(String json) {
+		JSONObject response = new JSONObject(json);
+		CompactResultDecoder result = new CompactResultDecoder();
+		result.done = "DONE".equals(response.optString("sign"));
+		result.message = response.has("error") ? response.optString("error") : response.optString("message");
+		JSONArray cols = response.optJSONArray("columns");
+		if (cols == null) {
+			if (result.done) {
+				throw new IllegalArgumentException("Response has no column list; request it with rfm array or column");
+			}
+			return result;
+		}
+		for (int i = 0; i < cols.length(); i++) {
+			result.names.add(cols.getJSONObject(i).getString("name"));
+			result.types.add(cols.getJSONObject(i).optString("type"));
+		}
+		int n = cols.length();
+		JSONArray data = response.getJSONArray("query_data");
+		if ("column".equals(response.optString("format"))) {
+			int count = n == 0 ? 0 : data.getJSONArray(0).length();
+			for (int r = 0; r < count; r++) {
+				result.rows.add(new Object[n]);
+			}
+			for (int c = 0; c < n; c++) {
+				JSONArray values = data.getJSONArray(c);
+				for (int r = 0; r < count; r++) {
+					result.rows.get(r)[c] = jsonvalue(values.opt(r));
+				}
+			}
+		} else {
+			for (int r = 0; r < data.length(); r++) {
+				JSONArray values = data.getJSONArray(r);
+				Object[] row = new Object[n];
+				for (int c = 0; c < n; c++) {
+					row[c] = jsonvalue(values.opt(c));
+				}
+				result.rows.add(row);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Decodes a binary response, reading {@code in} up to the trailer.
+	 *
+	 * @param in binary response; buffering it is up to the caller
+	 * @return decoded result
+	 * @throws IOException if reading fails or the stream is not a binary response
+	 */
+	public static CompactResultDecoder read(InputStream in) throws IOException {
+		DataInputStream din = in instanceof DataInputStream ? (DataInputStream) in : new DataInputStream(in);
+		if (din.readInt() != BinaryRowEncoder.MAGIC) {
+			throw new IOException("Not a binary select response");
+		}
+		int version = din.readByte();
+		if (version != BinaryRowEncoder.VERSION) {
+			throw new IOException("Unsupported binary response version " + version);
+		}
+		CompactResultDecoder result = new CompactResultDecoder();
+		int n = din.readUnsignedShort();
+		int[] kinds = new int[n];
+		for (int i = 0; i < n; i++) {
+			result.names.add(string(din));
+			result.types.add(string(din));
+			kinds[i] = din.readByte();
+		}
+		int bitmap = (n + 7) >>> 3;
+		int len;
+		while ((len = din.readInt()) != BinaryRowEncoder.END) {
+			if (len < bitmap) {
+				throw new IOException("Corrupt row frame of " + len + " bytes");
+			}
+			byte[] nulls = new byte[bitmap];
+			din.readFully(nulls);
+			Object[] row = new Object[n];
+			for (int c = 0; c < n; c++) {
+				if ((nulls[c >>> 3] & (1 << (c & 7))) == 0) {
+					row[c] = binaryvalue(din, kinds[c]);
+				}
+			}
+			result.rows.add(row);
+		}
+		long count = din.readLong();
+		if (count != result.rows.size()) {
+			throw new IOException("Trailer counts " + count + " rows, read " + result.rows.size());
+		}
+		result.done = din.readByte() == 0;
+		result.message = string(din);
+		return result;
+	}
+
+	/**
+	 * @return {@code true} if the query completed, {@code false} if the
+	 *         response ended with an error
+	 */
+	public boolean done() {
+		return done;
+	}
+
+	/**
+	 * @return completion message, or the error when {@link #done()} is false
+	 */
+	public String message() {
+		return message;
+	}
+
+	public int columnCount() {
+		return names.size();
+	}
+
+	/**
+	 * @param i zero-based column index
+	 * @return column name
+	 */
+	public String columnName(int i) {
+		return names.get(i);
+	}
+
+	/**
+	 * @param i zero-based column index
+	 * @return database type name of the column
+	 */
+	public String columnType(int i) {
+		return types.get(i);
+	}
+
+	public int rowCount() {
+		return rows.size();
+	}
+
+	/**
+	 * @param r zero-based row index
+	 * @return values of the row in column order
+	 */
+	public Object[] row(int r) {
+		return rows.get(r);
+	}
+
+	/**
+	 * @param r zero-based row index
+	 * @param c zero-based column index
+	 * @return value, {@code null} for SQL NULL
+	 */
+	public Object value(int r, int c) {
+		return rows.get(r)[c];
+	}
+
+	/**
+	 * Rebuilds the default response format, one JSON object per row with SQL
+	 * NULL columns left out.
+	 *
+	 * @return JSON response
+	 */
+	public JSONObject toResponse() {
+		JSONArray data = new JSONArray();
+		for (Object[] row : rows) {
+			JSONObject obj = new JSONObject();
+			for (int c = 0; c < row.length; c++) {
+				if (row[c] != null) {
+					obj.put(names.get(c), row[c]);
+				}
+			}
+			data.put(obj);
+		}
+		JSONObject response = new JSONObject();
+		response.put("query_data", data);
+		response.put("executed_cmd", "SELECT");
+		response.put("effected_row", rows.size());
+		if (done) {
+			response.put("sign", "DONE");
+			response.put("message", message);
+		} else {
+			response.put("sign", "ERROR");
+			response.put("error", message);
+		}
+		return response;
+	}
+
+	private static Object jsonvalue(Object v) {
+		if (v == null || JSONObject.NULL.equals(v)) {
+			return null;
+		}
+		if (v instanceof Number && !(v instanceof Integer || v instanceof Long || v instanceof BigDecimal)) {
+			return ((Number) v).doubleValue();
+		}
+		return v;
+	}
+
+	private static Object binaryvalue(DataInputStream din, int kind) throws IOException {
+		switch (kind) {
+		case JsonRowEncoder.INT:
+			return din.readInt();
+		case JsonRowEncoder.LONG:
+			return din.readLong();
+		case JsonRowEncoder.DOUBLE:
+			return din.readDouble();
+		case JsonRowEncoder.FLOAT:
+			return din.readFloat();
+		case JsonRowEncoder.DECIMAL:
+			return new BigDecimal(string(din));
+		case JsonRowEncoder.BOOLEAN:
+			return din.readByte() != 0;
+		default:
+			return string(din);
+		}
+	}
+
+	private static String string(DataInputStream din) throws IOException {
+		int len = din.readInt();
+		if (len < 0) {
+			throw new EOFException("Negative string length " + len);
+		}
+		byte[] b = new byte[len];
+		din.readFully(b);
+		return new String(b, StandardCharsets.UTF_8);
+	}
+}
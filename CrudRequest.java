@@ -0,0 +1,851 @@
+package com.chat.db;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * CrudRequest is a reusable, decoded JSON request of the CRUD contract, read
+ * straight from UTF-8 bytes without building a {@link JSONObject} of the
+ * whole request first. <br>
+ * The keys of the contract are pulled into fields as they are read:
+ * <ul>
+ *     <li><b>main_sign</b>, <b>qtn</b>, <b>qcn</b>, <b>rtp</b>, <b>raw_qry</b>
+ *     – strings</li>
+ *     <li><b>qdt</b> – an object into {@link #data()}, or an array of row
+ *     objects into {@link #dataRows()}</li>
+ *     <li><b>qcl</b> – an array of strings into {@link #columns()}</li>
+ *     <li><b>params</b> – an object into {@link #params()}</li>
+ * </ul>
+ * Any other key, or a contract key holding a value of another type, is kept
+ * as read in {@link #options()}. Values decode to the same types as in
+ * {@link JSONObject}: {@link String}, {@link Integer}, {@link Long},
+ * {@link BigInteger}, {@link BigDecimal}, {@link Boolean},
+ * {@link JSONObject#NULL} and nested {@link JSONObject}/{@link JSONArray}.
+ * <p>
+ * An instance is meant to be decoded again and again: its maps, lists and
+ * buffers keep their capacity, and the strings naming keys, tables, columns,
+ * operations and query templates are shared between requests through a small
+ * cache instead of being created per request. Not thread-safe; one request is
+ * decoded and used at a time.
+ */
+public final class CrudRequest {
+
+	private static final String[] KEYS = { "main_sign", "qtn", "qdt", "qcl", "qcn", "rtp", "raw_qry", "params" };
+	private static final int MAIN_SIGN = 0;
+	private static final int QTN = 1;
+	private static final int QDT = 2;
+	private static final int QCL = 3;
+	private static final int QCN = 4;
+	private static final int RTP = 5;
+	private static final int RAW_QRY = 6;
+	private static final int PARAMS = 7;
+
+	/** Slots of the string cache, a power of two. */
+	private static final int CACHE = 512;
+	/** Longest string kept in the cache, enough for a query template. */
+	private static final int CACHEDLEN = 4096;
+
+	private String mainsign;
+	private String table;
+	private String condition;
+	private String rtp;
+	private String rawquery;
+	private final LinkedHashMap<String, Object> data = new LinkedHashMap<>();
+	private final Map<String, Object> dataview = Collections.unmodifiableMap(data);
+	private boolean hasdata;
+	private JSONArray datarows;
+	private final List<String> columns = new ArrayList<>();
+	private final List<String> columnview = Collections.unmodifiableList(columns);
+	private boolean hascolumns;
+	private final LinkedHashMap<String, Object> params = new LinkedHashMap<>();
+	private final Map<String, Object> paramview = Collections.unmodifiableMap(params);
+	private boolean hasparams;
+	private final JSONObject options = new JSONObject();
+	private int seen;
+	private int keys;
+
+	// input: the bytes of buf between pos and lim, refilled from in or source
+	private byte[] buf;
+	private int pos;
+	private int lim;
+	private InputStream in;
+	private ByteBuffer source;
+	private final byte[] chunk = new byte[8192];
+	private long offset;
+
+	private char[] chars = new char[256];
+	private int clen;
+	private final String[] strings = new String[CACHE];
+
+	/**
+	 * Decodes a request, replacing the previous one.
+	 *
+	 * @param body UTF-8 JSON object
+	 * @return this request
+	 * @throws JSONException if the body is not a JSON object
+	 */
+	public CrudRequest decode(byte[] body) {
+		return decode(body, 0, body.length);
+	}
+
+	/**
+	 * Decodes a request from part of an array, replacing the previous one.
+	 *
+	 * @param body UTF-8 bytes
+	 * @param off  index of the first byte
+	 * @param len  number of bytes
+	 * @return this request
+	 * @throws JSONException if the bytes are not a JSON object
+	 */
+	public CrudRequest decode(byte[] body, int off, int len) {
+		clear();
+		buf = body;
+		pos = off;
+		lim = off + len;
+		offset = -off;
+		try {
+			parse();
+		} finally {
+			buf = null;
+		}
+		return this;
+	}
+
+	/**
+	 * Decodes a request from the remaining bytes of a buffer, replacing the
+	 * previous one. The buffer's position is moved to its limit.
+	 *
+	 * @param body UTF-8 bytes
+	 * @return this request
+	 * @throws JSONException if the bytes are not a JSON object
+	 */
+	public CrudRequest decode(ByteBuffer body) {
+		if (body.hasArray()) {
+			decode(body.array(), body.arrayOffset() + body.position(), body.remaining());
+			body.position(body.limit());
+			return this;
+		}
+		clear();
+		source = body;
+		start();
+		return this;
+	}
+
+	/**
+	 * Decodes a request from a stream, reading it to its end and replacing the
+	 * previous request. The stream is not closed.
+	 *
+	 * @param body UTF-8 JSON object
+	 * @return this request
+	 * @throws IOException   if reading fails
+	 * @throws JSONException if the stream does not hold a JSON object
+	 */
+	public CrudRequest decode(InputStream body) throws IOException {
+		clear();
+		in = body;
+		try {
+			start();
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+		return this;
+	}
+
+	private void start() {
+		buf = chunk;
+		pos = 0;
+		lim = 0;
+		offset = 0;
+		try {
+			parse();
+		} finally {
+			buf = null;
+			in = null;
+			source = null;
+		}
+	}
+
+	/**
+	 * Drops the decoded request, keeping the capacity of the buffers and the
+	 * string cache for the next one.
+	 */
+	public void clear() {
+		mainsign = null;
+		table = null;
+		condition = null;
+		rtp = null;
+		rawquery = null;
+		data.clear();
+		hasdata = false;
+		datarows = null;
+		columns.clear();
+		hascolumns = false;
+		params.clear();
+		hasparams = false;
+		options.clear();
+		seen = 0;
+		keys = 0;
+		if (chars.length > 4 * CACHEDLEN) {
+			chars = new char[256];
+		}
+	}
+
+	/**
+	 * @return {@code true} if the request object has no keys
+	 */
+	public boolean isEmpty() {
+		return keys == 0;
+	}
+
+	/**
+	 * @return {@code main_sign}, {@code null} if absent
+	 */
+	public String mainSign() {
+		return mainsign;
+	}
+
+	/**
+	 * @return {@code qtn}, {@code null} if absent
+	 */
+	public String table() {
+		return table;
+	}
+
+	/**
+	 * @return {@code qcn}, {@code null} if absent
+	 */
+	public String condition() {
+		return condition;
+	}
+
+	/**
+	 * @return {@code rtp}, {@code null} if absent
+	 */
+	public String rtp() {
+		return rtp;
+	}
+
+	/**
+	 * @return {@code raw_qry}, {@code null} if absent
+	 */
+	public String rawQuery() {
+		return rawquery;
+	}
+
+	/**
+	 * @return {@code true} if {@code qdt} is an object
+	 */
+	public boolean hasData() {
+		return hasdata;
+	}
+
+	/**
+	 * @return the {@code qdt} object, columns in request order; empty unless
+	 *         {@link #hasData()}. Valid until the next decode
+	 */
+	public Map<String, Object> data() {
+		return dataview;
+	}
+
+	/**
+	 * @return the {@code qdt} array of row objects, {@code null} unless
+	 *         {@code qdt} is an array
+	 */
+	public JSONArray dataRows() {
+		return datarows;
+	}
+
+	/**
+	 * @return {@code true} if {@code qcl} is an array of strings
+	 */
+	public boolean hasColumns() {
+		return hascolumns;
+	}
+
+	/**
+	 * @return the {@code qcl} columns; empty unless {@link #hasColumns()}.
+	 *         Valid until the next decode
+	 */
+	public List<String> columns() {
+		return columnview;
+	}
+
+	/**
+	 * @return {@code true} if {@code params} is an object
+	 */
+	public boolean hasParams() {
+		return hasparams;
+	}
+
+	/**
+	 * @return the {@code params} object; empty unless {@link #hasParams()}.
+	 *         Valid until the next decode
+	 */
+	public Map<String, Object> params() {
+		return paramview;
+	}
+
+	/**
+	 * @return the keys outside the contract fields, e.g. {@code qrp} or
+	 *         {@code rfm}; never {@code null}. Valid until the next decode
+	 */
+	public JSONObject options() {
+		return options;
+	}
+
+	/**
+	 * Builds the request as a {@link JSONObject}, for the operations that
+	 * take one.
+	 *
+	 * @return new JSON object with all keys of the request
+	 */
+	public JSONObject toJSON() {
+		JSONObject val = new JSONObject();
+		for (String key : options.keySet()) {
+			val.put(key, options.get(key));
+		}
+		val.putOpt("main_sign", mainsign);
+		val.putOpt("qtn", table);
+		val.putOpt("qcn", condition);
+		val.putOpt("rtp", rtp);
+		val.putOpt("raw_qry", rawquery);
+		if (hasdata) {
+			val.put("qdt", new JSONObject(data));
+		} else if (datarows != null) {
+			val.put("qdt", datarows);
+		}
+		if (hascolumns) {
+			val.put("qcl", new JSONArray(columns));
+		}
+		if (hasparams) {
+			val.put("params", new JSONObject(params));
+		}
+		return val;
+	}
+
+	@Override
+	public String toString() {
+		return toJSON().toString();
+	}
+
+	private void parse() {
+		if (skip() != '{') {
+			throw error("A JSONObject text must begin with '{'");
+		}
+		int c = skip();
+		while (c != '}') {
+			if (c != '"') {
+				throw error("A JSONObject text must have a key");
+			}
+			string();
+			int key = keyindex();
+			String unknown = key < 0 ? cached() : null;
+			if (key >= 0 ? (seen & (1 << key)) != 0 : options.has(unknown)) {
+				throw error("Duplicate key \"" + (key < 0 ? unknown : KEYS[key]) + "\"");
+			}
+			if (skip() != ':') {
+				throw error("Expected a ':' after a key");
+			}
+			keys++;
+			if (key < 0) {
+				options.put(unknown, value(skip()));
+			} else {
+				seen |= 1 << key;
+				field(key);
+			}
+			c = skip();
+			if (c == ',') {
+				c = skip();
+			} else if (c != '}') {
+				throw error("Expected a ',' or '}'");
+			}
+		}
+		if (skip() != -1) {
+			throw error("Unexpected content after the request object");
+		}
+	}
+
+	/**
+	 * Reads the value of a contract key into its field, or into the options if
+	 * it has another type.
+	 */
+	private void field(int key) {
+		int c = skip();
+		switch (key) {
+		case QDT:
+			if (c == '{') {
+				hasdata = true;
+				members(data);
+				return;
+			}
+			if (c == '[') {
+				datarows = (JSONArray) value(c);
+				return;
+			}
+			break;
+		case QCL:
+			if (c == '[') {
+				columnlist();
+				return;
+			}
+			break;
+		case PARAMS:
+			if (c == '{') {
+				hasparams = true;
+				members(params);
+				return;
+			}
+			break;
+		default:
+			if (c == '"') {
+				string();
+				String s = cached();
+				switch (key) {
+				case MAIN_SIGN:
+					mainsign = s;
+					break;
+				case QTN:
+					table = s;
+					break;
+				case QCN:
+					condition = s;
+					break;
+				case RTP:
+					rtp = s;
+					break;
+				default:
+					rawquery = s;
+				}
+				return;
+			}
+		}
+		options.put(KEYS[key], value(c));
+	}
+
+	/**
+	 * Reads the members of an object whose '{' was read into {@code map}.
+	 */
+	private void members(Map<String, Object> map) {
+		int c = skip();
+		while (c != '}') {
+			if (c != '"') {
+				throw error("A JSONObject text must have a key");
+			}
+			string();
+			String name = cached();
+			if (skip() != ':') {
+				throw error("Expected a ':' after a key");
+			}
+			if (map.put(name, value(skip())) != null) {
+				throw error("Duplicate key \"" + name + "\"");
+			}
+			c = skip();
+			if (c == ',') {
+				c = skip();
+			} else if (c != '}') {
+				throw error("Expected a ',' or '}'");
+			}
+		}
+	}
+
+	/**
+	 * Reads the {@code qcl} array whose '[' was read. A value that is not a
+	 * string moves the whole array to the options.
+	 */
+	private void columnlist() {
+		int c = skip();
+		JSONArray mixed = null;
+		while (c != ']') {
+			if (mixed == null && c == '"') {
+				string();
+				columns.add(cached());
+			} else {
+				if (mixed == null) {
+					mixed = new JSONArray(columns);
+					columns.clear();
+				}
+				mixed.put(value(c));
+			}
+			c = skip();
+			if (c == ',') {
+				c = skip();
+			} else if (c != ']') {
+				throw error("Expected a ',' or ']'");
+			}
+		}
+		if (mixed == null) {
+			hascolumns = true;
+		} else {
+			options.put("qcl", mixed);
+		}
+	}
+
+	/**
+	 * Reads any JSON value starting with {@code c}.
+	 */
+	private Object value(int c) {
+		switch (c) {
+		case '"':
+			string();
+			return new String(chars, 0, clen);
+		case '{': {
+			JSONObject obj = new JSONObject();
+			c = skip();
+			while (c != '}') {
+				if (c != '"') {
+					throw error("A JSONObject text must have a key");
+				}
+				string();
+				String name = cached();
+				if (skip() != ':') {
+					throw error("Expected a ':' after a key");
+				}
+				if (obj.has(name)) {
+					throw error("Duplicate key \"" + name + "\"");
+				}
+				obj.put(name, value(skip()));
+				c = skip();
+				if (c == ',') {
+					c = skip();
+				} else if (c != '}') {
+					throw error("Expected a ',' or '}'");
+				}
+			}
+			return obj;
+		}
+		case '[': {
+			JSONArray arr = new JSONArray();
+			c = skip();
+			while (c != ']') {
+				arr.put(value(c));
+				c = skip();
+				if (c == ',') {
+					c = skip();
+				} else if (c != ']') {
+					throw error("Expected a ',' or ']'");
+				}
+			}
+			return arr;
+		}
+		case 't':
+			literal("rue");
+			return Boolean.TRUE;
+		case 'f':
+			literal("alse");
+			return Boolean.FALSE;
+		case 'n':
+			literal("ull");
+			return JSONObject.NULL;
+		default:
+			if (c == '-' || (c >= '0' && c <= '9')) {
+				return number(c);
+			}
+			throw error(c == -1 ? "Unexpected end of input" : "Unexpected character '" + (char) c + "'");
+		}
+	}
+
+	private void literal(String rest) {
+		for (int i = 0; i < rest.length(); i++) {
+			if (next() != rest.charAt(i)) {
+				throw error("Invalid literal");
+			}
+		}
+	}
+
+	/**
+	 * Reads a number as {@link JSONObject} does: integers to the smallest of
+	 * Integer, Long and BigInteger, decimals to BigDecimal and negative zero to
+	 * Double.
+	 */
+	private Object number(int c) {
+		clen = 0;
+		boolean integral = true;
+		while (true) {
+			if (c >= '0' && c <= '9' || c == '-') {
+				append((char) c);
+			} else if (c == '.' || c == 'e' || c == 'E' || c == '+') {
+				integral = false;
+				append((char) c);
+			} else {
+				break;
+			}
+			c = peek();
+			if (c == '-' || c == '+' || c == '.' || c == 'e' || c == 'E' || (c >= '0' && c <= '9')) {
+				pos++;
+			} else {
+				break;
+			}
+		}
+		boolean negative = chars[0] == '-';
+		int digits = clen - (negative ? 1 : 0);
+		if (integral && digits > 0 && digits <= 18) {
+			long v = 0;
+			for (int i = negative ? 1 : 0; i < clen; i++) {
+				char d = chars[i];
+				if (d < '0' || d > '9') {
+					throw error("Invalid number");
+				}
+				v = v * 10 + (d - '0');
+			}
+			if (negative) {
+				if (v == 0) {
+					return -0.0d;
+				}
+				v = -v;
+			}
+			if (v == (int) v) {
+				return Integer.valueOf((int) v);
+			}
+			return Long.valueOf(v);
+		}
+		String s = new String(chars, 0, clen);
+		try {
+			if (!integral) {
+				BigDecimal bd = new BigDecimal(s);
+				if (negative && bd.signum() == 0) {
+					return -0.0d;
+				}
+				return bd;
+			}
+			BigInteger bi = new BigInteger(s);
+			if (bi.bitLength() <= 31) {
+				return bi.intValue();
+			}
+			if (bi.bitLength() <= 63) {
+				return bi.longValue();
+			}
+			return bi;
+		} catch (NumberFormatException e) {
+			throw error("Invalid number " + s);
+		}
+	}
+
+	/**
+	 * Reads a string whose opening quote was read into {@code chars}.
+	 */
+	private void string() {
+		clen = 0;
+		while (true) {
+			// ASCII runs are copied straight from the buffer
+			while (pos < lim) {
+				byte b = buf[pos];
+				if (b < 0x20 || b == '"' || b == '\\') {
+					break;
+				}
+				if (clen == chars.length) {
+					chars = Arrays.copyOf(chars, clen * 2);
+				}
+				chars[clen++] = (char) b;
+				pos++;
+			}
+			int c = next();
+			if (c == '"') {
+				return;
+			}
+			if (c == -1 || c == '\n' || c == '\r') {
+				throw error("Unterminated string");
+			}
+			if (c == '\\') {
+				escape();
+			} else if (c >= 0x80) {
+				utf8(c);
+			} else {
+				append((char) c);
+			}
+		}
+	}
+
+	private void escape() {
+		int c = next();
+		switch (c) {
+		case 'b':
+			append('\b');
+			break;
+		case 't':
+			append('\t');
+			break;
+		case 'n':
+			append('\n');
+			break;
+		case 'f':
+			append('\f');
+			break;
+		case 'r':
+			append('\r');
+			break;
+		case 'u': {
+			int v = 0;
+			for (int i = 0; i < 4; i++) {
+				int h = Character.digit(next(), 16);
+				if (h < 0) {
+					throw error("Illegal escape");
+				}
+				v = (v << 4) | h;
+			}
+			append((char) v);
+			break;
+		}
+		case '"':
+		case '\\':
+		case '/':
+			append((char) c);
+			break;
+		default:
+			throw error("Illegal escape");
+		}
+	}
+
+	/**
+	 * Decodes a multi-byte UTF-8 sequence starting with {@code b}; malformed
+	 * input becomes U+FFFD as with an {@link java.io.InputStreamReader}.
+	 */
+	private void utf8(int b) {
+		int n;
+		int cp;
+		if ((b & 0xE0) == 0xC0) {
+			n = 1;
+			cp = b & 0x1F;
+		} else if ((b & 0xF0) == 0xE0) {
+			n = 2;
+			cp = b & 0x0F;
+		} else if ((b & 0xF8) == 0xF0) {
+			n = 3;
+			cp = b & 0x07;
+		} else {
+			append('\uFFFD');
+			return;
+		}
+		for (int i = 0; i < n; i++) {
+			int c = peek();
+			if ((c & 0xC0) != 0x80) {
+				append('\uFFFD');
+				return;
+			}
+			pos++;
+			cp = (cp << 6) | (c & 0x3F);
+		}
+		if (cp > 0xFFFF) {
+			append(Character.highSurrogate(cp));
+			append(Character.lowSurrogate(cp));
+		} else {
+			append((char) cp);
+		}
+	}
+
+	private void append(char c) {
+		if (clen == chars.length) {
+			chars = Arrays.copyOf(chars, clen * 2);
+		}
+		chars[clen++] = c;
+	}
+
+	/**
+	 * @return index in {@link #KEYS} of the string just read, -1 if it is not
+	 *         a contract key
+	 */
+	private int keyindex() {
+		for (int k = 0; k < KEYS.length; k++) {
+			if (matches(KEYS[k])) {
+				return k;
+			}
+		}
+		return -1;
+	}
+
+	private boolean matches(String s) {
+		if (s.length() != clen) {
+			return false;
+		}
+		for (int i = 0; i < clen; i++) {
+			if (s.charAt(i) != chars[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return the string just read, from the cache if it was read before
+	 */
+	private String cached() {
+		if (clen > CACHEDLEN) {
+			return new String(chars, 0, clen);
+		}
+		int h = 0;
+		for (int i = 0; i < clen; i++) {
+			h = 31 * h + chars[i];
+		}
+		int slot = (h ^ (h >>> 16)) & (CACHE - 1);
+		String s = strings[slot];
+		if (s == null || !matches(s)) {
+			s = new String(chars, 0, clen);
+			strings[slot] = s;
+		}
+		return s;
+	}
+
+	/**
+	 * @return next byte after whitespace, -1 at the end of input
+	 */
+	private int skip() {
+		int c;
+		do {
+			c = next();
+		} while (c == ' ' || c == '\t' || c == '\n' || c == '\r');
+		return c;
+	}
+
+	private int next() {
+		if (pos == lim && !fill()) {
+			return -1;
+		}
+		return buf[pos++] & 0xFF;
+	}
+
+	private int peek() {
+		if (pos == lim && !fill()) {
+			return -1;
+		}
+		return buf[pos] & 0xFF;
+	}
+
+	private boolean fill() {
+		if (buf != chunk) {
+			return false;
+		}
+		offset += lim;
+		pos = 0;
+		lim = 0;
+		if (source != null) {
+			int n = Math.min(chunk.length, source.remaining());
+			source.get(chunk, 0, n);
+			lim = n;
+		} else if (in != null) {
+			try {
+				int n = in.read(chunk);
+				lim = Math.max(n, 0);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+		return lim > 0;
+	}
+
+	private JSONException error(String msg) {
+		return new JSONException(msg + " at byte " + (offset + pos));
+	}
+}
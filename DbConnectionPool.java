@@ -0,0 +1,533 @@
+package com.chat.db;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.json.JSONObject;
+
+/**
+ * DbConnectionPool keeps a bounded set of JDBC connections open so that
+ * {@link SmartCrudEngine} does not pay for a new physical connection on every
+ * query. <br>
+ * Borrowed connections are handed out as proxies; calling {@code close()} on
+ * them returns the physical connection to the pool instead of closing it.
+ * <p>
+ * Supported settings:
+ * <ul>
+ *     <li><b>minsize</b> – connections kept open even when idle</li>
+ *     <li><b>maxsize</b> – upper bound of open connections</li>
+ *     <li><b>idletimeout</b> – idle time (ms) after which surplus connections are evicted</li>
+ *     <li><b>validate</b> – checks {@link Connection#isValid(int)} before handing a connection out</li>
+ *     <li><b>borrowtimeout</b> – maximum wait (ms) for a free connection</li>
+ *     <li><b>stmtcache</b> – prepared statements kept open per connection (0 disables)</li>
+ * </ul>
+ * With a statement cache, {@code prepareStatement(String)} on a pooled
+ * connection hands back the already prepared statement for the same SQL text,
+ * and closing it only clears its parameters.
+ */
+public class DbConnectionPool implements AutoCloseable {
+
+	/** Seconds given to {@link Connection#isValid(int)} while validating. */
+	protected static final int VALIDATION_TIMEOUT = 5;
+
+	protected final String dburl;
+	protected final String dbunm;
+	protected final String dbpwd;
+	protected final int minsize;
+	protected final int maxsize;
+	protected final long idletimeout;
+	protected final boolean validate;
+	protected final long borrowtimeout;
+	protected final int stmtcache;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition available = lock.newCondition();
+	private final ArrayDeque<PooledEntry> idle = new ArrayDeque<>();
+	private final ScheduledExecutorService evictor;
+	private int total;
+	private int waiters;
+	private boolean closed;
+
+	private final LongAdder borrows = new LongAdder();
+	private final LongAdder timeouts = new LongAdder();
+	private final LongAdder created = new LongAdder();
+	private final LongAdder evicted = new LongAdder();
+	private final LongAdder invalidated = new LongAdder();
+	private final LongAdder waitnanos = new LongAdder();
+	private final AtomicLong maxwaitnanos = new AtomicLong();
+
+	/**
+	 * Creates a pool for the given database. The driver class is loaded once here
+	 * and the minimum number of connections is opened in the background.
+	 *
+	 * @param dbdriver      JDBC driver class name
+	 * @param dburl         JDBC url
+	 * @param dbunm         database user
+	 * @param dbpwd         database password
+	 * @param minsize       connections kept open when idle
+	 * @param maxsize       maximum open connections
+	 * @param idletimeout   idle time in ms before a surplus connection is evicted
+	 * @param validate      validate connections on borrow
+	 * @param borrowtimeout maximum wait in ms for a free connection
+	 * @param stmtcache     prepared statements cached per connection, 0 to disable
+	 * @throws ClassNotFoundException if the driver class is not found
+	 */
+	public DbConnectionPool(String dbdriver, String dburl, String dbunm, String dbpwd, int minsize, int maxsize,
+			long idletimeout, boolean validate, long borrowtimeout, int stmtcache) throws ClassNotFoundException {
+		if (maxsize <= 0 || minsize < 0 || minsize > maxsize) {
+			throw new IllegalArgumentException("Invalid pool size min=" + minsize + " max=" + maxsize);
+		}
+		Class.forName(dbdriver);
+		this.dburl = dburl;
+		this.dbunm = dbunm;
+		this.dbpwd = dbpwd;
+		this.minsize = minsize;
+		this.maxsize = maxsize;
+		this.idletimeout = idletimeout;
+		this.validate = validate;
+		this.borrowtimeout = borrowtimeout;
+		this.stmtcache = stmtcache;
+
+		this.evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "SmartCrudEngine-pool-evictor");
+			t.setDaemon(true);
+			return t;
+		});
+		long period = Math.max(1000L, idletimeout / 2);
+		evictor.scheduleWithFixedDelay(this::maintain, 0, period, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Borrows a connection from the pool, opening a new one if the pool has not
+	 * reached its maximum size. Waits up to {@code borrowtimeout} ms otherwise.
+	 *
+	 * @return a pooled connection; closing it returns it to the pool
+	 * @throws SQLException if no connection becomes available in time or opening one fails
+	 */
+	public Connection borrow() throws SQLException {
+		long start = System.nanoTime();
+		long deadline = start + TimeUnit.MILLISECONDS.toNanos(borrowtimeout);
+		while (true) {
+			PooledEntry entry = null;
+			boolean create = false;
+			lock.lock();
+			try {
+				while (entry == null && !create) {
+					if (closed) {
+						throw new SQLException("Connection pool is closed");
+					}
+					entry = idle.pollFirst();
+					if (entry == null) {
+						if (total < maxsize) {
+							total++;
+							create = true;
+						} else {
+							long left = deadline - System.nanoTime();
+							if (left <= 0) {
+								timeouts.increment();
+								throw new SQLTimeoutException(
+										"Timed out after " + borrowtimeout + " ms waiting for a pooled connection");
+							}
+							waiters++;
+							try {
+								available.awaitNanos(left);
+							} catch (InterruptedException e) {
+								Thread.currentThread().interrupt();
+								throw new SQLException("Interrupted while waiting for a pooled connection", e);
+							} finally {
+								waiters--;
+							}
+						}
+					}
+				}
+			} finally {
+				lock.unlock();
+			}
+
+			if (create) {
+				entry = open();
+			} else if (validate && !isusable(entry)) {
+				invalidated.increment();
+				discard(entry);
+				continue;
+			}
+
+			long waited = System.nanoTime() - start;
+			waitnanos.add(waited);
+			maxwaitnanos.accumulateAndGet(waited, Math::max);
+			borrows.increment();
+			return entry.lease();
+		}
+	}
+
+	/**
+	 * @return number of connections currently borrowed
+	 */
+	public int active() {
+		lock.lock();
+		try {
+			return total - idle.size();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Returns a snapshot of the pool statistics.
+	 *
+	 * @return JSON object with active, idle, waiters and wait time figures
+	 */
+	public JSONObject stats() {
+		JSONObject st = new JSONObject();
+		int idlecount;
+		int totalcount;
+		int waitcount;
+		lock.lock();
+		try {
+			idlecount = idle.size();
+			totalcount = total;
+			waitcount = waiters;
+		} finally {
+			lock.unlock();
+		}
+		long count = borrows.sum();
+		st.put("active", totalcount - idlecount);
+		st.put("idle", idlecount);
+		st.put("total", totalcount);
+		st.put("waiters", waitcount);
+		st.put("min_size", minsize);
+		st.put("max_size", maxsize);
+		st.put("borrows", count);
+		st.put("timeouts", timeouts.sum());
+		st.put("created", created.sum());
+		st.put("evicted", evicted.sum());
+		st.put("invalidated", invalidated.sum());
+		st.put("wait_total_ms", TimeUnit.NANOSECONDS.toMillis(waitnanos.sum()));
+		st.put("wait_max_ms", TimeUnit.NANOSECONDS.toMillis(maxwaitnanos.get()));
+		st.put("wait_avg_ms", count == 0 ? 0.0 : waitnanos.sum() / (double) count / 1_000_000.0);
+		return st;
+	}
+
+	/**
+	 * Closes all idle connections and stops the evictor. Connections that are
+	 * still borrowed are closed when they are returned.
+	 */
+	@Override
+	public void close() {
+		ArrayDeque<PooledEntry> drained;
+		lock.lock();
+		try {
+			closed = true;
+			drained = new ArrayDeque<>(idle);
+			total -= idle.size();
+			idle.clear();
+			available.signalAll();
+		} finally {
+			lock.unlock();
+		}
+		evictor.shutdownNow();
+		for (PooledEntry entry : drained) {
+			closequietly(entry);
+		}
+	}
+
+	/**
+	 * Evicts connections idle for longer than {@code idletimeout} and tops the
+	 * pool back up to {@code minsize}. Runs on the evictor thread.
+	 */
+	private void maintain() {
+		ArrayDeque<PooledEntry> expired = new ArrayDeque<>();
+		int missing;
+		lock.lock();
+		try {
+			if (closed) {
+				return;
+			}
+			long now = System.currentTimeMillis();
+			Iterator<PooledEntry> it = idle.descendingIterator();
+			while (it.hasNext() && total - expired.size() > minsize) {
+				PooledEntry entry = it.next();
+				if (now - entry.lastused >= idletimeout) {
+					it.remove();
+					expired.add(entry);
+				}
+			}
+			total -= expired.size();
+			missing = Math.max(0, minsize - total);
+			total += missing;
+		} finally {
+			lock.unlock();
+		}
+		for (PooledEntry entry : expired) {
+			evicted.increment();
+			closequietly(entry);
+		}
+		for (int i = 0; i < missing; i++) {
+			try {
+				release(open());
+			} catch (SQLException e) {
+				// open() already gave the slot back; retried on the next run
+			}
+		}
+	}
+
+	/**
+	 * Opens a new physical connection for a slot already counted in {@code total}.
+	 */
+	private PooledEntry open() throws SQLException {
+		try {
+			Connection cn = DriverManager.getConnection(dburl, dbunm, dbpwd);
+			created.increment();
+			return new PooledEntry(cn);
+		} catch (SQLException | RuntimeException e) {
+			lock.lock();
+			try {
+				total--;
+				available.signal();
+			} finally {
+				lock.unlock();
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Puts a connection back into the idle set after resetting its session state.
+	 * Broken connections are discarded instead.
+	 */
+	private void release(PooledEntry entry) {
+		try {
+			if (entry.cn.isClosed()) {
+				discard(entry);
+				return;
+			}
+			if (!entry.cn.getAutoCommit()) {
+				entry.cn.rollback();
+				entry.cn.setAutoCommit(true);
+			}
+		} catch (SQLException e) {
+			discard(entry);
+			return;
+		}
+		boolean keep;
+		lock.lock();
+		try {
+			keep = !closed;
+			if (keep) {
+				entry.lastused = System.currentTimeMillis();
+				idle.addFirst(entry);
+			} else {
+				total--;
+			}
+			available.signal();
+		} finally {
+			lock.unlock();
+		}
+		if (!keep) {
+			closequietly(entry);
+		}
+	}
+
+	private void discard(PooledEntry entry) {
+		lock.lock();
+		try {
+			total--;
+			available.signal();
+		} finally {
+			lock.unlock();
+		}
+		closequietly(entry);
+	}
+
+	private boolean isusable(PooledEntry entry) {
+		try {
+			return entry.cn.isValid(VALIDATION_TIMEOUT);
+		} catch (SQLException e) {
+			return false;
+		}
+	}
+
+	private static void closequietly(PooledEntry entry) {
+		try {
+			entry.cn.close();
+		} catch (SQLException e) {
+			// connection is being dropped anyway
+		}
+	}
+
+	/**
+	 * A physical connection owned by the pool, with its prepared statement cache.
+	 * Only the current borrower touches an entry, so the cache needs no locking.
+	 */
+	private final class PooledEntry {
+		final Connection cn;
+		final LinkedHashMap<String, CachedStatement> stmts = new LinkedHashMap<>(16, 0.75f, true);
+		long lastused = System.currentTimeMillis();
+
+		PooledEntry(Connection cn) {
+			this.cn = cn;
+		}
+
+		/**
+		 * Wraps the physical connection in a proxy for one borrower. The proxy
+		 * returns the connection on the first {@code close()} and refuses any use
+		 * after that.
+		 */
+		Connection lease() {
+			InvocationHandler handler = new InvocationHandler() {
+				private boolean released;
+
+				@Override
+				public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+					String name = method.getName();
+					if ("close".equals(name) && method.getParameterCount() == 0) {
+						if (!released) {
+							released = true;
+							release(PooledEntry.this);
+						}
+						return null;
+					}
+					if ("isClosed".equals(name) && method.getParameterCount() == 0) {
+						return released || cn.isClosed();
+					}
+					if (released) {
+						throw new SQLException("Connection has already been returned to the pool");
+					}
+					if ("prepareStatement".equals(name) && method.getParameterCount() == 1 && stmtcache > 0) {
+						return prepare((String) args[0], (Connection) proxy);
+					}
+					try {
+						return method.invoke(cn, args);
+					} catch (InvocationTargetException e) {
+						throw e.getCause();
+					}
+				}
+			};
+			return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+					new Class<?>[] { Connection.class }, handler);
+		}
+
+		/**
+		 * Returns the cached statement for {@code sql}, preparing it on a miss. A
+		 * statement that is still open by the same borrower is not shared; a
+		 * second, uncached statement is prepared instead.
+		 */
+		PreparedStatement prepare(String sql, Connection owner) throws SQLException {
+			CachedStatement cs = stmts.get(sql);
+			if (cs != null && cs.leased) {
+				return cn.prepareStatement(sql);
+			}
+			if (cs == null || cs.ps.isClosed()) {
+				cs = new CachedStatement(cn.prepareStatement(sql));
+				stmts.put(sql, cs);
+				if (stmts.size() > stmtcache) {
+					Iterator<Map.Entry<String, CachedStatement>> it = stmts.entrySet().iterator();
+					CachedStatement eldest = it.next().getValue();
+					if (!eldest.leased) {
+						it.remove();
+						eldest.ps.close();
+					}
+				}
+			}
+			return cs.lease(this, sql, owner);
+		}
+	}
+
+	/**
+	 * A prepared statement kept open in a connection's statement cache.
+	 */
+	private static final class CachedStatement {
+		final PreparedStatement ps;
+		final int fetchsize;
+		boolean leased;
+
+		CachedStatement(PreparedStatement ps) throws SQLException {
+			this.ps = ps;
+			this.fetchsize = ps.getFetchSize();
+		}
+
+		/**
+		 * Wraps the statement for one use. Closing the proxy closes the last result
+		 * set and resets the statement instead of closing it.
+		 */
+		PreparedStatement lease(PooledEntry entry, String sql, Connection owner) {
+			leased = true;
+			InvocationHandler handler = new InvocationHandler() {
+				private boolean closed;
+				private ResultSet lastrs;
+
+				@Override
+				public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+					String name = method.getName();
+					if ("close".equals(name) && method.getParameterCount() == 0) {
+						if (!closed) {
+							closed = true;
+							reset(entry, sql, lastrs);
+						}
+						return null;
+					}
+					if ("isClosed".equals(name) && method.getParameterCount() == 0) {
+						return closed || ps.isClosed();
+					}
+					if (closed) {
+						throw new SQLException("Statement is closed");
+					}
+					if ("getConnection".equals(name)) {
+						return owner;
+					}
+					try {
+						Object result = method.invoke(ps, args);
+						if (result instanceof ResultSet) {
+							lastrs = (ResultSet) result;
+						}
+						return result;
+					} catch (InvocationTargetException e) {
+						throw e.getCause();
+					}
+				}
+			};
+			return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+					new Class<?>[] { PreparedStatement.class }, handler);
+		}
+
+		private void reset(PooledEntry entry, String sql, ResultSet lastrs) {
+			leased = false;
+			try {
+				if (lastrs != null) {
+					lastrs.close();
+				}
+				ps.clearParameters();
+				ps.clearBatch();
+				ps.setMaxRows(0);
+				ps.setQueryTimeout(0);
+				ps.setFetchSize(fetchsize);
+			} catch (SQLException e) {
+				entry.stmts.remove(sql, this);
+				try {
+					ps.close();
+				} catch (SQLException ce) {
+					// statement is being dropped anyway
+				}
+			}
+		}
+	}
+}
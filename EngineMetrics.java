@@ -0,0 +1,215 @@
+package com.chat.db;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.json.JSONObject;
+
+/**
+ * EngineMetrics collects low-overhead counters for {@link SmartCrudEngine}:
+ * per-operation latency histograms split into phases, row counts and error
+ * counts by error code. <br>
+ * Recording only touches {@link LongAdder}s, so it does not serialize the
+ * callers; {@link #snapshot()} exports the current figures as JSON.
+ * <p>
+ * Phases:
+ * <ul>
+ *     <li><b>build</b> – building or compiling the SQL from the request</li>
+ *     <li><b>acquire</b> – borrowing a pooled connection</li>
+ *     <li><b>execute</b> – running the statement</li>
+ *     <li><b>serialize</b> – fetching and encoding the result rows</li>
+ * </ul>
+ */
+public class EngineMetrics {
+
+	public static final int BUILD = 0;
+	public static final int ACQUIRE = 1;
+	public static final int EXECUTE = 2;
+	public static final int SERIALIZE = 3;
+
+	protected static final String[] OPERATIONS = { "insert", "select", "update", "delete", "upsert", "other" };
+	protected static final String[] PHASES = { "build", "acquire", "execute", "serialize" };
+
+	private final Histogram[][] latencies = new Histogram[OPERATIONS.length][PHASES.length];
+	private final LongAdder[] calls = new LongAdder[OPERATIONS.length];
+	private final LongAdder[] rows = new LongAdder[OPERATIONS.length];
+	private final Map<String, LongAdder> errors = new ConcurrentHashMap<>();
+	private volatile long since = System.currentTimeMillis();
+
+	public EngineMetrics() {
+		for (int o = 0; o < OPERATIONS.length; o++) {
+			calls[o] = new LongAdder();
+			rows[o] = new LongAdder();
+			for (int p = 0; p < PHASES.length; p++) {
+				latencies[o][p] = new Histogram();
+			}
+		}
+	}
+
+	/**
+	 * Maps an operation name ({@code main_sign} or query type) to its index.
+	 *
+	 * @param type operation name, case-insensitive
+	 * @return operation index
+	 */
+	public static int operation(String type) {
+		if (type != null) {
+			String t = type.toLowerCase(Locale.ROOT);
+			for (int o = 0; o < OPERATIONS.length - 1; o++) {
+				if (OPERATIONS[o].equals(t)) {
+					return o;
+				}
+			}
+		}
+		return OPERATIONS.length - 1;
+	}
+
+	/**
+	 * Records the duration of one phase.
+	 *
+	 * @param op    operation index from {@link #operation(String)}
+	 * @param phase one of {@link #BUILD}, {@link #ACQUIRE}, {@link #EXECUTE}, {@link #SERIALIZE}
+	 * @param nanos elapsed time in nanoseconds
+	 */
+	public void phase(int op, int phase, long nanos) {
+		latencies[op][phase].record(nanos);
+	}
+
+	/**
+	 * Records a completed statement and the rows it affected or fetched.
+	 *
+	 * @param op    operation index from {@link #operation(String)}
+	 * @param count rows affected or fetched
+	 */
+	public void done(int op, long count) {
+		calls[op].increment();
+		rows[op].add(count);
+	}
+
+	/**
+	 * Counts an error by its code ({@code DBEXER}, {@code JSPRNL}, ...).
+	 *
+	 * @param code error code
+	 */
+	public void error(String code) {
+		errors.computeIfAbsent(code, c -> new LongAdder()).increment();
+	}
+
+	/**
+	 * Clears all figures.
+	 */
+	public void reset() {
+		for (int o = 0; o < OPERATIONS.length; o++) {
+			calls[o].reset();
+			rows[o].reset();
+			for (int p = 0; p < PHASES.length; p++) {
+				latencies[o][p].reset();
+			}
+		}
+		errors.clear();
+		since = System.currentTimeMillis();
+	}
+
+	/**
+	 * Exports the current figures. Per operation: call and row counts, and per
+	 * phase the count, total, max and p50/p90/p99 latency in microseconds
+	 * (percentiles are upper bounds of power-of-two buckets, capped at the max).
+	 *
+	 * @return JSON snapshot
+	 */
+	public JSONObject snapshot() {
+		JSONObject snap = new JSONObject();
+		JSONObject ops = new JSONObject();
+		for (int o = 0; o < OPERATIONS.length; o++) {
+			JSONObject op = new JSONObject();
+			op.put("calls", calls[o].sum());
+			op.put("rows", rows[o].sum());
+			JSONObject phases = new JSONObject();
+			for (int p = 0; p < PHASES.length; p++) {
+				phases.put(PHASES[p], latencies[o][p].snapshot());
+			}
+			op.put("phases", phases);
+			ops.put(OPERATIONS[o], op);
+		}
+		JSONObject errs = new JSONObject();
+		errors.forEach((code, count) -> errs.put(code, count.sum()));
+		snap.put("operations", ops);
+		snap.put("errors", errs);
+		snap.put("since", since);
+		snap.put("taken", System.currentTimeMillis());
+		return snap;
+	}
+
+	/**
+	 * Latency histogram with power-of-two microsecond buckets.
+	 */
+	private static final class Histogram {
+		private static final int BUCKETS = 40;
+		private final LongAdder[] buckets = new LongAdder[BUCKETS];
+		private final LongAdder count = new LongAdder();
+		private final LongAdder total = new LongAdder();
+		private final AtomicLong max = new AtomicLong();
+
+		Histogram() {
+			for (int i = 0; i < BUCKETS; i++) {
+				buckets[i] = new LongAdder();
+			}
+		}
+
+		void record(long nanos) {
+			long micros = Math.max(0, nanos / 1000);
+			int b = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+			buckets[b].increment();
+			count.increment();
+			total.add(micros);
+			if (micros > max.get()) {
+				max.accumulateAndGet(micros, Math::max);
+			}
+		}
+
+		void reset() {
+			for (LongAdder b : buckets) {
+				b.reset();
+			}
+			count.reset();
+			total.reset();
+			max.set(0);
+		}
+
+		JSONObject snapshot() {
+			long[] counts = new long[BUCKETS];
+			long n = 0;
+			for (int i = 0; i < BUCKETS; i++) {
+				counts[i] = buckets[i].sum();
+				n += counts[i];
+			}
+			long top = max.get();
+			JSONObject h = new JSONObject();
+			h.put("count", n);
+			h.put("total_us", total.sum());
+			h.put("max_us", top);
+			h.put("p50_us", Math.min(percentile(counts, n, 0.50), top));
+			h.put("p90_us", Math.min(percentile(counts, n, 0.90), top));
+			h.put("p99_us", Math.min(percentile(counts, n, 0.99), top));
+			return h;
+		}
+
+		private static long percentile(long[] counts, long n, double q) {
+			if (n == 0) {
+				return 0;
+			}
+			long rank = (long) Math.ceil(q * n);
+			long seen = 0;
+			for (int i = 0; i < counts.length; i++) {
+				seen += counts[i];
+				if (seen >= rank) {
+					return i == 0 ? 0 : 1L << i;
+				}
+			}
+			return 1L << (counts.length - 1);
+		}
+	}
+}
@@ -0,0 +1,376 @@
+package com.chat.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.json.JSONObject;
+
+/**
+ * GroupCommitQueue collects single-row inserts of one statement shape (table
+ * and column set) and commits them in groups, so that many callers share one
+ * transaction instead of paying a commit each. <br>
+ * The queued rows run as one JDBC batch when {@code batchsize} rows are
+ * waiting or {@code maxdelay} ms after the first row of the group arrived.
+ * The flushes run on the engine's shared write-behind scheduler
+ * ({@link SmartCrudEngine#writeBehindExecutor()}), whose few threads serve the
+ * queues of every shape, so an idle queue holds no thread. Each row's future
+ * completes with the usual insert response once the group is committed. When
+ * a group fails, its rows are retried one by one so that only the offending
+ * rows report an error. With admission control on, each flush takes an insert
+ * slot; the rows of a group not admitted complete with {@code ADMREJ}.
+ * <p>
+ * The queue is bounded; {@link #offer(List)} blocks the caller while it is
+ * full (back-pressure) and gives up after {@code offertimeout} ms. A queue
+ * that stays empty for {@code idletimeout} ms retires: it removes itself from
+ * the engine's queues and the next row of its shape creates a new one.
+ */
+public class GroupCommitQueue implements AutoCloseable {
+
+	protected final SmartCrudEngine engine;
+	protected final SqlTemplate shape;
+	protected final int batchsize;
+	protected final long maxdelay;
+	protected final long offertimeout;
+	protected final long idletimeout;
+
+	private final ArrayBlockingQueue<Pending> queue;
+	private final ScheduledExecutorService flusher;
+	/** A flush is scheduled for the group waiting to fill. */
+	private final AtomicBoolean timed = new AtomicBoolean();
+	/** A flush of a full group is submitted. */
+	private final AtomicBoolean full = new AtomicBoolean();
+	private volatile ScheduledFuture<?> idlecheck;
+	private volatile long lastoffer = System.nanoTime();
+	private volatile boolean closed;
+	private volatile boolean retired;
+
+	private final LongAdder committed = new LongAdder();
+	private final LongAdder groups = new LongAdder();
+	private final LongAdder failed = new LongAdder();
+	private final LongAdder rejected = new LongAdder();
+
+	/**
+	 * Creates the queue; its groups are flushed on the engine's write-behind
+	 * scheduler.
+	 *
+	 * @param engine       engine whose connection pool runs the groups
+	 * @param shape        parameterized INSERT shared by all rows
+	 * @param capacity     maximum queued rows
+	 * @param batchsize    maximum rows per group commit
+	 * @param maxdelay     maximum time in ms a row waits for its group to fill
+	 * @param offertimeout maximum wait in ms for room in a full queue
+	 * @param idletimeout  time in ms the queue may stay empty before it retires, 0 to keep it
+	 */
+	public GroupCommitQueue(SmartCrudEngine engine, SqlTemplate shape, int capacity, int batchsize, long maxdelay,
+			long offertimeout, long idletimeout) {
+		if (capacity <= 0 || batchsize <= 0 || maxdelay < 0 || idletimeout < 0) {
+			throw new IllegalArgumentException("Invalid write-behind settings capacity=" + capacity + " batch="
+					+ batchsize + " delay=" + maxdelay + " idle=" + idletimeout);
+		}
+		this.engine = engine;
+		this.shape = shape;
+		this.batchsize = batchsize;
+		this.maxdelay = maxdelay;
+		this.offertimeout = offertimeout;
+		this.idletimeout = idletimeout;
+		this.queue = new ArrayBlockingQueue<>(capacity);
+		this.flusher = engine.writeBehindExecutor();
+	}
+
+	/**
+	 * Queues one row, waiting up to {@code offertimeout} ms while the queue is
+	 * full.
+	 *
+	 * @param binds values of the row in the order of the shape's names
+	 * @return future completed with the insert response once the row is
+	 *         committed, {@code null} if the queue has retired and the row must
+	 *         go to the queue now registered for the shape
+	 * @throws InterruptedException if interrupted while waiting for room
+	 */
+	public CompletableFuture<String> offer(List<Object> binds) throws InterruptedException {
+		if (retired) {
+			return null;
+		}
+		Pending p = new Pending(binds);
+		lastoffer = p.arrived;
+		if (closed) {
+			rejected.increment();
+			p.future.complete(engine.fail("WBCLSD", "Write-behind queue is closed"));
+		} else if (!queue.offer(p, offertimeout, TimeUnit.MILLISECONDS)) {
+			rejected.increment();
+			p.future.complete(engine.fail("WBFULL", "Write-behind queue is full after " + offertimeout + " ms"));
+		} else if (closed && queue.remove(p)) {
+			// closed while queueing and close() may already have drained the queue
+			rejected.increment();
+			p.future.complete(engine.fail("WBCLSD", "Write-behind queue is closed"));
+		} else if (retired && queue.remove(p)) {
+			return null;
+		} else {
+			schedule();
+		}
+		return p.future;
+	}
+
+	/**
+	 * @return JSON object with queued rows, committed rows and groups, failed and rejected rows
+	 */
+	public JSONObject stats() {
+		JSONObject st = new JSONObject();
+		long rows = committed.sum();
+		long n = groups.sum();
+		st.put("sql", shape.sql());
+		st.put("queued", queue.size());
+		st.put("committed_rows", rows);
+		st.put("groups", n);
+		st.put("avg_group_rows", n == 0 ? 0.0 : rows / (double) n);
+		st.put("failed_rows", failed.sum());
+		st.put("rejected_rows", rejected.sum());
+		return st;
+	}
+
+	/**
+	 * Stops accepting rows and commits every row already queued on the calling
+	 * thread, so no accepted row is lost when the engine closes its pool
+	 * afterwards. Flushes already running on the scheduler finish on their
+	 * own; the engine waits for them before closing the pool.
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		ScheduledFuture<?> check = idlecheck;
+		if (check != null) {
+			check.cancel(false);
+		}
+		List<Pending> group = new ArrayList<>(batchsize);
+		while (queue.drainTo(group, batchsize) > 0) {
+			flushgroup(group);
+		}
+	}
+
+	/**
+	 * Submits a flush of the full group, or schedules one for when the oldest
+	 * queued row has waited {@code maxdelay} ms. At most one of each is pending.
+	 */
+	private void schedule() {
+		try {
+			if (queue.size() >= batchsize) {
+				if (full.compareAndSet(false, true)) {
+					flusher.execute(() -> flushnext(full));
+				}
+			} else if (timed.compareAndSet(false, true)) {
+				Pending first = queue.peek();
+				long wait = first == null ? 0
+						: TimeUnit.MILLISECONDS.toNanos(maxdelay) - (System.nanoTime() - first.arrived);
+				flusher.schedule(() -> flushnext(timed), Math.max(0, wait), TimeUnit.NANOSECONDS);
+			}
+		} catch (RejectedExecutionException e) {
+			// the engine is closing; close() commits the queued rows
+		}
+	}
+
+	/**
+	 * Flushes one group and schedules the next one, so that the shared threads
+	 * take turns between the queues of busy shapes.
+	 *
+	 * @param trigger flag of the pending flush that is now running
+	 */
+	private void flushnext(AtomicBoolean trigger) {
+		trigger.set(false);
+		List<Pending> group = new ArrayList<>(Math.min(batchsize, queue.size() + 1));
+		queue.drainTo(group, batchsize);
+		if (!group.isEmpty()) {
+			flushgroup(group);
+		}
+		if (!queue.isEmpty()) {
+			schedule();
+		} else if (idletimeout > 0 && !closed) {
+			idle(idletimeout);
+		}
+	}
+
+	/**
+	 * Flushes a group and clears it; a failure the flush does not report
+	 * itself completes the group's futures with an error.
+	 */
+	private void flushgroup(List<Pending> group) {
+		try {
+			flush(group);
+		} catch (Throwable t) {
+			for (Pending p : group) {
+				p.future.complete(engine.fail("DBEXER", String.valueOf(t.getMessage())));
+			}
+		} finally {
+			group.clear();
+		}
+	}
+
+	/**
+	 * Checks in {@code delay} ms whether the queue has stayed empty for
+	 * {@code idletimeout} ms.
+	 */
+	private void idle(long delay) {
+		ScheduledFuture<?> check = idlecheck;
+		if (check != null && !check.isDone()) {
+			return;
+		}
+		try {
+			idlecheck = flusher.schedule(this::retire, delay, TimeUnit.MILLISECONDS);
+		} catch (RejectedExecutionException e) {
+			// the engine is closing
+		}
+	}
+
+	/**
+	 * Removes the queue from the engine once it has been empty for
+	 * {@code idletimeout} ms. A row queued while it retires is either handed
+	 * back to its caller by {@link #offer(List)} or still flushed here.
+	 */
+	private void retire() {
+		if (closed || !queue.isEmpty()) {
+			return;
+		}
+		long idle = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lastoffer);
+		if (idle < idletimeout) {
+			idlecheck = null;
+			idle(idletimeout - idle);
+			return;
+		}
+		retired = true;
+		engine.writequeues.remove(shape.sql(), this);
+	}
+
+	/**
+	 * Commits a group as one batch, falling back to row by row commits if the
+	 * batch fails.
+	 */
+	private void flush(List<Pending> group) throws ClassNotFoundException {
+		int op = EngineMetrics.operation("insert");
+		// the drain of close() is not shed: its rows were accepted already
+		boolean admitted = !closed;
+		String rejected = admitted ? engine.admit(op) : null;
+		if (rejected != null) {
+			this.rejected.add(group.size());
+			for (Pending p : group) {
+				p.future.complete(rejected);
+			}
+			return;
+		}
+		boolean overload = false;
+		long t0 = System.nanoTime();
+		try (Connection cn = engine.getPool().borrow()) {
+			long t1 = System.nanoTime();
+			engine.metrics.phase(op, EngineMetrics.ACQUIRE, t1 - t0);
+			cn.setAutoCommit(false);
+			int[] counts;
+			try (PreparedStatement ps = cn.prepareStatement(shape.sql())) {
+				engine.timeout(ps);
+				for (Pending p : group) {
+					SmartCrudEngine.bindvalues(ps, p.binds);
+					ps.addBatch();
+				}
+				counts = ps.executeBatch();
+				cn.commit();
+			} catch (SQLException e) {
+				cn.rollback();
+				engine.debuglog("Write-behind group of " + group.size() + " rows failed, retrying row by row: "
+						+ e.getMessage());
+				flushrows(cn, group);
+				engine.metrics.phase(op, EngineMetrics.EXECUTE, System.nanoTime() - t1);
+				return;
+			}
+			engine.metrics.phase(op, EngineMetrics.EXECUTE, System.nanoTime() - t1);
+			engine.metrics.done(op, group.size());
+			engine.invalidateWrite(shape.sql());
+			committed.add(group.size());
+			groups.increment();
+			String done = response(1);
+			for (int i = 0; i < group.size(); i++) {
+				int count = i < counts.length ? counts[i] : Statement.SUCCESS_NO_INFO;
+				// SUCCESS_NO_INFO: the row ran but the driver does not report a count
+				group.get(i).future.complete(count == 1 || count == Statement.SUCCESS_NO_INFO ? done
+						: response(Math.max(count, 0)));
+			}
+		} catch (SQLException e) {
+			engine.dberror(e);
+			overload = e instanceof SQLTimeoutException;
+			failed.add(group.size());
+			String error = new JSONObject().put("sign", "ERROR").put("error", e.getMessage()).toString();
+			for (Pending p : group) {
+				p.future.complete(error);
+			}
+		} finally {
+			if (admitted) {
+				// one executeBatch, timed as one batch chunk
+				engine.release(op, System.nanoTime() - t0, overload);
+			}
+		}
+	}
+
+	/**
+	 * Commits the rows of a failed group one at a time, each with the row count
+	 * of its own statement. The caller records the time as the group's execute
+	 * phase.
+	 */
+	private void flushrows(Connection cn, List<Pending> group) throws SQLException {
+		int op = EngineMetrics.operation("insert");
+		long ok = 0;
+		try (PreparedStatement ps = cn.prepareStatement(shape.sql())) {
+			engine.timeout(ps);
+			for (Pending p : group) {
+				try {
+					SmartCrudEngine.bindvalues(ps, p.binds);
+					int rows = ps.executeUpdate();
+					cn.commit();
+					ok++;
+					p.future.complete(response(rows));
+				} catch (SQLException e) {
+					cn.rollback();
+					engine.dberror(e);
+					failed.increment();
+					p.future.complete(new JSONObject().put("sign", "ERROR").put("error", e.getMessage()).toString());
+				}
+			}
+		}
+		if (ok > 0) {
+			engine.metrics.done(op, ok);
+			engine.invalidateWrite(shape.sql());
+			committed.add(ok);
+			groups.increment();
+		}
+	}
+
+	private static String response(int rows) {
+		JSONObject response = new JSONObject();
+		response.put("sign", "DONE");
+		response.put("executed_cmd", "INSERT");
+		response.put("effected_row", rows);
+		response.put("message", "[INSERT] executed. Rows affected: " + rows);
+		return response.toString();
+	}
+
+	/**
+	 * A queued row and the future of its caller.
+	 */
+	private static final class Pending {
+		final List<Object> binds;
+		final long arrived = System.nanoTime();
+		final CompletableFuture<String> future = new CompletableFuture<>();
+
+		Pending(List<Object> binds) {
+			this.binds = binds;
+		}
+	}
+}
@@ -0,0 +1,406 @@
+package com.chat.db;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+
+/**
+ * JsonRowEncoder writes the rows of a {@link ResultSet} as JSON objects
+ * without building a {@link org.json.JSONObject} per row. <br>
+ * Column names and SQL types are resolved once per result set; each cell is
+ * then read with the getter matching its type ({@code getInt},
+ * {@code getLong}, {@code getDouble}, {@code getString}, ...) and appended to
+ * a reusable buffer.
+ * <p>
+ * The output matches what {@code JSONObject.put(getColumnName(i), getObject(i))}
+ * produced: SQL NULL columns are left out of the row, numbers are written
+ * without trailing zeros and other values as quoted strings. For the compact
+ * response formats a row can also be written as a positional array, with
+ * SQL NULL as {@code null}.
+ */
+public final class JsonRowEncoder {
+
+	static final int INT = 0;
+	static final int LONG = 1;
+	static final int DOUBLE = 2;
+	static final int DECIMAL = 3;
+	static final int BOOLEAN = 4;
+	static final int STRING = 5;
+	static final int OTHER = 6;
+	static final int FLOAT = 7;
+
+	private final int colCount;
+	private final String[] names;
+	private final String[] keys;
+	private final String[] types;
+	private final int[] kinds;
+	private final StringBuilder row = new StringBuilder(256);
+	private char[] chars = new char[256];
+
+	/**
+	 * Resolves the column names and types of a result set.
+	 *
+	 * @param meta result set metadata
+	 * @throws SQLException if the metadata cannot be read
+	 */
+	public JsonRowEncoder(ResultSetMetaData meta) throws SQLException {
+		colCount = meta.getColumnCount();
+		names = new String[colCount];
+		keys = new String[colCount];
+		types = new String[colCount];
+		kinds = new int[colCount];
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < colCount; i++) {
+			names[i] = meta.getColumnName(i + 1);
+			sb.setLength(0);
+			quote(names[i], sb);
+			keys[i] = sb.append(':').toString();
+			types[i] = meta.getColumnTypeName(i + 1);
+			kinds[i] = kind(meta.getColumnType(i + 1));
+		}
+	}
+
+	/**
+	 * @return number of columns
+	 */
+	public int columnCount() {
+		return colCount;
+	}
+
+	/**
+	 * @param i zero-based column index
+	 * @return column name as reported by the driver
+	 */
+	public String columnName(int i) {
+		return names[i];
+	}
+
+	/**
+	 * @param i zero-based column index
+	 * @return database type name of the column
+	 */
+	public String columnType(int i) {
+		return types[i];
+	}
+
+	/**
+	 * @param i zero-based column index
+	 * @return getter family used for the column, one of the kind constants
+	 */
+	int columnKind(int i) {
+		return kinds[i];
+	}
+
+	/**
+	 * Appends the column names and type names as a JSON array of
+	 * {@code {"name":..,"type":..}} objects.
+	 *
+	 * @param sb destination
+	 */
+	public void appendcolumns(StringBuilder sb) {
+		sb.append('[');
+		for (int i = 0; i < colCount; i++) {
+			if (i > 0) {
+				sb.append(',');
+			}
+			sb.append("{\"name\":");
+			quote(names[i], sb);
+			sb.append(",\"type\":");
+			quote(String.valueOf(types[i]), sb);
+			sb.append('}');
+		}
+		sb.append(']');
+	}
+
+	/**
+	 * Encodes the current row into the internal buffer. The returned builder is
+	 * reused by the next call.
+	 *
+	 * @param rs result set positioned on a row
+	 * @return buffer holding the row as a JSON object
+	 * @throws SQLException if a value cannot be read
+	 */
+	public StringBuilder encode(ResultSet rs) throws SQLException {
+		row.setLength(0);
+		append(rs, row);
+		return row;
+	}
+
+	/**
+	 * Writes the current row to {@code out} as a JSON object.
+	 *
+	 * @param rs  result set positioned on a row
+	 * @param out destination
+	 * @throws SQLException if a value cannot be read
+	 * @throws IOException  if writing fails
+	 */
+	public void write(ResultSet rs, Writer out) throws SQLException, IOException {
+		encode(rs);
+		int len = row.length();
+		if (chars.length < len) {
+			chars = new char[Math.max(len, chars.length * 2)];
+		}
+		row.getChars(0, len, chars, 0);
+		out.write(chars, 0, len);
+	}
+
+	/**
+	 * Appends the current row to {@code sb} as a JSON object.
+	 *
+	 * @param rs result set positioned on a row
+	 * @param sb destination
+	 * @throws SQLException if a value cannot be read
+	 */
+	public void append(ResultSet rs, StringBuilder sb) throws SQLException {
+		sb.append('{');
+		boolean first = true;
+		for (int i = 0; i < colCount; i++) {
+			int mark = sb.length();
+			if (!first) {
+				sb.append(',');
+			}
+			sb.append(keys[i]);
+			if (appendvalue(rs, i, sb)) {
+				first = false;
+			} else {
+				sb.setLength(mark);
+			}
+		}
+		sb.append('}');
+	}
+
+	/**
+	 * Appends the current row to {@code sb} as a JSON array in column order,
+	 * with SQL NULL as {@code null}.
+	 *
+	 * @param rs result set positioned on a row
+	 * @param sb destination
+	 * @throws SQLException if a value cannot be read
+	 */
+	public void appendarray(ResultSet rs, StringBuilder sb) throws SQLException {
+		sb.append('[');
+		for (int i = 0; i < colCount; i++) {
+			if (i > 0) {
+				sb.append(',');
+			}
+			if (!appendvalue(rs, i, sb)) {
+				sb.append("null");
+			}
+		}
+		sb.append(']');
+	}
+
+	/**
+	 * Appends the value of a single column.
+	 *
+	 * @param rs result set positioned on a row
+	 * @param i  zero-based column index
+	 * @param sb destination
+	 * @return {@code false} if the value is SQL NULL and nothing was appended
+	 * @throws SQLException if the value cannot be read
+	 */
+	public boolean appendvalue(ResultSet rs, int i, StringBuilder sb) throws SQLException {
+		int col = i + 1;
+		switch (kinds[i]) {
+		case INT: {
+			int v = rs.getInt(col);
+			if (rs.wasNull())
+				return false;
+			sb.append(v);
+			return true;
+		}
+		case LONG: {
+			long v = rs.getLong(col);
+			if (rs.wasNull())
+				return false;
+			sb.append(v);
+			return true;
+		}
+		case DOUBLE: {
+			double v = rs.getDouble(col);
+			if (rs.wasNull())
+				return false;
+			if (Double.isNaN(v) || Double.isInfinite(v)) {
+				sb.append('"').append(v).append('"');
+			} else {
+				int start = sb.length();
+				sb.append(v);
+				trimzeros(sb, start);
+			}
+			return true;
+		}
+		case FLOAT: {
+			// REAL: read as float so 1.1 stays 1.1, as JSONObject prints a Float
+			float v = rs.getFloat(col);
+			if (rs.wasNull())
+				return false;
+			if (Float.isNaN(v) || Float.isInfinite(v)) {
+				sb.append('"').append(v).append('"');
+			} else {
+				int start = sb.length();
+				sb.append(v);
+				trimzeros(sb, start);
+			}
+			return true;
+		}
+		case DECIMAL: {
+			BigDecimal v = rs.getBigDecimal(col);
+			if (v == null)
+				return false;
+			int start = sb.length();
+			sb.append(v.toString());
+			trimzeros(sb, start);
+			return true;
+		}
+		case BOOLEAN: {
+			boolean v = rs.getBoolean(col);
+			if (rs.wasNull())
+				return false;
+			sb.append(v);
+			return true;
+		}
+		case STRING: {
+			String v = rs.getString(col);
+			if (v == null)
+				return false;
+			quote(v, sb);
+			return true;
+		}
+		default: {
+			Object v = rs.getObject(col);
+			if (v == null)
+				return false;
+			if (v instanceof Number) {
+				int start = sb.length();
+				sb.append(v.toString());
+				trimzeros(sb, start);
+			} else if (v instanceof Boolean) {
+				sb.append(((Boolean) v).booleanValue());
+			} else {
+				quote(v.toString(), sb);
+			}
+			return true;
+		}
+		}
+	}
+
+	/**
+	 * Appends {@code s} as a quoted JSON string, escaping like
+	 * {@code JSONObject.quote}.
+	 *
+	 * @param s  text to quote
+	 * @param sb destination
+	 */
+	public static void quote(String s, StringBuilder sb) {
+		sb.append('"');
+		char prev = 0;
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			switch (c) {
+			case '\\':
+			case '"':
+				sb.append('\\').append(c);
+				break;
+			case '/':
+				if (prev == '<') {
+					sb.append('\\');
+				}
+				sb.append(c);
+				break;
+			case '\b':
+				sb.append("\\b");
+				break;
+			case '\t':
+				sb.append("\\t");
+				break;
+			case '\n':
+				sb.append("\\n");
+				break;
+			case '\f':
+				sb.append("\\f");
+				break;
+			case '\r':
+				sb.append("\\r");
+				break;
+			default:
+				if (c < ' ' || (c >= '\u0080' && c < '\u00a0') || (c >= '\u2000' && c < '\u2100')) {
+					sb.append("\\u");
+					String hex = Integer.toHexString(c);
+					for (int p = hex.length(); p < 4; p++) {
+						sb.append('0');
+					}
+					sb.append(hex);
+				} else {
+					sb.append(c);
+				}
+			}
+			prev = c;
+		}
+		sb.append('"');
+	}
+
+	/**
+	 * Removes trailing zeros after the decimal point of the number appended at
+	 * {@code start}, as {@code JSONObject.numberToString} does.
+	 */
+	private static void trimzeros(StringBuilder sb, int start) {
+		boolean dot = false;
+		for (int i = start; i < sb.length(); i++) {
+			char c = sb.charAt(i);
+			if (c == 'e' || c == 'E') {
+				return;
+			}
+			if (c == '.') {
+				dot = true;
+			}
+		}
+		if (!dot) {
+			return;
+		}
+		int end = sb.length();
+		while (sb.charAt(end - 1) == '0') {
+			end--;
+		}
+		if (sb.charAt(end - 1) == '.') {
+			end--;
+		}
+		sb.setLength(end);
+	}
+
+	private static int kind(int sqltype) {
+		switch (sqltype) {
+		case Types.INTEGER:
+		case Types.SMALLINT:
+		case Types.TINYINT:
+			return INT;
+		case Types.BIGINT:
+			return LONG;
+		case Types.DOUBLE:
+		case Types.FLOAT:
+			return DOUBLE;
+		case Types.REAL:
+			return FLOAT;
+		case Types.DECIMAL:
+		case Types.NUMERIC:
+			return DECIMAL;
+		case Types.BIT:
+		case Types.BOOLEAN:
+			return BOOLEAN;
+		case Types.CHAR:
+		case Types.VARCHAR:
+		case Types.LONGVARCHAR:
+		case Types.NCHAR:
+		case Types.NVARCHAR:
+		case Types.LONGNVARCHAR:
+		case Types.CLOB:
+		case Types.NCLOB:
+			return STRING;
+		default:
+			return OTHER;
+		}
+	}
+}
@@ -0,0 +1,218 @@
+package com.chat.db;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+import org.json.JSONObject;
+
+/**
+ * PagedSelect runs one page of a JSON select in cursor (keyset) mode. Rows
+ * are ordered by a unique key column and each page continues after the last
+ * key of the previous one with {@code WHERE key > ?}, so every page costs the
+ * same regardless of depth. <br>
+ * The last key of a full page is handed back as an opaque continuation token:
+ * the key value with its type, tagged with a hash of table, columns,
+ * condition and key so a token is only accepted by the query it came from.
+ * The page query asks for one row more than the page size to tell whether
+ * another page follows.
+ */
+public class PagedSelect {
+
+	protected final SmartCrudEngine engine;
+	protected final String key;
+	protected final int size;
+	protected final boolean primary;
+	protected final String shape;
+	protected final String sql;
+	protected final List<Object> binds = new ArrayList<>();
+
+	/**
+	 * @param engine    engine whose connections run the page
+	 * @param table     upper-case table name
+	 * @param columns   select list, holding the key column
+	 * @param condition condition without WHERE, may be empty; no ORDER BY
+	 * @param key       key column, unique and not null
+	 * @param size      rows per page
+	 * @param token     continuation token of the previous page, {@code null}
+	 *                  or empty for the first page
+	 * @param primary   read from the primary even with replicas configured
+	 * @throws Exception if the token does not belong to this query
+	 */
+	public PagedSelect(SmartCrudEngine engine, String table, String columns, String condition, String key, int size,
+			String token, boolean primary) throws Exception {
+		if (size <= 0)
+			throw new Exception("Page size must be positive");
+		this.engine = engine;
+		this.key = key;
+		this.size = size;
+		this.primary = primary;
+		this.shape = Integer.toHexString((table + "|" + columns + "|" + condition + "|" + key).hashCode());
+
+		StringBuilder sb = new StringBuilder("SELECT ").append(columns).append(" FROM ").append(table)
+				.append(" WHERE ");
+		if (!condition.isEmpty()) {
+			sb.append("(").append(condition).append(") AND ");
+		}
+		if (token != null && !token.isEmpty()) {
+			binds.add(pagekey(token, shape));
+			sb.append(key).append(" > ?");
+		} else {
+			sb.append(key).append(" IS NOT NULL");
+		}
+		sb.append(" ORDER BY ").append(key);
+		this.sql = engine.dialect.limit(sb.toString(), size + 1);
+	}
+
+	/**
+	 * @return the page query with its row limit and JDBC {@code ?} markers
+	 */
+	public String sql() {
+		return sql;
+	}
+
+	/**
+	 * @return values for the markers of {@link #sql()}, in order
+	 */
+	public List<Object> binds() {
+		return binds;
+	}
+
+	/**
+	 * Runs the page. The response is the usual select response plus
+	 * {@code next_token}, which is only present when more rows follow.
+	 *
+	 * @return Result of the execution as a string
+	 * @throws ClassNotFoundException if database driver class is not found
+	 */
+	public String execute() throws ClassNotFoundException {
+		int op = EngineMetrics.operation("select");
+		JSONObject response = new JSONObject();
+
+		engine.debuglog("Page query received: " + sql);
+
+		String rejected = engine.admit(op);
+		if (rejected != null) {
+			return rejected;
+		}
+		boolean overload = false;
+		long t1 = System.nanoTime();
+		try (Connection cn = engine.readConnection(primary)) {
+			long t2 = System.nanoTime();
+			engine.metrics.phase(op, EngineMetrics.ACQUIRE, t2 - t1);
+			try (PreparedStatement ps = cn.prepareStatement(sql)) {
+				SmartCrudEngine.trackstatement(ps);
+				engine.timeout(ps);
+				ps.setMaxRows(size + 1);
+				SmartCrudEngine.bindvalues(ps, binds);
+				try (ResultSet rs = ps.executeQuery()) {
+					long t3 = System.nanoTime();
+					engine.metrics.phase(op, EngineMetrics.EXECUTE, t3 - t2);
+					JsonRowEncoder encoder = new JsonRowEncoder(rs.getMetaData());
+					int keyidx = -1;
+					for (int i = 0; i < encoder.columnCount(); i++) {
+						if (encoder.columnName(i).equalsIgnoreCase(key)) {
+							keyidx = i + 1;
+						}
+					}
+					if (keyidx < 0) {
+						throw new SQLException("Key column " + key + " is not in the result");
+					}
+					StringBuilder sb = new StringBuilder(1024).append("{\"query_data\":[");
+					int rows = 0;
+					Object last = null;
+					boolean more = false;
+					while (rs.next()) {
+						if (rows == size) {
+							more = true;
+							break;
+						}
+						if (rows++ > 0) {
+							sb.append(',');
+						}
+						encoder.append(rs, sb);
+						if (rows == size) {
+							last = rs.getObject(keyidx);
+						}
+					}
+					sb.append("],\"executed_cmd\":\"SELECT\",\"sign\":\"DONE\",\"effected_row\":").append(rows)
+							.append(",\"message\":\"[SELECT] executed. Rows fetched: ").append(rows).append('"');
+					if (more) {
+						sb.append(",\"next_token\":\"").append(pagetoken(shape, last)).append('"');
+					}
+					engine.metrics.phase(op, EngineMetrics.SERIALIZE, System.nanoTime() - t3);
+					engine.metrics.done(op, rows);
+					if (engine.slowlog != null) {
+						engine.slowlog.record("select", sql, binds, System.nanoTime() - t1, rows, false);
+					}
+					return sb.append('}').toString();
+				}
+			}
+		} catch (SQLException e) {
+			engine.dberror(e);
+			overload = e instanceof SQLTimeoutException;
+			if (engine.slowlog != null) {
+				engine.slowlog.record("select", sql, binds, System.nanoTime() - t1, 0, true);
+			}
+			response.put("sign", "ERROR");
+			response.put("error", e.getMessage());
+		} finally {
+			engine.release(op, System.nanoTime() - t1, overload);
+		}
+		return response.toString();
+	}
+
+	/**
+	 * Encodes the last key of a page as an opaque continuation token.
+	 */
+	private static String pagetoken(String shape, Object last) {
+		JSONObject token = new JSONObject();
+		token.put("s", shape);
+		if (last instanceof Timestamp) {
+			token.put("t", "ts");
+			token.put("k", last.toString());
+		} else if (last instanceof java.sql.Date) {
+			token.put("t", "date");
+			token.put("k", last.toString());
+		} else if (last instanceof Number || last instanceof Boolean) {
+			token.put("k", last);
+		} else {
+			token.put("k", String.valueOf(last));
+		}
+		return Base64.getUrlEncoder().withoutPadding()
+				.encodeToString(token.toString().getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Decodes a continuation token into the key value to seek after.
+	 */
+	private static Object pagekey(String qct, String shape) throws Exception {
+		JSONObject token;
+		try {
+			token = new JSONObject(new String(Base64.getUrlDecoder().decode(qct), StandardCharsets.UTF_8));
+		} catch (RuntimeException e) {
+			throw new Exception("Invalid continuation token");
+		}
+		if (!shape.equals(token.optString("s")) || !token.has("k"))
+			throw new Exception("Continuation token does not belong to this query");
+		String type = token.optString("t");
+		if ("ts".equals(type)) {
+			return Timestamp.valueOf(token.getString("k"));
+		} else if ("date".equals(type)) {
+			return java.sql.Date.valueOf(token.getString("k"));
+		}
+		return token.get("k");
+	}
+
+	@Override
+	public String toString() {
+		return "PagedSelect " + sql;
+	}
+}
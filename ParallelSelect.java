@@ -0,0 +1,455 @@
+package com.chat.db;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.Types;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONObject;
+
+/**
+ * ParallelSelect runs a JSON select as several range queries on a partition
+ * column, each on its own pooled connection, and merges their rows into one
+ * response. <br>
+ * The range is found with {@code MIN}/{@code MAX} of the column under the
+ * request's condition and split into {@code degree} sub-ranges of equal width
+ * (numbers, dates and timestamps); rows whose partition column is NULL are
+ * read by one more query. The connections of all partitions are borrowed
+ * before any of them runs, and the partition queries are forked on the
+ * engine's virtual-thread executor, under the cancellation of the calling
+ * async request, and joined by the caller, which writes the rows as they
+ * arrive:
+ * <ul>
+ *     <li>ordered – every partition is sorted by the partition column and the
+ *     partitions are written in range order, so the response is ordered by it
+ *     (NULLs last)</li>
+ *     <li>unordered – rows are written in whatever order partitions deliver them</li>
+ * </ul>
+ * Each partition hands its rows over in encoded blocks through a small bounded
+ * queue, so a partition that runs ahead of the writer waits instead of
+ * buffering its whole result.
+ */
+public class ParallelSelect {
+
+	/** Characters of encoded rows per block handed to the writer. */
+	protected static final int BLOCK = 1 << 15;
+	/** Blocks queued per partition before the partition waits for the writer. */
+	protected static final int QUEUED = 4;
+
+	protected final SmartCrudEngine engine;
+	protected final String table;
+	protected final String columns;
+	protected final String condition;
+	protected final String partcol;
+	protected final int degree;
+	protected final boolean ordered;
+	protected final boolean primary;
+	protected final int fetchsize;
+
+	private volatile boolean failed;
+	private volatile boolean overload;
+	private long first;
+
+	/**
+	 * @param engine    engine whose connections run the partitions
+	 * @param table     upper-case table name
+	 * @param columns   select list
+	 * @param condition condition without WHERE, may be empty; no ORDER BY or GROUP BY
+	 * @param partcol   numeric, date or timestamp column to split on
+	 * @param degree    number of ranges run in parallel
+	 * @param ordered   order the rows by {@code partcol}
+	 * @param primary   read from the primary even with replicas configured
+	 * @param fetchsize JDBC fetch size of each partition
+	 */
+	public ParallelSelect(SmartCrudEngine engine, String table, String columns, String condition, String partcol,
+			int degree, boolean ordered, boolean primary, int fetchsize) {
+		if (degree <= 0) {
+			throw new IllegalArgumentException("Invalid degree of parallelism " + degree);
+		}
+		this.engine = engine;
+		this.table = table;
+		this.columns = columns;
+		this.condition = condition;
+		this.partcol = partcol;
+		this.degree = degree;
+		this.ordered = ordered;
+		this.primary = primary;
+		this.fetchsize = fetchsize;
+	}
+
+	/**
+	 * Runs the partitions and writes the response to {@code out} in the format
+	 * of {@link SmartCrudEngine#streamSelect(JSONObject, Writer)}, with the
+	 * number of partitions in {@code partitions}. A failing partition stops
+	 * the others and ends the response with {@code "sign":"ERROR"}. With
+	 * admission control on, the call takes one select slot for all its
+	 * partitions; a call not admitted writes the {@code ADMREJ} error.
+	 *
+	 * @param out destination of the JSON response
+	 * @return number of rows written
+	 * @throws ClassNotFoundException if database driver class is not found
+	 * @throws IOException            if writing to {@code out} fails
+	 */
+	public long stream(Writer out) throws ClassNotFoundException, IOException {
+		int op = EngineMetrics.operation("select");
+		String rejected = engine.admit(op);
+		if (rejected != null) {
+			out.write(rejected);
+			out.flush();
+			return 0;
+		}
+		long t0 = System.nanoTime();
+		try {
+			return merge(op, t0, out);
+		} finally {
+			// one admission slot for the call, held to the end, timed to the first rows
+			engine.release(op, (first > 0 ? first : System.nanoTime()) - t0, overload);
+		}
+	}
+
+	/**
+	 * Forks the partitions and writes their rows to {@code out}.
+	 */
+	private long merge(int op, long t0, Writer out) throws ClassNotFoundException, IOException {
+		long rows = 0;
+		List<Partition> parts;
+		try {
+			parts = partitions();
+		} catch (SQLException e) {
+			engine.dberror(e);
+			overload = e instanceof SQLTimeoutException;
+			new JSONObject().put("sign", "ERROR").put("error", e.getMessage()).write(out);
+			out.flush();
+			return 0;
+		}
+		try {
+			borrow(parts);
+		} catch (SQLException e) {
+			engine.dberror(e);
+			overload = e instanceof SQLTimeoutException;
+			new JSONObject().put("sign", "ERROR").put("error", e.getMessage()).write(out);
+			out.flush();
+			return 0;
+		}
+		long t1 = System.nanoTime();
+		engine.metrics.phase(op, EngineMetrics.BUILD, t1 - t0);
+
+		BlockingQueue<Block> shared = ordered ? null : new ArrayBlockingQueue<>(QUEUED * parts.size());
+		for (Partition p : parts) {
+			p.queue = ordered ? new ArrayBlockingQueue<>(QUEUED) : shared;
+		}
+		ExecutorService ex = engine.asyncExecutor();
+		for (Partition p : parts) {
+			ex.execute(SmartCrudEngine.fork(() -> run(p)));
+		}
+
+		String error = null;
+		out.write("{\"executed_cmd\":\"SELECT\",\"query_data\":[");
+		try {
+			int done = 0;
+			int current = 0;
+			while (done < parts.size()) {
+				Block b = (ordered ? parts.get(current).queue : shared).take();
+				if (first == 0) {
+					first = System.nanoTime();
+				}
+				if (b.end) {
+					done++;
+					current++;
+					if (b.error != null && error == null) {
+						error = b.error;
+						failed = true;
+					}
+					continue;
+				}
+				if (error != null) {
+					continue;
+				}
+				if (rows > 0) {
+					out.write(',');
+				}
+				out.append(b.text);
+				rows += b.rows;
+			}
+		} catch (InterruptedException e) {
+			failed = true;
+			Thread.currentThread().interrupt();
+			error = "Interrupted while merging partitions";
+		} catch (IOException e) {
+			failed = true;
+			throw e;
+		}
+		engine.metrics.phase(op, EngineMetrics.EXECUTE, System.nanoTime() - t1);
+
+		if (error == null) {
+			out.write("],\"sign\":\"DONE\",\"effected_row\":" + rows + ",\"partitions\":" + parts.size()
+					+ ",\"message\":\"[SELECT] executed. Rows fetched: " + rows + "\"}");
+			engine.metrics.done(op, rows);
+		} else {
+			String body = new JSONObject().put("sign", "ERROR").put("error", error).toString();
+			out.write("],\"effected_row\":" + rows + "," + body.substring(1));
+		}
+		out.flush();
+		return rows;
+	}
+
+	/**
+	 * Reads the range of the partition column and builds one query per
+	 * sub-range plus one for NULLs.
+	 */
+	private List<Partition> partitions() throws SQLException, ClassNotFoundException {
+		String where = condition.isEmpty() ? " WHERE " : " WHERE (" + condition + ") AND ";
+		Object min;
+		Object max;
+		int type;
+		try (Connection cn = engine.readConnection(primary);
+				PreparedStatement ps = cn.prepareStatement("SELECT MIN(" + partcol + "), MAX(" + partcol + ") FROM "
+						+ table + (condition.isEmpty() ? "" : " WHERE " + condition))) {
+			SmartCrudEngine.trackstatement(ps);
+			engine.timeout(ps);
+			try (ResultSet rs = ps.executeQuery()) {
+				rs.next();
+				type = rs.getMetaData().getColumnType(1);
+				min = bound(rs, 1, type);
+				max = bound(rs, 2, type);
+			}
+		}
+		engine.debuglog("Partition range of " + table + "." + partcol + ": " + min + " .. " + max);
+
+		String select = "SELECT " + columns + " FROM " + table + where;
+		String order = ordered ? " ORDER BY " + partcol : "";
+		List<Partition> parts = new ArrayList<>();
+		if (min != null) {
+			List<Object> bounds = split(min, max, type);
+			for (int i = 0; i <= bounds.size(); i++) {
+				Partition p = new Partition();
+				if (bounds.isEmpty()) {
+					p.sql = select + partcol + " IS NOT NULL" + order;
+				} else if (i == 0) {
+					p.sql = select + partcol + " < ?" + order;
+					p.binds.add(bounds.get(0));
+				} else if (i == bounds.size()) {
+					p.sql = select + partcol + " >= ?" + order;
+					p.binds.add(bounds.get(i - 1));
+				} else {
+					p.sql = select + partcol + " >= ? AND " + partcol + " < ?" + order;
+					p.binds.add(bounds.get(i - 1));
+					p.binds.add(bounds.get(i));
+				}
+				parts.add(p);
+			}
+		}
+		Partition nulls = new Partition();
+		nulls.sql = select + partcol + " IS NULL";
+		parts.add(nulls);
+		return parts;
+	}
+
+	/**
+	 * Borrows the connections of all partitions. Partitions that held their
+	 * connection while waiting for the writer, with earlier partitions still
+	 * waiting for theirs, could otherwise deadlock two calls on a busy pool;
+	 * the engine's lock keeps two calls from each holding part of the pool.
+	 * On failure the connections borrowed so far are returned.
+	 */
+	private void borrow(List<Partition> parts) throws SQLException, ClassNotFoundException {
+		engine.parallelborrow.lock();
+		try {
+			for (Partition p : parts) {
+				p.cn = engine.readConnection(primary);
+			}
+		} catch (SQLException | ClassNotFoundException | RuntimeException e) {
+			for (Partition p : parts) {
+				if (p.cn != null) {
+					p.cn.close();
+					p.cn = null;
+				}
+			}
+			throw e;
+		} finally {
+			engine.parallelborrow.unlock();
+		}
+	}
+
+	/**
+	 * Reads MIN or MAX as a {@link BigDecimal}, {@link LocalDate} or
+	 * {@link java.sql.Timestamp}.
+	 */
+	private Object bound(ResultSet rs, int col, int type) throws SQLException {
+		switch (type) {
+		case Types.DATE:
+			java.sql.Date d = rs.getDate(col);
+			return d == null ? null : d.toLocalDate();
+		case Types.TIMESTAMP:
+		case Types.TIMESTAMP_WITH_TIMEZONE:
+			return rs.getTimestamp(col);
+		case Types.TINYINT:
+		case Types.SMALLINT:
+		case Types.INTEGER:
+		case Types.BIGINT:
+		case Types.DECIMAL:
+		case Types.NUMERIC:
+		case Types.REAL:
+		case Types.FLOAT:
+		case Types.DOUBLE:
+			return rs.getBigDecimal(col);
+		default:
+			if (rs.getObject(col) == null) {
+				return null;
+			}
+			throw new SQLException("Partition column " + partcol + " must be numeric, date or timestamp");
+		}
+	}
+
+	/**
+	 * Returns the inner boundaries splitting {@code [min, max]} into at most
+	 * {@code degree} ranges of equal width; fewer when the range is too narrow.
+	 */
+	private List<Object> split(Object min, Object max, int type) {
+		List<Object> bounds = new ArrayList<>();
+		BigDecimal lo;
+		BigDecimal hi;
+		if (min instanceof LocalDate) {
+			lo = BigDecimal.valueOf(((LocalDate) min).toEpochDay());
+			hi = BigDecimal.valueOf(((LocalDate) max).toEpochDay());
+		} else if (min instanceof java.sql.Timestamp) {
+			lo = BigDecimal.valueOf(((java.sql.Timestamp) min).getTime());
+			hi = BigDecimal.valueOf(((java.sql.Timestamp) max).getTime());
+		} else {
+			lo = (BigDecimal) min;
+			hi = (BigDecimal) max;
+		}
+		boolean integral = min instanceof LocalDate || min instanceof java.sql.Timestamp || type == Types.TINYINT
+				|| type == Types.SMALLINT || type == Types.INTEGER || type == Types.BIGINT;
+		BigDecimal width = hi.subtract(lo);
+		BigDecimal last = lo;
+		for (int i = 1; i < degree; i++) {
+			BigDecimal b = lo.add(width.multiply(BigDecimal.valueOf(i)).divide(BigDecimal.valueOf(degree), 10,
+					RoundingMode.FLOOR));
+			if (integral) {
+				b = b.setScale(0, RoundingMode.FLOOR);
+			}
+			if (b.compareTo(last) <= 0 || b.compareTo(hi) > 0) {
+				continue;
+			}
+			last = b;
+			if (min instanceof LocalDate) {
+				bounds.add(java.sql.Date.valueOf(LocalDate.ofEpochDay(b.longValue())));
+			} else if (min instanceof java.sql.Timestamp) {
+				bounds.add(new java.sql.Timestamp(b.longValue()));
+			} else if (integral) {
+				bounds.add(b.longValue());
+			} else {
+				bounds.add(b);
+			}
+		}
+		return bounds;
+	}
+
+	/**
+	 * Runs one partition and hands its rows to the writer in blocks, ending
+	 * with an end marker that carries the error, if any.
+	 */
+	private void run(Partition p) {
+		String error = null;
+		try (Connection cn = p.cn) {
+			// cursor based fetching needs an open transaction on some drivers
+			cn.setAutoCommit(false);
+			try (PreparedStatement ps = cn.prepareStatement(p.sql)) {
+				SmartCrudEngine.trackstatement(ps);
+				engine.timeout(ps);
+				ps.setFetchSize(fetchsize);
+				SmartCrudEngine.bindvalues(ps, p.binds);
+				try (ResultSet rs = ps.executeQuery()) {
+					JsonRowEncoder encoder = new JsonRowEncoder(rs.getMetaData());
+					Block b = new Block();
+					while (!failed && rs.next()) {
+						if (b.rows > 0) {
+							b.text.append(',');
+						}
+						encoder.append(rs, b.text);
+						b.rows++;
+						if (b.text.length() >= BLOCK) {
+							if (!put(p.queue, b)) {
+								break;
+							}
+							b = new Block();
+						}
+					}
+					if (b.rows > 0) {
+						put(p.queue, b);
+					}
+				}
+			}
+			cn.commit();
+		} catch (Exception e) {
+			engine.dberror(e);
+			error = String.valueOf(e.getMessage());
+			overload |= e instanceof SQLTimeoutException;
+			failed = true;
+		}
+		Block end = new Block();
+		end.end = true;
+		end.error = error;
+		try {
+			p.queue.put(end);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Queues a block, giving up once another partition has failed.
+	 */
+	private boolean put(BlockingQueue<Block> queue, Block b) throws InterruptedException {
+		while (!failed) {
+			if (queue.offer(b, 100, TimeUnit.MILLISECONDS)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * One range query.
+	 */
+	private static final class Partition {
+		String sql;
+		final List<Object> binds = new ArrayList<>(2);
+		BlockingQueue<Block> queue;
+		Connection cn;
+	}
+
+	/**
+	 * Encoded rows of a partition, or its end marker.
+	 */
+	private static final class Block {
+		final StringBuilder text = new StringBuilder();
+		int rows;
+		boolean end;
+		String error;
+
+		@Override
+		public String toString() {
+			return end ? "end" : rows + " rows";
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "ParallelSelect " + table + " by " + partcol + " x" + degree + (ordered ? " ordered" : "");
+	}
+}
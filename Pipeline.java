@@ -0,0 +1,325 @@
+package com.chat.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Pipeline runs a list of operations on one pooled connection in one
+ * transaction: either every step is committed or, on the first failing step,
+ * all of them are rolled back. <br>
+ * Steps are built with the engine's statement shapes and schema checks, so a
+ * step behaves like the same request sent on its own. The first result row
+ * (or generated key row) and the row count of every step are kept by step id,
+ * and later steps refer to them with {@code "@sid.COLUMN"} values that are
+ * resolved just before the step is bound. Result caches of the written tables
+ * are invalidated once the transaction has committed. A Pipeline keeps these
+ * results, so it runs once.
+ */
+public class Pipeline {
+
+	protected final SmartCrudEngine engine;
+	protected final JSONArray ops;
+
+	private final Map<String, Map<String, Object>> results = new HashMap<>();
+	private final List<String> written = new ArrayList<>();
+
+	/**
+	 * @param engine engine whose connection runs the steps
+	 * @param ops    JSON array of operations, not empty
+	 */
+	public Pipeline(SmartCrudEngine engine, JSONArray ops) {
+		if (ops == null || ops.isEmpty()) {
+			throw new IllegalArgumentException("Cannot process null or empty pipeline");
+		}
+		this.engine = engine;
+		this.ops = ops;
+	}
+
+	/**
+	 * Runs the steps in order and commits them together. The response format
+	 * is described at {@link SmartCrudEngine#pipelineExecute(JSONArray)}.
+	 *
+	 * @return combined result of the steps as a string
+	 * @throws ClassNotFoundException if database driver class is not found
+	 */
+	public String execute() throws ClassNotFoundException {
+		DbConnectionPool cp = engine.getPool();
+		StringBuilder steps = new StringBuilder(256);
+		long total = 0;
+		int step = 0;
+		String sid = null;
+
+		engine.debuglog("Pipeline received: " + ops.length() + " steps");
+
+		int op = EngineMetrics.operation("pipeline");
+		String rejected = engine.admit(op);
+		if (rejected != null) {
+			return rejected;
+		}
+		boolean overload = false;
+		long t0 = System.nanoTime();
+		try (Connection cn = cp.borrow()) {
+			engine.metrics.phase(op, EngineMetrics.ACQUIRE, System.nanoTime() - t0);
+			cn.setAutoCommit(false);
+			try {
+				for (step = 0; step < ops.length(); step++) {
+					JSONObject stepop = ops.getJSONObject(step);
+					sid = stepop.optString("sid", String.valueOf(step));
+					if (results.containsKey(sid)) {
+						throw new Exception("Duplicate step id " + sid);
+					}
+					Map<String, Object> row = new HashMap<>();
+					steps.append(step == 0 ? "" : ",");
+					step(cn, sid, stepop, row, steps);
+					results.put(sid, row);
+					total += ((Number) row.get("EFFECTED_ROW")).longValue();
+				}
+				cn.commit();
+			} catch (Exception e) {
+				cn.rollback();
+				throw e;
+			}
+		} catch (SQLException e) {
+			engine.dberror(e);
+			overload = e instanceof SQLTimeoutException;
+			JSONObject response = new JSONObject();
+			response.put("sign", "ERROR");
+			response.put("executed_cmd", "PIPELINE");
+			response.put("error", e.getMessage());
+			response.put("failed_step", step);
+			if (sid != null) {
+				response.put("sid", sid);
+			}
+			return response.toString();
+		} catch (SchemaCache.SchemaException e) {
+			return fail("SCHERR", e, step, sid);
+		} catch (Exception e) {
+			// the step itself is invalid: unknown reference, missing keys, unsupported operation
+			return fail("REQERR", e, step, sid);
+		} finally {
+			// per step, so a long pipeline is not taken for a slow statement
+			engine.release(op, (System.nanoTime() - t0) / ops.length(), overload);
+		}
+		for (String sql : written) {
+			engine.invalidateWrite(sql);
+		}
+		return new StringBuilder(steps.length() + 128).append("{\"steps\":[").append(steps)
+				.append("],\"executed_cmd\":\"PIPELINE\",\"sign\":\"DONE\",\"effected_row\":").append(total)
+				.append(",\"message\":\"[PIPELINE] executed. Steps: ").append(ops.length())
+				.append(", rows affected: ").append(total).append("\"}").toString();
+	}
+
+	/**
+	 * Builds the error response of a pipeline rolled back because a step is
+	 * invalid, with the index and id of that step.
+	 */
+	private String fail(String code, Exception e, int step, String sid) {
+		engine.metrics.error(code);
+		JSONObject response = SmartCrudEngine.errormsgbuilder(code, String.valueOf(e.getMessage()));
+		response.put("executed_cmd", "PIPELINE");
+		response.put("failed_step", step);
+		if (sid != null) {
+			response.put("sid", sid);
+		}
+		return response.toString();
+	}
+
+	/**
+	 * Runs one step on the pipeline's connection and appends its result to
+	 * {@code out}. The first result row (or generated key row) and the row
+	 * count are stored in {@code row} for later references.
+	 */
+	private void step(Connection cn, String sid, JSONObject op, Map<String, Object> row, StringBuilder out)
+			throws Exception {
+		String type = op.optString("main_sign", "").toLowerCase();
+		int opidx = EngineMetrics.operation(type);
+		String sql;
+		List<Object> binds = Collections.emptyList();
+		SqlTemplate batch = null;
+		JSONArray batchrows = null;
+
+		if (op.has("raw_qry")) {
+			SqlTemplate template = engine.getTemplate(op.getString("raw_qry"));
+			sql = template.sql();
+			binds = template.binds(resolverefs(op.optJSONObject("params"), results));
+		} else {
+			switch (type) {
+			case "insert":
+			case "update":
+			case "upsert": {
+				JSONObject req = new JSONObject(op, JSONObject.getNames(op));
+				JSONArray arr = op.optJSONArray("qdt");
+				if (arr != null) {
+					batchrows = new JSONArray();
+					for (int i = 0; i < arr.length(); i++) {
+						batchrows.put(resolverefs(arr.getJSONObject(i), results));
+					}
+					req.put("qdt", batchrows);
+					engine.schemaCheck(req, type);
+					batch = engine.batchShape(req, type);
+					sql = batch.sql();
+				} else {
+					JSONObject data = resolverefs(op.optJSONObject("qdt"), results);
+					req.put("qdt", data);
+					engine.schemaCheck(req, type);
+					SqlTemplate shape = "insert".equals(type) ? engine.insertShape(req)
+							: "upsert".equals(type) ? engine.upsertShape(req) : engine.updateShape(req);
+					sql = shape.sql();
+					binds = engine.typedBinds(req.getString("qtn"), shape, shape.binds(data));
+				}
+				break;
+			}
+			case "delete":
+				engine.schemaCheck(op, type);
+				sql = engine.deleteShape(op).sql();
+				break;
+			case "select":
+				engine.schemaCheck(op, type);
+				sql = SmartCrudEngine.getselectq(op);
+				break;
+			default:
+				throw new Exception("Unsupported operation: " + type);
+			}
+		}
+
+		engine.debuglog("Pipeline step " + sid + ": " + sql);
+
+		out.append("{\"sid\":");
+		JsonRowEncoder.quote(sid, out);
+		out.append(",\"executed_cmd\":\"").append(type.toUpperCase()).append("\",\"sign\":\"DONE\"");
+		long t0 = System.nanoTime();
+		long rows = 0;
+		if ("select".equals(type)) {
+			try (PreparedStatement ps = cn.prepareStatement(sql)) {
+				SmartCrudEngine.trackstatement(ps);
+				engine.timeout(ps);
+				SmartCrudEngine.bindvalues(ps, binds);
+				try (ResultSet rs = ps.executeQuery()) {
+					out.append(",\"query_data\":");
+					rows = appendrows(rs, row, out);
+				}
+			}
+		} else if (batch != null) {
+			try (PreparedStatement ps = cn.prepareStatement(sql)) {
+				SmartCrudEngine.trackstatement(ps);
+				engine.timeout(ps);
+				for (int i = 0; i < batchrows.length(); i++) {
+					SmartCrudEngine.bindvalues(ps,
+							engine.typedBinds(op.getString("qtn"), batch, batch.binds(batchrows.getJSONObject(i))));
+					ps.addBatch();
+				}
+				for (int count : ps.executeBatch()) {
+					rows += count == Statement.SUCCESS_NO_INFO ? 1 : Math.max(count, 0);
+				}
+			}
+			written.add(sql);
+		} else {
+			Object qgk = "insert".equals(type) ? op.opt("qgk") : null;
+			JSONArray keycols = qgk instanceof JSONArray ? (JSONArray) qgk : null;
+			boolean keys = keycols != null || Boolean.TRUE.equals(qgk);
+			PreparedStatement ps;
+			if (keycols != null) {
+				String[] names = new String[keycols.length()];
+				for (int i = 0; i < names.length; i++) {
+					names[i] = keycols.getString(i);
+				}
+				ps = cn.prepareStatement(sql, names);
+			} else if (keys) {
+				ps = cn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
+			} else {
+				ps = cn.prepareStatement(sql);
+			}
+			try {
+				SmartCrudEngine.trackstatement(ps);
+				engine.timeout(ps);
+				SmartCrudEngine.bindvalues(ps, binds);
+				rows = ps.executeUpdate();
+				if (keys) {
+					try (ResultSet rs = ps.getGeneratedKeys()) {
+						out.append(",\"generated_keys\":");
+						appendrows(rs, row, out);
+					}
+				}
+			} finally {
+				ps.close();
+			}
+			written.add(sql);
+		}
+		engine.metrics.phase(opidx, EngineMetrics.EXECUTE, System.nanoTime() - t0);
+		engine.metrics.done(opidx, rows);
+		row.put("EFFECTED_ROW", rows);
+		out.append(",\"effected_row\":").append(rows).append('}');
+	}
+
+	/**
+	 * Appends the rows of a result set as a JSON array and keeps the values of
+	 * the first row, by upper-case column name, in {@code first}.
+	 */
+	private static long appendrows(ResultSet rs, Map<String, Object> first, StringBuilder out) throws SQLException {
+		JsonRowEncoder encoder = new JsonRowEncoder(rs.getMetaData());
+		out.append('[');
+		long rows = 0;
+		while (rs.next()) {
+			if (rows++ > 0) {
+				out.append(',');
+			} else {
+				for (int i = 0; i < encoder.columnCount(); i++) {
+					first.put(encoder.columnName(i).toUpperCase(Locale.ROOT), rs.getObject(i + 1));
+				}
+			}
+			encoder.append(rs, out);
+		}
+		out.append(']');
+		return rows;
+	}
+
+	/**
+	 * Returns a copy of {@code data} with its {@code "@sid.COLUMN"} values
+	 * replaced by the results of earlier steps.
+	 */
+	private static JSONObject resolverefs(JSONObject data, Map<String, Map<String, Object>> results)
+			throws Exception {
+		JSONObject resolved = new JSONObject();
+		if (data == null) {
+			return resolved;
+		}
+		for (String key : data.keySet()) {
+			Object v = data.get(key);
+			if (v instanceof String && ((String) v).startsWith("@")) {
+				String ref = (String) v;
+				if (ref.startsWith("@@")) {
+					v = ref.substring(1);
+				} else {
+					int dot = ref.indexOf('.');
+					Map<String, Object> row = dot < 0 ? null : results.get(ref.substring(1, dot));
+					if (row == null)
+						throw new Exception("Reference " + ref + " does not name an earlier step");
+					String col = ref.substring(dot + 1).toUpperCase(Locale.ROOT);
+					if (!row.containsKey(col))
+						throw new Exception("Step " + ref.substring(1, dot) + " returned no value for " + col);
+					v = row.get(col) == null ? JSONObject.NULL : row.get(col);
+				}
+			}
+			resolved.put(key, v);
+		}
+		return resolved;
+	}
+
+	@Override
+	public String toString() {
+		return "Pipeline of " + ops.length() + " steps";
+	}
+}
@@ -0,0 +1,395 @@
+package com.chat.db;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.json.JSONObject;
+
+/**
+ * QueryResultCache keeps recent SELECT responses of {@link SmartCrudEngine},
+ * keyed by the normalized SQL text and its bind values. <br>
+ * Entries are limited in number (least recently used entries are evicted
+ * first) and expire after a time to live. Each entry remembers the tables its
+ * SQL reads from, so a successful write to a table drops every cached result
+ * that read it.
+ */
+public class QueryResultCache {
+
+	protected final int maxsize;
+	protected final long ttl;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+	private final Map<String, Set<String>> bytable = new HashMap<>();
+	private long hits;
+	private long misses;
+	private long evictions;
+	private long expirations;
+	private long invalidations;
+	private long generation;
+
+	/**
+	 * @param maxsize maximum number of cached results
+	 * @param ttl     time to live of an entry in ms
+	 */
+	public QueryResultCache(int maxsize, long ttl) {
+		this.maxsize = maxsize;
+		this.ttl = ttl;
+	}
+
+	/**
+	 * Builds the cache key of a query: its SQL with whitespace outside quoted
+	 * literals collapsed, followed by the bind values.
+	 *
+	 * @param sql   SQL text
+	 * @param binds bind values in order
+	 * @return cache key
+	 */
+	public static String key(String sql, List<Object> binds) {
+		StringBuilder sb = new StringBuilder(sql.length() + 16 * binds.size());
+		boolean quoted = false;
+		boolean space = false;
+		for (int i = 0; i < sql.length(); i++) {
+			char c = sql.charAt(i);
+			if (c == '\'') {
+				quoted = !quoted;
+			}
+			if (!quoted && Character.isWhitespace(c)) {
+				space = sb.length() > 0;
+				continue;
+			}
+			if (space) {
+				sb.append(' ');
+				space = false;
+			}
+			sb.append(c);
+		}
+		for (Object bind : binds) {
+			sb.append('\u0001').append(bind == null ? "" : bind.getClass().getSimpleName()).append(':').append(bind);
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Returns the cached response for {@code key}, or {@code null} if it is not
+	 * cached or has expired.
+	 *
+	 * @param key cache key from {@link #key(String, List)}
+	 * @return cached response or {@code null}
+	 */
+	public String get(String key) {
+		lock.lock();
+		try {
+			Entry e = entries.get(key);
+			if (e == null) {
+				misses++;
+				return null;
+			}
+			if (e.expires < System.currentTimeMillis()) {
+				remove(key, e);
+				expirations++;
+				misses++;
+				return null;
+			}
+			hits++;
+			return e.value;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Returns the invalidation generation. Read it before running a query and
+	 * pass it to {@link #put(String, String, String, long)}, so a result that
+	 * raced with a write is not cached.
+	 *
+	 * @return current generation
+	 */
+	public long generation() {
+		lock.lock();
+		try {
+			return generation;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Caches a response. Queries whose tables cannot be determined are not
+	 * cached, since no write could invalidate them.
+	 *
+	 * @param key        cache key from {@link #key(String, List)}
+	 * @param sql        SQL text the tables are read from
+	 * @param value      response to cache
+	 * @param generation {@link #generation()} read before the query ran
+	 */
+	public void put(String key, String sql, String value, long generation) {
+		Set<String> tables = readtables(sql);
+		if (tables.isEmpty()) {
+			return;
+		}
+		lock.lock();
+		try {
+			if (generation != this.generation) {
+				return;
+			}
+			Entry old = entries.get(key);
+			if (old != null) {
+				remove(key, old);
+			}
+			entries.put(key, new Entry(value, tables, System.currentTimeMillis() + ttl));
+			for (String table : tables) {
+				bytable.computeIfAbsent(table, t -> new HashSet<>()).add(key);
+			}
+			Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+			while (entries.size() > maxsize && it.hasNext()) {
+				Map.Entry<String, Entry> eldest = it.next();
+				it.remove();
+				unindex(eldest.getKey(), eldest.getValue());
+				evictions++;
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Drops every cached result that reads from {@code table}.
+	 *
+	 * @param table table name, case-insensitive
+	 */
+	public void invalidate(String table) {
+		String name = tablename(table);
+		lock.lock();
+		try {
+			generation++;
+			Set<String> keys = bytable.remove(name);
+			if (keys == null) {
+				return;
+			}
+			for (String key : new ArrayList<>(keys)) {
+				Entry e = entries.get(key);
+				if (e != null) {
+					remove(key, e);
+					invalidations++;
+				}
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Drops all cached results.
+	 */
+	public void invalidateall() {
+		lock.lock();
+		try {
+			generation++;
+			invalidations += entries.size();
+			entries.clear();
+			bytable.clear();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return JSON object with size, hits, misses, evictions, expirations and invalidations
+	 */
+	public JSONObject stats() {
+		JSONObject st = new JSONObject();
+		lock.lock();
+		try {
+			st.put("enabled", true);
+			st.put("size", entries.size());
+			st.put("max_size", maxsize);
+			st.put("ttl_ms", ttl);
+			st.put("hits", hits);
+			st.put("misses", misses);
+			st.put("hit_ratio", hits + misses == 0 ? 0.0 : hits / (double) (hits + misses));
+			st.put("evictions", evictions);
+			st.put("expirations", expirations);
+			st.put("invalidations", invalidations);
+		} finally {
+			lock.unlock();
+		}
+		return st;
+	}
+
+	/**
+	 * Returns the tables a SELECT reads from: the names following {@code FROM}
+	 * (including comma separated lists) and {@code JOIN}.
+	 *
+	 * @param sql SQL text
+	 * @return upper-case table names without schema
+	 */
+	public static Set<String> readtables(String sql) {
+		Set<String> tables = new HashSet<>();
+		String up = sql.toUpperCase(Locale.ROOT);
+		int i = 0;
+		while (i < up.length()) {
+			int from = keyword(up, "FROM", i);
+			int join = keyword(up, "JOIN", i);
+			int at = from < 0 ? join : join < 0 ? from : Math.min(from, join);
+			if (at < 0) {
+				break;
+			}
+			boolean list = at == from;
+			i = at + 4;
+			while (true) {
+				i = skipspace(up, i);
+				int end = identend(up, i);
+				if (end == i) {
+					break;
+				}
+				tables.add(tablename(up.substring(i, end)));
+				i = skipspace(up, end);
+				if (!list) {
+					break;
+				}
+				int aliasend = identend(up, i);
+				String alias = up.substring(i, aliasend);
+				if (aliasend > i && !isclause(alias)) {
+					i = skipspace(up, aliasend);
+					if (alias.equals("AS")) {
+						i = skipspace(up, identend(up, i));
+					}
+				}
+				if (i < up.length() && up.charAt(i) == ',') {
+					i++;
+				} else {
+					break;
+				}
+			}
+		}
+		return tables;
+	}
+
+	/**
+	 * Returns the table an INSERT, UPDATE, DELETE or MERGE statement writes to.
+	 *
+	 * @param sql SQL text
+	 * @return upper-case table name without schema, or {@code null} if unknown
+	 */
+	public static String writetable(String sql) {
+		String up = sql.trim().toUpperCase(Locale.ROOT);
+		int i;
+		if (up.startsWith("INSERT") || up.startsWith("MERGE")) {
+			i = keyword(up, "INTO", 0);
+			i = i < 0 ? -1 : i + 4;
+		} else if (up.startsWith("UPDATE")) {
+			i = 6;
+		} else if (up.startsWith("DELETE")) {
+			i = keyword(up, "FROM", 0);
+			i = i < 0 ? 6 : i + 4;
+		} else {
+			return null;
+		}
+		if (i < 0) {
+			return null;
+		}
+		i = skipspace(up, i);
+		int end = identend(up, i);
+		return end == i ? null : tablename(up.substring(i, end));
+	}
+
+	private void remove(String key, Entry e) {
+		entries.remove(key);
+		unindex(key, e);
+	}
+
+	private void unindex(String key, Entry e) {
+		for (String table : e.tables) {
+			Set<String> keys = bytable.get(table);
+			if (keys != null) {
+				keys.remove(key);
+				if (keys.isEmpty()) {
+					bytable.remove(table);
+				}
+			}
+		}
+	}
+
+	private static String tablename(String name) {
+		String n = name.replace("\"", "").replace("`", "").toUpperCase(Locale.ROOT);
+		int dot = n.lastIndexOf('.');
+		return dot < 0 ? n : n.substring(dot + 1);
+	}
+
+	private static boolean isclause(String word) {
+		switch (word) {
+		case "WHERE":
+		case "GROUP":
+		case "ORDER":
+		case "HAVING":
+		case "JOIN":
+		case "INNER":
+		case "LEFT":
+		case "RIGHT":
+		case "FULL":
+		case "CROSS":
+		case "ON":
+		case "UNION":
+		case "LIMIT":
+		case "FETCH":
+		case "OFFSET":
+		case "FOR":
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	private static int keyword(String up, String word, int from) {
+		int i = up.indexOf(word, from);
+		while (i >= 0) {
+			boolean before = i == 0 || !identchar(up.charAt(i - 1));
+			boolean after = i + word.length() >= up.length() || !identchar(up.charAt(i + word.length()));
+			if (before && after) {
+				return i;
+			}
+			i = up.indexOf(word, i + 1);
+		}
+		return -1;
+	}
+
+	private static int skipspace(String s, int i) {
+		while (i < s.length() && Character.isWhitespace(s.charAt(i))) {
+			i++;
+		}
+		return i;
+	}
+
+	private static int identend(String s, int i) {
+		while (i < s.length() && (identchar(s.charAt(i)) || s.charAt(i) == '.' || s.charAt(i) == '"'
+				|| s.charAt(i) == '`')) {
+			i++;
+		}
+		return i;
+	}
+
+	private static boolean identchar(char c) {
+		return Character.isLetterOrDigit(c) || c == '_' || c == '$';
+	}
+
+	private static final class Entry {
+		final String value;
+		final Set<String> tables;
+		final long expires;
+
+		Entry(String value, Set<String> tables, long expires) {
+			this.value = value;
+			this.tables = tables;
+			this.expires = expires;
+		}
+	}
+}
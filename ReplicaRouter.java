@@ -0,0 +1,219 @@
+package com.chat.db;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * ReplicaRouter spreads the reads of {@link SmartCrudEngine} over the
+ * connection pools of read replicas, leaving writes and transactions on the
+ * primary pool. <br>
+ * A replica is picked round-robin or, with least-busy balancing, as the one
+ * with the fewest borrowed connections. A replica whose connection cannot be
+ * borrowed is ejected at once; a health check thread validates every replica
+ * each {@code checkinterval} ms, ejecting failed ones and taking recovered
+ * ones back. While no replica is healthy, reads fall back to the primary.
+ */
+public class ReplicaRouter implements AutoCloseable {
+
+	protected final SmartCrudEngine engine;
+	protected final boolean leastbusy;
+	protected final long checkinterval;
+
+	private final List<Replica> replicas = new ArrayList<>();
+	private final AtomicInteger next = new AtomicInteger();
+	private final ScheduledExecutorService checker;
+	private final LongAdder fallbacks = new LongAdder();
+
+	/**
+	 * Creates the router and starts its health check thread.
+	 *
+	 * @param engine        engine whose primary pool serves the fallback reads
+	 * @param urls          JDBC urls of the replicas
+	 * @param pools         connection pool of each replica, in the order of {@code urls}
+	 * @param leastbusy     pick the replica with the fewest borrowed connections instead of round-robin
+	 * @param checkinterval ms between health checks
+	 */
+	public ReplicaRouter(SmartCrudEngine engine, List<String> urls, List<DbConnectionPool> pools, boolean leastbusy,
+			long checkinterval) {
+		if (urls.isEmpty() || urls.size() != pools.size() || checkinterval <= 0) {
+			throw new IllegalArgumentException(
+					"Invalid replica settings replicas=" + urls.size() + " interval=" + checkinterval);
+		}
+		this.engine = engine;
+		this.leastbusy = leastbusy;
+		this.checkinterval = checkinterval;
+		for (int i = 0; i < urls.size(); i++) {
+			replicas.add(new Replica(urls.get(i), pools.get(i)));
+		}
+		this.checker = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "SmartCrudEngine-replica-check");
+			t.setDaemon(true);
+			return t;
+		});
+		checker.scheduleWithFixedDelay(this::check, checkinterval, checkinterval, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Borrows a connection for a read from a healthy replica, or from the
+	 * primary pool when no replica is healthy. A replica whose connections stay
+	 * busy for the borrow timeout is skipped for this read, not ejected; when
+	 * every healthy replica is broken or busy, the read goes to the primary.
+	 *
+	 * @return a pooled connection; closing it returns it to its pool
+	 * @throws SQLException           if no connection becomes available in time
+	 * @throws ClassNotFoundException if database driver class is not found
+	 */
+	public Connection borrow() throws SQLException, ClassNotFoundException {
+		List<Replica> busy = null;
+		for (int attempt = 0; attempt < replicas.size(); attempt++) {
+			Replica r = pick(busy);
+			if (r == null) {
+				break;
+			}
+			try {
+				Connection cn = r.pool.borrow();
+				r.reads.increment();
+				return cn;
+			} catch (SQLTimeoutException e) {
+				// busy, not broken: try the others for this read only
+				r.saturations.increment();
+				if (busy == null) {
+					busy = new ArrayList<>(replicas.size());
+				}
+				busy.add(r);
+			} catch (SQLException e) {
+				eject(r, e);
+			}
+		}
+		fallbacks.increment();
+		return engine.getPool().borrow();
+	}
+
+	/**
+	 * @return JSON object with the balancing policy, primary fallbacks and per
+	 *         replica health, borrowed connections, reads, borrow timeouts and
+	 *         ejections
+	 */
+	public JSONObject stats() {
+		JSONArray list = new JSONArray();
+		for (Replica r : replicas) {
+			JSONObject st = new JSONObject();
+			st.put("url", r.url);
+			st.put("healthy", r.healthy);
+			st.put("active", r.pool.active());
+			st.put("reads", r.reads.sum());
+			st.put("saturations", r.saturations.sum());
+			st.put("ejections", r.ejections.sum());
+			if (r.lasterror != null) {
+				st.put("last_error", r.lasterror);
+			}
+			list.put(st);
+		}
+		return new JSONObject().put("policy", leastbusy ? "LEASTBUSY" : "ROUNDROBIN")
+				.put("fallbacks", fallbacks.sum()).put("replicas", list);
+	}
+
+	/**
+	 * Stops the health checks and closes the replica pools.
+	 */
+	@Override
+	public void close() {
+		checker.shutdownNow();
+		for (Replica r : replicas) {
+			r.pool.close();
+		}
+	}
+
+	/**
+	 * Picks a healthy replica by the balancing policy, {@code null} if none is
+	 * healthy.
+	 *
+	 * @param busy replicas that already timed out for this read, may be {@code null}
+	 */
+	private Replica pick(List<Replica> busy) {
+		int n = replicas.size();
+		if (leastbusy) {
+			Replica best = null;
+			int bestactive = Integer.MAX_VALUE;
+			int start = Math.floorMod(next.getAndIncrement(), n);
+			for (int i = 0; i < n; i++) {
+				// rotate the start so ties are spread as well
+				Replica r = replicas.get((start + i) % n);
+				if (r.healthy && (busy == null || !busy.contains(r))) {
+					int active = r.pool.active();
+					if (active < bestactive) {
+						best = r;
+						bestactive = active;
+					}
+				}
+			}
+			return best;
+		}
+		for (int i = 0; i < n; i++) {
+			Replica r = replicas.get(Math.floorMod(next.getAndIncrement(), n));
+			if (r.healthy && (busy == null || !busy.contains(r))) {
+				return r;
+			}
+		}
+		return null;
+	}
+
+	private void eject(Replica r, Exception e) {
+		r.lasterror = e.getMessage();
+		if (r.healthy) {
+			r.healthy = false;
+			r.ejections.increment();
+			engine.debuglog("Replica " + r.url + " ejected: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Validates a connection of every replica. Runs on the health check thread.
+	 */
+	private void check() {
+		for (Replica r : replicas) {
+			try (Connection cn = r.pool.borrow()) {
+				if (!cn.isValid(DbConnectionPool.VALIDATION_TIMEOUT)) {
+					throw new SQLException("Connection is not valid");
+				}
+				if (!r.healthy) {
+					r.healthy = true;
+					engine.debuglog("Replica " + r.url + " is back in rotation");
+				}
+			} catch (SQLTimeoutException e) {
+				// all connections busy: the replica is working
+			} catch (Exception e) {
+				eject(r, e);
+			}
+		}
+	}
+
+	/**
+	 * A replica and its pool.
+	 */
+	private static final class Replica {
+		final String url;
+		final DbConnectionPool pool;
+		final LongAdder reads = new LongAdder();
+		final LongAdder saturations = new LongAdder();
+		final LongAdder ejections = new LongAdder();
+		volatile boolean healthy = true;
+		volatile String lasterror;
+
+		Replica(String url, DbConnectionPool pool) {
+			this.url = url;
+			this.pool = pool;
+		}
+	}
+}
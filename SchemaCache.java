@@ -0,0 +1,431 @@
+package com.chat.db;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.time.OffsetDateTime;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * SchemaCache keeps the column metadata ({@link DatabaseMetaData#getColumns})
+ * of the tables {@link SmartCrudEngine} touches. <br>
+ * A table is loaded on first use and reloaded once it is older than the
+ * refresh interval; {@link #invalidate(String)} drops it earlier, e.g. after
+ * DDL. Tables that do not exist are cached as missing the same way.
+ * <p>
+ * The engine uses the cache to reject unknown tables and columns before a
+ * statement reaches the database, and to convert JSON values to the Java
+ * type of their column ({@link Column#convert(Object)}) so that numbers,
+ * dates and booleans are bound with their SQL type instead of as strings.
+ */
+public class SchemaCache {
+
+	protected final SmartCrudEngine engine;
+	protected final long refresh;
+
+	private final ConcurrentHashMap<String, Table> tables = new ConcurrentHashMap<>();
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder loads = new LongAdder();
+	private final LongAdder rejected = new LongAdder();
+
+	/**
+	 * @param engine  engine whose connection pool reads the metadata
+	 * @param refresh age in ms after which a table is reloaded
+	 */
+	public SchemaCache(SmartCrudEngine engine, long refresh) {
+		this.engine = engine;
+		this.refresh = refresh;
+	}
+
+	/**
+	 * Returns the metadata of a table, loading it if it is not cached or older
+	 * than the refresh interval.
+	 *
+	 * @param table table name, optionally qualified by its schema
+	 * @return table metadata; {@link Table#exists()} is {@code false} for an unknown table
+	 * @throws SQLException           if the metadata cannot be read
+	 * @throws ClassNotFoundException if database driver class is not found
+	 */
+	public Table table(String table) throws SQLException, ClassNotFoundException {
+		String key = table.toUpperCase(Locale.ROOT);
+		Table t = tables.get(key);
+		if (t != null && System.currentTimeMillis() - t.loaded < refresh) {
+			hits.increment();
+			return t;
+		}
+		t = load(table);
+		tables.put(key, t);
+		return t;
+	}
+
+	/**
+	 * Checks that a table exists and has every column of {@code cols}.
+	 *
+	 * @param table table name
+	 * @param cols  column names, compared case-insensitively
+	 * @return table metadata
+	 * @throws SchemaException        if the table or a column is unknown
+	 * @throws SQLException           if the metadata cannot be read
+	 * @throws ClassNotFoundException if database driver class is not found
+	 */
+	public Table check(String table, Iterable<String> cols)
+			throws SchemaException, SQLException, ClassNotFoundException {
+		Table t = table(table);
+		if (!t.exists()) {
+			rejected.increment();
+			throw new SchemaException("Unknown table " + table);
+		}
+		for (String col : cols) {
+			if (t.column(col) == null) {
+				rejected.increment();
+				throw new SchemaException("Unknown column " + col + " in table " + table);
+			}
+		}
+		return t;
+	}
+
+	/**
+	 * Drops a cached table, or every table if {@code table} is {@code null}.
+	 *
+	 * @param table table name or {@code null}
+	 */
+	public void invalidate(String table) {
+		if (table == null) {
+			tables.clear();
+		} else {
+			tables.remove(table.toUpperCase(Locale.ROOT));
+		}
+	}
+
+	/**
+	 * @return JSON object with cached tables, hits, loads and rejected requests
+	 */
+	public JSONObject stats() {
+		JSONObject st = new JSONObject();
+		st.put("tables", tables.size());
+		st.put("refresh_ms", refresh);
+		st.put("hits", hits.sum());
+		st.put("loads", loads.sum());
+		st.put("rejected", rejected.sum());
+		return st;
+	}
+
+	/**
+	 * Reads the columns of a table. Unquoted names are matched in the case the
+	 * database stores identifiers in.
+	 */
+	private Table load(String table) throws SQLException, ClassNotFoundException {
+		loads.increment();
+		String schema = null;
+		String name = table;
+		int dot = table.lastIndexOf('.');
+		if (dot > 0) {
+			schema = table.substring(0, dot);
+			name = table.substring(dot + 1);
+		}
+		try (Connection cn = engine.getPool().borrow()) {
+			DatabaseMetaData md = cn.getMetaData();
+			if (md.storesUpperCaseIdentifiers()) {
+				name = name.toUpperCase(Locale.ROOT);
+				schema = schema == null ? null : schema.toUpperCase(Locale.ROOT);
+			} else if (md.storesLowerCaseIdentifiers()) {
+				name = name.toLowerCase(Locale.ROOT);
+				schema = schema == null ? null : schema.toLowerCase(Locale.ROOT);
+			}
+			if (schema == null) {
+				schema = cn.getSchema();
+			}
+			Map<String, Column> cols = columns(md, cn.getCatalog(), schema, name);
+			if (cols.isEmpty() && dot < 0) {
+				// not in the current schema, take it from any schema
+				cols = columns(md, cn.getCatalog(), null, name);
+			}
+			engine.debuglog("Schema of " + table + " loaded: " + cols.keySet());
+			return new Table(table.toUpperCase(Locale.ROOT), cols);
+		}
+	}
+
+	private static Map<String, Column> columns(DatabaseMetaData md, String catalog, String schema, String table)
+			throws SQLException {
+		Map<String, Column> cols = new LinkedHashMap<>();
+		String first = null;
+		try (ResultSet rs = md.getColumns(catalog, schema, table, null)) {
+			while (rs.next()) {
+				// with no schema given, keep the columns of the first schema only
+				String owner = String.valueOf(rs.getString("TABLE_SCHEM"));
+				if (first == null) {
+					first = owner;
+				} else if (!first.equals(owner)) {
+					continue;
+				}
+				Column c = new Column(rs.getString("COLUMN_NAME"), rs.getInt("DATA_TYPE"), rs.getString("TYPE_NAME"),
+						rs.getInt("NULLABLE") != DatabaseMetaData.columnNoNulls);
+				cols.put(c.name.toUpperCase(Locale.ROOT), c);
+			}
+		}
+		return cols;
+	}
+
+	/**
+	 * Columns of a cached table.
+	 */
+	public static final class Table {
+		private final String name;
+		private final Map<String, Column> columns;
+		private final long loaded = System.currentTimeMillis();
+
+		Table(String name, Map<String, Column> columns) {
+			this.name = name;
+			this.columns = Collections.unmodifiableMap(columns);
+		}
+
+		/**
+		 * @return {@code false} if the database has no such table
+		 */
+		public boolean exists() {
+			return !columns.isEmpty();
+		}
+
+		/**
+		 * @param col column name, compared case-insensitively
+		 * @return the column or {@code null} if unknown
+		 */
+		public Column column(String col) {
+			return columns.get(col.toUpperCase(Locale.ROOT));
+		}
+
+		/**
+		 * @return columns by upper-case name, in table order
+		 */
+		public Map<String, Column> columns() {
+			return columns;
+		}
+
+		/**
+		 * Converts bind values in place to the types of their columns. Names
+		 * that are not columns of the table (e.g. placeholders of a condition)
+		 * keep their value.
+		 *
+		 * @param names bind names in JDBC index order
+		 * @param binds bind values, replaced in place
+		 * @throws SchemaException if a value cannot be converted
+		 */
+		public void convert(String[] names, List<Object> binds) throws SchemaException {
+			for (int i = 0; i < names.length && i < binds.size(); i++) {
+				Column c = column(names[i]);
+				if (c != null) {
+					binds.set(i, c.convert(binds.get(i)));
+				}
+			}
+		}
+
+		@Override
+		public String toString() {
+			return name + columns.keySet();
+		}
+	}
+
+	/**
+	 * A column and the conversion of JSON values to its SQL type.
+	 */
+	public static final class Column {
+		private final String name;
+		private final int sqltype;
+		private final String typename;
+		private final boolean nullable;
+		private final Null sqlnull;
+
+		Column(String name, int sqltype, String typename, boolean nullable) {
+			this.name = name;
+			this.sqltype = sqltype;
+			this.typename = typename;
+			this.nullable = nullable;
+			this.sqlnull = new Null(sqltype);
+		}
+
+		/**
+		 * @return column name as reported by the driver
+		 */
+		public String name() {
+			return name;
+		}
+
+		/**
+		 * @return SQL type from {@link Types}
+		 */
+		public int sqltype() {
+			return sqltype;
+		}
+
+		/**
+		 * @return database type name
+		 */
+		public String typename() {
+			return typename;
+		}
+
+		/**
+		 * @return {@code false} if the column is declared NOT NULL
+		 */
+		public boolean nullable() {
+			return nullable;
+		}
+
+		/**
+		 * Converts a JSON value to the Java type bound for this column:
+		 * <ul>
+		 *     <li>integer types – {@link Integer} or {@link Long}</li>
+		 *     <li>DECIMAL, NUMERIC – {@link BigDecimal}</li>
+		 *     <li>REAL, FLOAT, DOUBLE – {@link Double}</li>
+		 *     <li>BOOLEAN, BIT – {@link Boolean} (also from true/false, 1/0, Y/N)</li>
+		 *     <li>DATE, TIME, TIMESTAMP – {@link java.sql.Date}, {@link java.sql.Time},
+		 *     {@link java.sql.Timestamp} from ISO text ({@code T} is accepted as separator)</li>
+		 *     <li>character types – {@link String}</li>
+		 * </ul>
+		 * JSON null becomes a typed SQL NULL; other types keep their value.
+		 *
+		 * @param v JSON value
+		 * @return value to bind
+		 * @throws SchemaException if the value does not fit the column type
+		 */
+		public Object convert(Object v) throws SchemaException {
+			if (v == null || JSONObject.NULL.equals(v)) {
+				return sqlnull;
+			}
+			try {
+				switch (sqltype) {
+				case Types.TINYINT:
+				case Types.SMALLINT:
+				case Types.INTEGER:
+					return v instanceof Integer ? v : decimal(v).intValueExact();
+				case Types.BIGINT:
+					return v instanceof Long ? v : decimal(v).longValueExact();
+				case Types.DECIMAL:
+				case Types.NUMERIC:
+					return decimal(v);
+				case Types.REAL:
+				case Types.FLOAT:
+				case Types.DOUBLE:
+					return v instanceof Number ? ((Number) v).doubleValue() : Double.parseDouble(text(v));
+				case Types.BOOLEAN:
+				case Types.BIT:
+					return bool(v);
+				case Types.DATE:
+					return java.sql.Date.valueOf(text(v).length() > 10 ? text(v).substring(0, 10) : text(v));
+				case Types.TIME:
+					return java.sql.Time.valueOf(text(v));
+				case Types.TIMESTAMP:
+					return java.sql.Timestamp.valueOf(text(v).replace('T', ' '));
+				case Types.TIMESTAMP_WITH_TIMEZONE:
+					return OffsetDateTime.parse(text(v));
+				case Types.CHAR:
+				case Types.VARCHAR:
+				case Types.LONGVARCHAR:
+				case Types.NCHAR:
+				case Types.NVARCHAR:
+				case Types.LONGNVARCHAR:
+				case Types.CLOB:
+				case Types.NCLOB:
+					return v instanceof String ? v : v.toString();
+				default:
+					return v;
+				}
+			} catch (ArithmeticException | IllegalArgumentException | java.time.format.DateTimeParseException e) {
+				throw new SchemaException(
+						"Value " + JSONObject.valueToString(v) + " does not fit column " + name + " (" + typename + ")");
+			}
+		}
+
+		private static String text(Object v) {
+			if (v instanceof JSONObject || v instanceof JSONArray || v instanceof Boolean) {
+				throw new IllegalArgumentException(v.toString());
+			}
+			return v.toString().trim();
+		}
+
+		private static BigDecimal decimal(Object v) {
+			if (v instanceof BigDecimal) {
+				return (BigDecimal) v;
+			} else if (v instanceof Integer || v instanceof Long) {
+				return BigDecimal.valueOf(((Number) v).longValue());
+			} else if (v instanceof BigInteger) {
+				return new BigDecimal((BigInteger) v);
+			} else if (v instanceof Number) {
+				return BigDecimal.valueOf(((Number) v).doubleValue());
+			}
+			return new BigDecimal(text(v));
+		}
+
+		private static Boolean bool(Object v) {
+			if (v instanceof Boolean) {
+				return (Boolean) v;
+			}
+			String s = v instanceof Number ? decimal(v).stripTrailingZeros().toPlainString() : text(v);
+			switch (s.toUpperCase(Locale.ROOT)) {
+			case "TRUE":
+			case "Y":
+			case "1":
+				return Boolean.TRUE;
+			case "FALSE":
+			case "N":
+			case "0":
+				return Boolean.FALSE;
+			default:
+				throw new IllegalArgumentException(s);
+			}
+		}
+
+		@Override
+		public String toString() {
+			return name + " " + typename;
+		}
+	}
+
+	/**
+	 * SQL NULL of a known type, bound with {@code setNull(index, sqltype)}.
+	 */
+	public static final class Null {
+		private final int sqltype;
+
+		Null(int sqltype) {
+			this.sqltype = sqltype;
+		}
+
+		/**
+		 * @return SQL type from {@link Types}
+		 */
+		public int sqltype() {
+			return sqltype;
+		}
+
+		@Override
+		public String toString() {
+			return "null";
+		}
+	}
+
+	/**
+	 * A request names an unknown table or column, or carries a value that
+	 * does not fit its column.
+	 */
+	public static class SchemaException extends Exception {
+		private static final long serialVersionUID = 1L;
+
+		public SchemaException(String message) {
+			super(message);
+		}
+	}
+}
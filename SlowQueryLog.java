@@ -0,0 +1,502 @@
+package com.chat.db;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Pattern;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * SlowQueryLog records the statements of {@link SmartCrudEngine} that run
+ * longer than a threshold. <br>
+ * Each slow statement is kept by its shape: the SQL with whitespace
+ * collapsed, literals replaced by {@code ?} and lists of markers such as
+ * {@code IN (?, ?, ?)} folded to {@code (?+)}, so calls differing only in
+ * their values add up under one entry. Bind values are never recorded.
+ * <ul>
+ *     <li>the last {@code size} slow calls are kept in a ring buffer with
+ *     their shape, operation, duration, row and bind counts</li>
+ *     <li>per shape the count, total, maximum and rows are summed; at most
+ *     {@code maxshapes} shapes are kept, the one with the least total time
+ *     making room for a new one</li>
+ *     <li>when a shape without a plan enters the {@code plans} slowest shapes
+ *     by total time, the plan of the slow call (insert, select, update,
+ *     delete or upsert) is read once with the dialect's EXPLAIN (see
+ *     {@link SqlDialect#explain(String)}) on an async thread and kept with
+ *     the shape; with admission control on it takes an other slot and is
+ *     skipped, to be tried by a later slow call, when not admitted</li>
+ *     <li>with a file set, each slow call is also appended as one JSON line;
+ *     the file rolls over to {@code file.1} ... {@code file.<files>} when it
+ *     passes {@code filesize} bytes</li>
+ * </ul>
+ */
+public class SlowQueryLog implements AutoCloseable {
+
+	/** Longest shape kept; longer SQL is cut. */
+	protected static final int MAXSHAPE = 4000;
+	/** Longest plan kept. */
+	protected static final int MAXPLAN = 65536;
+
+	private static final Pattern MARKERLIST = Pattern.compile("\\(\\s*\\?(\\s*,\\s*\\?)+\\s*\\)");
+	private static final Pattern ROWLIST = Pattern.compile("\\(\\?\\+\\)(\\s*,\\s*\\(\\?\\+\\))+");
+
+	protected final SmartCrudEngine engine;
+	protected final long threshold;
+	protected final int maxshapes;
+	protected final int plans;
+	protected final Path file;
+	protected final long filesize;
+	protected final int files;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Entry[] ring;
+	private int next;
+	private long recorded;
+	private final Map<String, Shape> shapes = new HashMap<>();
+
+	private final ReentrantLock filelock = new ReentrantLock();
+	private BufferedWriter writer;
+	private long written;
+	private long fileerrors;
+
+	/**
+	 * @param engine    engine whose connections run the EXPLAIN statements
+	 * @param threshold ms from which a statement counts as slow
+	 * @param size      slow calls kept in the ring buffer
+	 * @param maxshapes shapes kept for the report
+	 * @param plans     number of slowest shapes whose plan is captured, 0 for none
+	 * @param file      file the slow calls are appended to, {@code null} for none
+	 * @param filesize  bytes after which the file rolls over
+	 * @param files     rolled files kept
+	 */
+	public SlowQueryLog(SmartCrudEngine engine, long threshold, int size, int maxshapes, int plans, String file,
+			long filesize, int files) {
+		if (threshold <= 0 || size <= 0 || maxshapes <= 0 || plans < 0 || filesize <= 0 || files < 0) {
+			throw new IllegalArgumentException("Invalid slow query log settings threshold=" + threshold + " size=" + size
+					+ " shapes=" + maxshapes + " plans=" + plans + " filesize=" + filesize + " files=" + files);
+		}
+		this.engine = engine;
+		this.threshold = TimeUnit.MILLISECONDS.toNanos(threshold);
+		this.ring = new Entry[size];
+		this.maxshapes = maxshapes;
+		this.plans = plans;
+		this.file = file == null || file.trim().isEmpty() ? null : Paths.get(file.trim());
+		this.filesize = filesize;
+		this.files = files;
+	}
+
+	/**
+	 * Records a finished statement if it took at least the threshold.
+	 *
+	 * @param qtyp   query type
+	 * @param sql    SQL with JDBC {@code ?} markers
+	 * @param binds  values of the markers, used only for the EXPLAIN
+	 * @param nanos  time the statement took
+	 * @param rows   rows fetched or affected
+	 * @param failed {@code true} if the statement ended with an error
+	 */
+	public void record(String qtyp, String sql, List<Object> binds, long nanos, long rows, boolean failed) {
+		if (nanos < threshold) {
+			return;
+		}
+		int opidx = EngineMetrics.operation(qtyp);
+		String op = EngineMetrics.OPERATIONS[opidx];
+		Entry e = new Entry(System.currentTimeMillis(), op, shape(sql), nanos, rows, binds.size(), failed);
+		boolean explain = false;
+		Shape s;
+		lock.lock();
+		try {
+			ring[next] = e;
+			next = (next + 1) % ring.length;
+			recorded++;
+			s = shapes.get(e.shape);
+			if (s == null) {
+				if (shapes.size() >= maxshapes) {
+					evict();
+				}
+				s = new Shape(e.shape, op);
+				shapes.put(e.shape, s);
+			}
+			s.count++;
+			s.total += nanos;
+			s.max = Math.max(s.max, nanos);
+			s.rows += rows;
+			s.binds = e.binds;
+			// statements of other types, e.g. DDL, have no plan
+			if (!s.planned && plans > 0 && opidx < EngineMetrics.OPERATIONS.length - 1 && rank(s) < plans) {
+				s.planned = true;
+				explain = true;
+			}
+		} finally {
+			lock.unlock();
+		}
+		if (explain) {
+			explain(s, sql, new ArrayList<>(binds));
+		}
+		if (file != null) {
+			spill(e);
+		}
+	}
+
+	/**
+	 * Builds the report of the slow statements.
+	 *
+	 * @param n number of recent calls and of top shapes to list
+	 * @return JSON object with the settings, the recorded count, the latest
+	 *         {@code n} slow calls (newest first) and the {@code n} shapes with
+	 *         the highest total time, with their plans
+	 */
+	public JSONObject report(int n) {
+		JSONArray recent = new JSONArray();
+		List<Shape> top;
+		JSONObject report = new JSONObject();
+		lock.lock();
+		try {
+			for (int i = 1; i <= Math.min(n, ring.length); i++) {
+				Entry e = ring[(next - i + ring.length) % ring.length];
+				if (e == null) {
+					break;
+				}
+				recent.put(e.json());
+			}
+			top = new ArrayList<>(shapes.values());
+			top.sort((a, b) -> Long.compare(b.total, a.total));
+			JSONArray topjson = new JSONArray();
+			for (int i = 0; i < Math.min(n, top.size()); i++) {
+				topjson.put(top.get(i).json());
+			}
+			report.put("recorded", recorded);
+			report.put("shapes", shapes.size());
+			report.put("top", topjson);
+		} finally {
+			lock.unlock();
+		}
+		report.put("threshold_ms", TimeUnit.NANOSECONDS.toMillis(threshold));
+		report.put("recent", recent);
+		if (file != null) {
+			filelock.lock();
+			try {
+				report.put("file", file.toString());
+				report.put("file_errors", fileerrors);
+			} finally {
+				filelock.unlock();
+			}
+		}
+		return report;
+	}
+
+	/**
+	 * Clears the recorded calls and shapes.
+	 */
+	public void reset() {
+		lock.lock();
+		try {
+			Arrays.fill(ring, null);
+			next = 0;
+			recorded = 0;
+			shapes.clear();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Closes the spill file.
+	 */
+	@Override
+	public void close() {
+		filelock.lock();
+		try {
+			if (writer != null) {
+				writer.close();
+				writer = null;
+			}
+		} catch (IOException e) {
+			fileerrors++;
+		} finally {
+			filelock.unlock();
+		}
+	}
+
+	/**
+	 * Normalizes SQL to its shape: whitespace outside quotes collapsed, string
+	 * and numeric literals replaced by {@code ?} and marker lists folded to
+	 * {@code (?+)}.
+	 *
+	 * @param sql SQL text
+	 * @return shape, at most {@link #MAXSHAPE} characters
+	 */
+	public static String shape(String sql) {
+		StringBuilder sb = new StringBuilder(Math.min(sql.length(), MAXSHAPE));
+		boolean space = false;
+		int i = 0;
+		while (i < sql.length() && sb.length() < MAXSHAPE) {
+			char c = sql.charAt(i);
+			if (Character.isWhitespace(c)) {
+				space = sb.length() > 0;
+				i++;
+				continue;
+			}
+			if (space) {
+				sb.append(' ');
+				space = false;
+			}
+			if (c == '\'') {
+				// a quote inside a literal is written twice
+				i++;
+				while (i < sql.length()) {
+					if (sql.charAt(i) == '\'') {
+						if (i + 1 < sql.length() && sql.charAt(i + 1) == '\'') {
+							i += 2;
+							continue;
+						}
+						break;
+					}
+					i++;
+				}
+				sb.append('?');
+				i++;
+			} else if (c == '"') {
+				int end = sql.indexOf('"', i + 1);
+				end = end < 0 ? sql.length() : end + 1;
+				sb.append(sql, i, end);
+				i = end;
+			} else if (Character.isDigit(c) && !identifierpart(sb)) {
+				while (i < sql.length() && (Character.isLetterOrDigit(sql.charAt(i)) || sql.charAt(i) == '.')) {
+					i++;
+				}
+				sb.append('?');
+			} else {
+				sb.append(c);
+				i++;
+			}
+		}
+		String shape = MARKERLIST.matcher(sb).replaceAll("(?+)");
+		return ROWLIST.matcher(shape).replaceAll("(?+),...");
+	}
+
+	private static boolean identifierpart(StringBuilder sb) {
+		if (sb.length() == 0) {
+			return false;
+		}
+		char p = sb.charAt(sb.length() - 1);
+		return Character.isLetterOrDigit(p) || p == '_' || p == '$' || p == '.';
+	}
+
+	/**
+	 * Position of {@code s} among the shapes by total time, 0 for the slowest.
+	 * Called with the lock held.
+	 */
+	private int rank(Shape s) {
+		int rank = 0;
+		for (Shape o : shapes.values()) {
+			if (o.total > s.total && ++rank >= plans) {
+				break;
+			}
+		}
+		return rank;
+	}
+
+	/**
+	 * Drops the shape with the least total time. Called with the lock held.
+	 */
+	private void evict() {
+		Shape least = null;
+		for (Shape o : shapes.values()) {
+			if (least == null || o.total < least.total) {
+				least = o;
+			}
+		}
+		if (least != null) {
+			shapes.remove(least.shape);
+		}
+	}
+
+	/**
+	 * Reads the plan of a slow call with its own bind values on an async
+	 * thread and stores it with the shape.
+	 */
+	private void explain(Shape s, String sql, List<Object> binds) {
+		String stmt = engine.dialect.explain(sql);
+		if (stmt == null) {
+			s.plan = "EXPLAIN is not supported for " + engine.dialect;
+			return;
+		}
+		engine.asyncExecutor().execute(() -> {
+			int op = EngineMetrics.operation("other");
+			if (engine.admit(op) != null) {
+				// shed under overload; a later slow call of the shape tries again
+				lock.lock();
+				try {
+					s.planned = false;
+				} finally {
+					lock.unlock();
+				}
+				return;
+			}
+			String plan;
+			long t0 = System.nanoTime();
+			try (Connection cn = engine.getPool().borrow(); PreparedStatement ps = cn.prepareStatement(stmt)) {
+				engine.timeout(ps);
+				SmartCrudEngine.bindvalues(ps, binds);
+				StringBuilder sb = new StringBuilder();
+				try (ResultSet rs = ps.executeQuery()) {
+					int cols = rs.getMetaData().getColumnCount();
+					while (rs.next() && sb.length() < MAXPLAN) {
+						if (sb.length() > 0) {
+							sb.append('\n');
+						}
+						for (int c = 1; c <= cols; c++) {
+							if (c > 1) {
+								sb.append(" | ");
+							}
+							sb.append(rs.getString(c));
+						}
+					}
+				}
+				plan = sb.length() > MAXPLAN ? sb.substring(0, MAXPLAN) : sb.toString();
+			} catch (Exception e) {
+				plan = "EXPLAIN failed: " + e.getMessage();
+			} finally {
+				engine.release(op, System.nanoTime() - t0, false);
+			}
+			s.plan = plan;
+		});
+	}
+
+	/**
+	 * Appends a slow call to the file, rolling it over when full.
+	 */
+	private void spill(Entry e) {
+		String line = e.json().toString() + System.lineSeparator();
+		filelock.lock();
+		try {
+			if (writer != null && written + line.length() > filesize) {
+				writer.close();
+				writer = null;
+				roll();
+			}
+			if (writer == null) {
+				Path dir = file.toAbsolutePath().getParent();
+				if (dir != null) {
+					Files.createDirectories(dir);
+				}
+				writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+						StandardOpenOption.APPEND);
+				written = Files.size(file);
+			}
+			writer.write(line);
+			writer.flush();
+			written += line.length();
+		} catch (IOException ex) {
+			fileerrors++;
+			writer = null;
+		} finally {
+			filelock.unlock();
+		}
+	}
+
+	/**
+	 * Shifts {@code file.i} to {@code file.(i+1)}, dropping the oldest, and
+	 * the current file to {@code file.1}. Called with the file lock held.
+	 */
+	private void roll() throws IOException {
+		if (files == 0) {
+			Files.deleteIfExists(file);
+			return;
+		}
+		Files.deleteIfExists(rolled(files));
+		for (int i = files - 1; i >= 1; i--) {
+			if (Files.exists(rolled(i))) {
+				Files.move(rolled(i), rolled(i + 1), StandardCopyOption.REPLACE_EXISTING);
+			}
+		}
+		Files.move(file, rolled(1), StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	private Path rolled(int i) {
+		return file.resolveSibling(file.getFileName() + "." + i);
+	}
+
+	private static double millis(long nanos) {
+		return Math.round(nanos / 1000.0) / 1000.0;
+	}
+
+	/**
+	 * One slow call.
+	 */
+	private static final class Entry {
+		final long time;
+		final String op;
+		final String shape;
+		final long nanos;
+		final long rows;
+		final int binds;
+		final boolean failed;
+
+		Entry(long time, String op, String shape, long nanos, long rows, int binds, boolean failed) {
+			this.time = time;
+			this.op = op;
+			this.shape = shape;
+			this.nanos = nanos;
+			this.rows = rows;
+			this.binds = binds;
+			this.failed = failed;
+		}
+
+		JSONObject json() {
+			return new JSONObject().put("time", Instant.ofEpochMilli(time).toString()).put("op", op)
+					.put("ms", millis(nanos)).put("rows", rows).put("binds", binds).put("failed", failed)
+					.put("sql", shape);
+		}
+	}
+
+	/**
+	 * Totals of one shape, guarded by the log's lock except for the plan.
+	 */
+	private static final class Shape {
+		final String shape;
+		final String op;
+		long count;
+		long total;
+		long max;
+		long rows;
+		int binds;
+		boolean planned;
+		volatile String plan;
+
+		Shape(String shape, String op) {
+			this.shape = shape;
+			this.op = op;
+		}
+
+		JSONObject json() {
+			JSONObject js = new JSONObject().put("sql", shape).put("op", op).put("count", count)
+					.put("total_ms", millis(total)).put("avg_ms", millis(total / count)).put("max_ms", millis(max))
+					.put("rows", rows).put("binds", binds);
+			String p = plan;
+			if (p != null) {
+				js.put("plan", p);
+			}
+			return js;
+		}
+	}
+}
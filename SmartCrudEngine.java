@@ -1,10 +1,45 @@
 package com.chat.db;
 
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.sql.*;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.MissingResourceException;
+import java.util.Properties;
 import java.util.ResourceBundle;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
 
 import org.json.JSONArray;
 import org.json.JSONObject;
@@ -14,287 +49,2576 @@ import org.json.JSONObject;
  * operations. <br>
  * It supports insert, select, update, and delete operations based on JSON
  * input. 
+ * <p>
+ * An engine instance holds immutable configuration plus its own connection
+ * pool and statement caches, and may be called from many threads at once. The
+ * static methods delegate to {@link #defaultengine()}, which is configured from
+ * the {@code dbdetails} bundle.
  * 
  * @author Raviteja J
  * @date 12-07-2025  
  */
-public class SmartCrudEngine {
+public class SmartCrudEngine implements AutoCloseable {
 
-	protected static StringBuilder allclm = new StringBuilder();
-	protected static StringBuilder allval = new StringBuilder();
-	protected static ResourceBundle rb = ResourceBundle.getBundle("dbdetails");
-	protected static String dbdriver = rb.getString("dbdrv");
-	protected static String dburl = rb.getString("dburl");
-	protected static String dbunm = rb.getString("dbunm");
-	protected static String dbpwd = rb.getString("dbpwd");
+	/** Immutable copy of the engine configuration ({@code dbdetails} keys). */
+	protected final Map<String, String> config;
+	protected final String dbdriver;
+	protected final String dburl;
+	protected final String dbunm;
+	protected final String dbpwd;
+	protected final SqlDialect dialect;
+	/** Compiled {@code raw_qry} templates keyed by their text, up to {@code dbtcsz}. */
+	protected final StatementShapeCache templates;
+	protected final StatementShapeCache shapes;
+	/** SELECT result cache, {@code null} unless {@code dbrcsz} is set. */
+	protected final QueryResultCache resultcache;
+	private volatile DbConnectionPool pool;
+	private volatile ReplicaRouter router;
+	/** Read replica urls from {@code dbrurl}, empty if reads go to the primary. */
+	protected final List<String> replicaurls;
+	private volatile ExecutorService asyncexecutor;
+	private volatile ScheduledThreadPoolExecutor writebehindexecutor;
+	/** Bounds in-flight async calls; sized like the connection pool unless {@code dbasyn} is set. */
+	protected final Semaphore asyncpermits;
+	/** The async call running on the current thread, used to cancel its statement. */
+	private static final ThreadLocal<AsyncCall> asynccall = new ThreadLocal<>();
+	/**
+	 * Held while a parallel select borrows its partition connections, so two
+	 * of them never each hold part of the pool while waiting for the rest.
+	 */
+	protected final ReentrantLock parallelborrow = new ReentrantLock();
+	/** Default select response format, one JSON object per row; see {@code rfm}. */
+	private static final String ROWS = "rows";
+	/** Decoded requests kept for reuse by the byte entry points; more are left to the GC. */
+	private final ArrayBlockingQueue<CrudRequest> requestpool = new ArrayBlockingQueue<>(64);
+	/** Phase latencies, row and error counts of this engine. */
+	protected final EngineMetrics metrics = new EngineMetrics();
+	/** Prints queries, traces and stack traces to the console; {@code dbdbug} = Y. */
+	protected final boolean debug;
+	/** Routes single-row inserts through the group commit queues; {@code dbwbhd} = Y. */
+	protected final boolean writebehind;
+	/** Write-behind queues by INSERT statement. */
+	protected final ConcurrentHashMap<String, GroupCommitQueue> writequeues = new ConcurrentHashMap<>();
+	/** Column metadata of the touched tables, {@code null} unless {@code dbschm} = Y. */
+	protected final SchemaCache schema;
+	/** Concurrency limits of the statements run on the pool, {@code null} unless {@code dbadmc} = Y. */
+	protected final AdmissionControl admission;
+	/** Statement timeout in seconds from {@code dbqtmo}, 0 for none. */
+	protected final int querytimeout;
+	/** Slow statements of {@link #dbExecute(String, String, List)} and the page queries, {@code null} unless {@code dbslow} is set. */
+	protected final SlowQueryLog slowlog;
+	private volatile boolean closed;
+
+	/**
+	 * Creates an engine configured from a resource bundle with the
+	 * {@code dbdetails} keys ({@code dbdrv}, {@code dburl}, {@code dbunm},
+	 * {@code dbpwd} and the optional tuning keys).
+	 * 
+	 * @param rb configuration bundle
+	 */
+	public SmartCrudEngine(ResourceBundle rb) {
+		this(tomap(rb));
+	}
+
+	/**
+	 * Creates an engine configured from properties with the {@code dbdetails}
+	 * keys.
+	 * 
+	 * @param props configuration properties
+	 */
+	public SmartCrudEngine(Properties props) {
+		this(tomap(props));
+	}
+
+	private SmartCrudEngine(Map<String, String> config) {
+		this.config = Collections.unmodifiableMap(config);
+		this.dbdriver = required("dbdrv");
+		this.dburl = required("dburl");
+		this.dbunm = required("dbunm");
+		this.dbpwd = config.getOrDefault("dbpwd", "");
+		this.dialect = SqlDialect.fromdriver(dbdriver, dburl);
+		this.templates = new StatementShapeCache(Integer.parseInt(rbval("dbtcsz", "512")));
+		this.shapes = new StatementShapeCache(Integer.parseInt(rbval("dbscsz", "512")));
+		int rcsize = Integer.parseInt(rbval("dbrcsz", "0"));
+		this.resultcache = rcsize > 0 ? new QueryResultCache(rcsize, Long.parseLong(rbval("dbrcttl", "5000"))) : null;
+		this.asyncpermits = new Semaphore(Integer.parseInt(rbval("dbasyn", rbval("dbpmax", "10"))), true);
+		this.debug = "Y".equalsIgnoreCase(rbval("dbdbug", "N"));
+		this.writebehind = "Y".equalsIgnoreCase(rbval("dbwbhd", "N"));
+		List<String> urls = new ArrayList<>();
+		for (String url : rbval("dbrurl", "").split(",")) {
+			if (!url.trim().isEmpty()) {
+				urls.add(url.trim());
+			}
+		}
+		this.replicaurls = Collections.unmodifiableList(urls);
+		this.schema = "Y".equalsIgnoreCase(rbval("dbschm", "N"))
+				? new SchemaCache(this, Long.parseLong(rbval("dbschr", "300000")))
+				: null;
+		this.querytimeout = Integer.parseInt(rbval("dbqtmo", "0"));
+		String poolmax = rbval("dbpmax", "10");
+		this.admission = "Y".equalsIgnoreCase(rbval("dbadmc", "N"))
+				? new AdmissionControl(Integer.parseInt(rbval("dbadml", poolmax)), Integer.parseInt(rbval("dbadmn", "1")),
+						Integer.parseInt(rbval("dbadmx", String.valueOf(4 * Integer.parseInt(poolmax)))),
+						Long.parseLong(rbval("dbadmt", "100")), Long.parseLong(rbval("dbadmw", "200")))
+				: null;
+		long slow = Long.parseLong(rbval("dbslow", "0"));
+		this.slowlog = slow > 0
+				? new SlowQueryLog(this, slow, Integer.parseInt(rbval("dbslsz", "1000")),
+						Integer.parseInt(rbval("dbslsh", "500")), Integer.parseInt(rbval("dbslpn", "10")),
+						rbval("dbslfl", ""), Long.parseLong(rbval("dbslfs", "10485760")), Integer.parseInt(rbval("dbslfn", "5")))
+				: null;
+	}
+
+	/**
+	 * Lazily created engine behind the static API, configured from the
+	 * {@code dbdetails} bundle.
+	 */
+	private static final class DefaultEngine {
+		static final SmartCrudEngine ENGINE = new SmartCrudEngine(ResourceBundle.getBundle("dbdetails"));
+	}
+
+	/**
+	 * Returns the engine used by the static methods, configured from the
+	 * {@code dbdetails} bundle on first use.
+	 * 
+	 * @return the default engine
+	 */
+	public static SmartCrudEngine defaultengine() {
+		return DefaultEngine.ENGINE;
+	}
+
+	private static Map<String, String> tomap(ResourceBundle rb) {
+		Map<String, String> map = new HashMap<>();
+		for (String key : rb.keySet()) {
+			map.put(key, rb.getString(key));
+		}
+		return map;
+	}
+
+	private static Map<String, String> tomap(Properties props) {
+		Map<String, String> map = new HashMap<>();
+		for (String key : props.stringPropertyNames()) {
+			map.put(key, props.getProperty(key));
+		}
+		return map;
+	}
+
+	private String required(String key) {
+		String v = config.get(key);
+		if (v == null) {
+			throw new MissingResourceException("Missing database setting " + key, getClass().getName(), key);
+		}
+		return v;
+	}
+
+	/**
+	 * Reads an optional configuration key.
+	 * 
+	 * @param key configuration key
+	 * @param def value used when the key is absent or blank
+	 * @return configured value or {@code def}
+	 */
+	protected final String rbval(String key, String def) {
+		String v = config.get(key);
+		if (v == null || v.trim().isEmpty()) {
+			return def;
+		}
+		return v.trim();
+	}
+
+	/**
+	 * Returns the connection pool of this engine, creating it on first use.
+	 * Optional pool keys:
+	 * <ul>
+	 *     <li><b>dbpmin</b> – minimum connections kept open (default 1)</li>
+	 *     <li><b>dbpmax</b> – maximum open connections (default 10)</li>
+	 *     <li><b>dbpidl</b> – idle eviction time in ms (default 300000)</li>
+	 *     <li><b>dbpvld</b> – validate connections on borrow, Y/N (default Y)</li>
+	 *     <li><b>dbpbto</b> – borrow timeout in ms (default 30000)</li>
+	 *     <li><b>dbpstc</b> – prepared statements cached per connection (default 32, 0 disables)</li>
+	 * </ul>
+	 * 
+	 * @return the connection pool
+	 * @throws ClassNotFoundException if database driver class is not found
+	 */
+	protected DbConnectionPool getPool() throws ClassNotFoundException {
+		DbConnectionPool cp = pool;
+		if (cp == null) {
+			synchronized (this) {
+				cp = pool;
+				if (cp == null) {
+					cp = newPool(dburl, dbunm, dbpwd);
+					pool = cp;
+				}
+			}
+		}
+		return cp;
+	}
+
+	/**
+	 * Creates a connection pool with the pool keys of this engine.
+	 */
+	private DbConnectionPool newPool(String url, String user, String password) throws ClassNotFoundException {
+		return new DbConnectionPool(dbdriver, url, user, password, Integer.parseInt(rbval("dbpmin", "1")),
+				Integer.parseInt(rbval("dbpmax", "10")), Long.parseLong(rbval("dbpidl", "300000")),
+				!"N".equalsIgnoreCase(rbval("dbpvld", "Y")), Long.parseLong(rbval("dbpbto", "30000")),
+				Integer.parseInt(rbval("dbpstc", "32")));
+	}
+
+	/**
+	 * Borrows a connection for a read. With read replicas configured
+	 * ({@code dbrurl}, a comma separated list of JDBC urls sharing the driver
+	 * and, unless {@code dbrunm} / {@code dbrpwd} are set, the credentials of
+	 * the primary) the connection comes from a replica picked by the
+	 * {@link ReplicaRouter}:
+	 * <ul>
+	 *     <li><b>dbrbal</b> – RR round-robin or LB least-busy (default RR)</li>
+	 *     <li><b>dbrhci</b> – ms between replica health checks (default 5000)</li>
+	 * </ul>
+	 * Each replica pool uses the {@code dbp*} pool keys of the primary.
+	 * 
+	 * @param primary read from the primary regardless of replicas, e.g. to see
+	 *                the caller's own recent writes
+	 * @return a pooled connection; closing it returns it to its pool
+	 * @throws SQLException           if no connection becomes available in time
+	 * @throws ClassNotFoundException if database driver class is not found
+	 */
+	protected Connection readConnection(boolean primary) throws SQLException, ClassNotFoundException {
+		if (primary || replicaurls.isEmpty()) {
+			return getPool().borrow();
+		}
+		ReplicaRouter rr = router;
+		if (rr == null) {
+			synchronized (this) {
+				rr = router;
+				if (rr == null) {
+					if (closed) {
+						throw new SQLException("Engine is closed");
+					}
+					List<DbConnectionPool> pools = new ArrayList<>();
+					for (String url : replicaurls) {
+						pools.add(newPool(url, rbval("dbrunm", dbunm), config.getOrDefault("dbrpwd", dbpwd)));
+					}
+					rr = new ReplicaRouter(this, replicaurls, pools, "LB".equalsIgnoreCase(rbval("dbrbal", "RR")),
+							Long.parseLong(rbval("dbrhci", "5000")));
+					router = rr;
+				}
+			}
+		}
+		return rr.borrow();
+	}
+
+	/**
+	 * Closes the connection pool, the async executor and the slow query file
+	 * of this engine. Rows waiting in the write-behind queues are committed
+	 * first.
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		for (GroupCommitQueue wq : writequeues.values()) {
+			wq.close();
+		}
+		ScheduledThreadPoolExecutor wb;
+		synchronized (this) {
+			wb = writebehindexecutor;
+		}
+		if (wb != null) {
+			// groups still being flushed, also by queues that retired meanwhile
+			wb.shutdown();
+			try {
+				wb.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		synchronized (this) {
+			if (asyncexecutor != null) {
+				asyncexecutor.shutdownNow();
+			}
+			if (router != null) {
+				router.close();
+			}
+			if (pool != null) {
+				pool.close();
+			}
+		}
+		if (slowlog != null) {
+			slowlog.close();
+		}
+	}
+
+	/**
+	 * Returns the executor running the async API, one virtual thread per call.
+	 */
+	protected ExecutorService asyncExecutor() {
+		ExecutorService ex = asyncexecutor;
+		if (ex == null) {
+			synchronized (this) {
+				ex = asyncexecutor;
+				if (ex == null) {
+					ex = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("SmartCrudEngine-async-", 0).factory());
+					asyncexecutor = ex;
+				}
+			}
+		}
+		return ex;
+	}
+
+	/**
+	 * Returns the scheduler flushing the write-behind queues of every shape,
+	 * {@code dbwbth} platform threads (default 2).
+	 */
+	protected ScheduledExecutorService writeBehindExecutor() {
+		ScheduledThreadPoolExecutor ex = writebehindexecutor;
+		if (ex == null) {
+			synchronized (this) {
+				ex = writebehindexecutor;
+				if (ex == null) {
+					ex = new ScheduledThreadPoolExecutor(Integer.parseInt(rbval("dbwbth", "2")),
+							Thread.ofPlatform().name("SmartCrudEngine-writebehind-", 0).daemon().factory());
+					ex.setRemoveOnCancelPolicy(true);
+					writebehindexecutor = ex;
+				}
+			}
+		}
+		return ex;
+	}
+
+	/**
+	 * Runs {@link #executer(JSONObject)} on the default engine without blocking
+	 * the caller.
+	 * 
+	 * @param val JSON object containing operation details
+	 * @return future completed with the result
+	 * @see #executeAsync(JSONObject)
+	 */
+	public static CompletableFuture<String> executerasync(JSONObject val) {
+		return defaultengine().executeAsync(val);
+	}
+
+	/**
+	 * Runs {@link #execute(JSONObject)} on a virtual thread. At most
+	 * {@code dbasyn} calls (default: the pool size {@code dbpmax}) run at once;
+	 * the rest wait for a permit without holding a platform thread. Cancelling
+	 * the future cancels the running JDBC statement.
+	 * 
+	 * @param val JSON object containing operation details
+	 * @return future completed with the result
+	 */
+	public CompletableFuture<String> executeAsync(JSONObject val) {
+		return submitAsync(() -> execute(val));
+	}
+
+	/**
+	 * Runs {@link #paramexecuter(String)} on the default engine without blocking
+	 * the caller.
+	 * 
+	 * @param sval A JSON string representing the query template and parameters.
+	 * @return future completed with the result
+	 * @see #paramExecuteAsync(String)
+	 */
+	public static CompletableFuture<String> paramexecuterasync(String sval) {
+		return defaultengine().paramExecuteAsync(sval);
+	}
+
+	/**
+	 * Runs {@link #paramExecute(String)} on a virtual thread, bounded and
+	 * cancellable like {@link #executeAsync(JSONObject)}.
+	 * 
+	 * @param sval A JSON string representing the query template and parameters.
+	 * @return future completed with the result
+	 */
+	public CompletableFuture<String> paramExecuteAsync(String sval) {
+		return submitAsync(() -> paramExecute(sval));
+	}
+
+	/**
+	 * Queues a single-row insert for group commit on the default engine.
+	 * 
+	 * @param val JSON insert with {@code qtn} and a {@code qdt} object
+	 * @return future completed with the insert response once the row is committed
+	 * @throws Exception if input is invalid
+	 * @see #writeBehindInsert(JSONObject)
+	 */
+	public static CompletableFuture<String> writebehindinsert(JSONObject val) throws Exception {
+		return defaultengine().writeBehindInsert(val);
+	}
+
+	/**
+	 * Queues a single-row insert in the {@link GroupCommitQueue} of its shape
+	 * (table and column set). Queued rows are committed as one batch when
+	 * {@code dbwbsz} rows are waiting (default 500) or {@code dbwbdl} ms after
+	 * the first one arrived (default 5), by {@code dbwbth} flusher threads
+	 * shared by all shapes (default 2). A queue holds at most {@code dbwbqs}
+	 * rows (default 10000); when it is full this call blocks up to
+	 * {@code dbwbto} ms (default 30000) and then completes with a
+	 * {@code WBFULL} error. A queue left empty for {@code dbwbid} ms (default
+	 * 60000, 0 to keep queues) is dropped until its shape is inserted again.
+	 * 
+	 * @param val JSON insert with {@code qtn} and a {@code qdt} object
+	 * @return future completed with the insert response once the row is committed
+	 * @throws Exception if input is invalid
+	 */
+	public CompletableFuture<String> writeBehindInsert(JSONObject val) throws Exception {
+		long start = System.nanoTime();
+		SqlTemplate shape = insertShape(val);
+		List<Object> binds;
+		try {
+			schemaCheck(val, "insert");
+			binds = typedBinds(val.getString("qtn"), shape, shape.binds(val.getJSONObject("qdt")));
+		} catch (SchemaCache.SchemaException e) {
+			return CompletableFuture.completedFuture(fail("SCHERR", e.getMessage()));
+		}
+		built("insert", start);
+		if (closed) {
+			return CompletableFuture.completedFuture(fail("WBCLSD", "Write-behind queue is closed"));
+		}
+		while (true) {
+			GroupCommitQueue wq = writequeues.computeIfAbsent(shape.sql(),
+					sql -> new GroupCommitQueue(this, shape, Integer.parseInt(rbval("dbwbqs", "10000")),
+							Integer.parseInt(rbval("dbwbsz", "500")), Long.parseLong(rbval("dbwbdl", "5")),
+							Long.parseLong(rbval("dbwbto", "30000")), Long.parseLong(rbval("dbwbid", "60000"))));
+			CompletableFuture<String> future = wq.offer(binds);
+			if (future != null) {
+				return future;
+			}
+			// the queue retired meanwhile, the next lookup creates a new one
+		}
+	}
+
+	/**
+	 * Returns the statistics of the write-behind queues of the default engine.
+	 * 
+	 * @return JSON object with one entry per queue
+	 */
+	public static JSONObject writebehindstats() {
+		return defaultengine().writeBehindStats();
+	}
+
+	/**
+	 * @return the write-behind queue statistics of this engine
+	 * @see #writebehindstats()
+	 */
+	public JSONObject writeBehindStats() {
+		JSONArray queues = new JSONArray();
+		for (GroupCommitQueue wq : writequeues.values()) {
+			queues.put(wq.stats());
+		}
+		return new JSONObject().put("enabled", writebehind).put("queues", queues);
+	}
+
+	/**
+	 * Submits a call to the virtual-thread executor behind the
+	 * {@code asyncpermits} semaphore.
+	 * 
+	 * @param task blocking call
+	 * @return future completed with the call's result
+	 */
+	protected CompletableFuture<String> submitAsync(Callable<String> task) {
+		AsyncCall call = new AsyncCall();
+		CompletableFuture<String> future = new CompletableFuture<>();
+		future.whenComplete((r, t) -> {
+			if (future.isCancelled()) {
+				call.cancel();
+			}
+		});
+		asyncExecutor().execute(() -> {
+			call.thread = Thread.currentThread();
+			try {
+				if (future.isDone()) {
+					return;
+				}
+				asyncpermits.acquire();
+				try {
+					asynccall.set(call);
+					if (!future.isDone()) {
+						future.complete(task.call());
+					}
+				} finally {
+					asynccall.remove();
+					asyncpermits.release();
+				}
+			} catch (Throwable t) {
+				future.completeExceptionally(t);
+			} finally {
+				call.thread = null;
+			}
+		});
+		return future;
+	}
+
+	/**
+	 * Registers the statement about to run for the async call on the current
+	 * thread, so cancelling the call can cancel it.
+	 * 
+	 * @param ps statement about to be executed
+	 * @throws SQLException if the call has already been cancelled
+	 */
+	protected static void trackstatement(Statement ps) throws SQLException {
+		AsyncCall call = asynccall.get();
+		if (call != null) {
+			call.statement = ps;
+			if (call.cancelled) {
+				throw new SQLException("Query cancelled");
+			}
+		}
+	}
+
+	/**
+	 * Wraps a task forked by the call on the current thread, such as a
+	 * partition of a parallel select, so it runs under that call's
+	 * cancellation: cancelling the call cancels the task's statement too.
+	 * 
+	 * @param task work to run on another thread
+	 * @return task tracked with the current call, or {@code task} itself
+	 *         outside an async call
+	 */
+	protected static Runnable fork(Runnable task) {
+		AsyncCall parent = asynccall.get();
+		if (parent == null) {
+			return task;
+		}
+		AsyncCall call = new AsyncCall();
+		parent.forks.add(call);
+		if (parent.cancelled) {
+			call.cancel();
+		}
+		return () -> {
+			call.thread = Thread.currentThread();
+			asynccall.set(call);
+			try {
+				task.run();
+			} finally {
+				asynccall.remove();
+				call.thread = null;
+				parent.forks.remove(call);
+			}
+		};
+	}
+
+	/**
+	 * Applies the statement timeout {@code dbqtmo}, if set, so a statement
+	 * stuck on a slow database fails instead of holding its connection.
+	 * 
+	 * @param ps statement about to be executed
+	 * @throws SQLException if the driver rejects the timeout
+	 */
+	protected void timeout(Statement ps) throws SQLException {
+		if (querytimeout > 0) {
+			ps.setQueryTimeout(querytimeout);
+		}
+	}
+
+	/**
+	 * Waits for admission of one statement of type {@code op} when admission
+	 * control is on. Statements, batches, paged, stream, binary and parallel
+	 * selects, pipelines, exports, each bulk load thread, write-behind
+	 * flushes and plan captures call this before borrowing a connection and
+	 * {@link #release(int, long, boolean)} when done. Schema metadata reads
+	 * are exempt: they run inside calls that already hold a slot and would
+	 * otherwise wait on their own.
+	 * 
+	 * @param op operation index of {@link EngineMetrics}
+	 * @return {@code null} if admitted or admission control is off, else the
+	 *         {@code ADMREJ} error response
+	 */
+	protected String admit(int op) {
+		if (admission == null) {
+			return null;
+		}
+		try {
+			if (admission.acquire(op)) {
+				return null;
+			}
+			return fail("ADMREJ", "Too many " + EngineMetrics.OPERATIONS[op] + " statements running; not admitted within "
+					+ admission.maxwait + " ms, retry later");
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return fail("ADMREJ", "Interrupted while waiting for admission");
+		}
+	}
+
+	/**
+	 * Releases a slot taken by {@link #admit(int)}.
+	 * 
+	 * @param op       operation index of {@link EngineMetrics}
+	 * @param nanos    latency of the statement, compared with the target
+	 * @param overload whether the statement timed out
+	 */
+	protected void release(int op, long nanos, boolean overload) {
+		if (admission != null) {
+			admission.release(op, nanos, overload);
+		}
+	}
+
+	/**
+	 * An async call in flight: the virtual thread running it, its current
+	 * statement and the tasks it forked (see {@link SmartCrudEngine#fork(Runnable)}).
+	 */
+	private static final class AsyncCall {
+		volatile Thread thread;
+		volatile Statement statement;
+		volatile boolean cancelled;
+		final List<AsyncCall> forks = new CopyOnWriteArrayList<>();
+
+		void cancel() {
+			cancelled = true;
+			for (AsyncCall f : forks) {
+				f.cancel();
+			}
+			Statement st = statement;
+			if (st != null) {
+				try {
+					st.cancel();
+				} catch (SQLException e) {
+					// statement already finished or closed
+				}
+			} else {
+				Thread t = thread;
+				if (t != null) {
+					// still waiting for a permit or a pooled connection
+					t.interrupt();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the connection pool statistics (active, idle, waiters, wait time)
+	 * of the default engine, for sizing the pool.
+	 * 
+	 * @return JSON object with the pool statistics
+	 * @throws ClassNotFoundException if database driver class is not found
+	 */
+	public static JSONObject poolstats() throws ClassNotFoundException {
+		return defaultengine().poolStats();
+	}
+
+	/**
+	 * @return the connection pool statistics of this engine
+	 * @throws ClassNotFoundException if database driver class is not found
+	 * @see #poolstats()
+	 */
+	public JSONObject poolStats() throws ClassNotFoundException {
+		return getPool().stats();
+	}
+
+	/**
+	 * Returns the read replica statistics of the default engine.
+	 * 
+	 * @return JSON object with the balancing policy and per replica health and reads
+	 */
+	public static JSONObject replicastats() {
+		return defaultengine().replicaStats();
+	}
+
+	/**
+	 * @return the read replica statistics of this engine, or
+	 *         {@code {"enabled":false}} without replicas or before the first read
+	 * @see #replicastats()
+	 */
+	public JSONObject replicaStats() {
+		ReplicaRouter rr = router;
+		return rr == null ? new JSONObject().put("enabled", false) : rr.stats();
+	}
+
+	/**
+	 * Returns the admission control statistics of the default engine.
+	 * 
+	 * @return JSON object with the current limit, running, waiting, admitted
+	 *         and rejected statements per operation type
+	 */
+	public static JSONObject admissionstats() {
+		return defaultengine().admissionStats();
+	}
+
+	/**
+	 * @return the admission control statistics of this engine, or
+	 *         {@code {"enabled":false}} unless {@code dbadmc} = Y
+	 * @see #admissionstats()
+	 */
+	public JSONObject admissionStats() {
+		return admission == null ? new JSONObject().put("enabled", false) : admission.stats();
+	}
+
+	/**
+	 * Returns the slow query report of the default engine.
+	 * 
+	 * @param n number of recent slow calls and of top shapes to list
+	 * @return JSON object with the latest slow calls and the shapes with the
+	 *         highest total time, with their captured plans
+	 * @see SlowQueryLog#report(int)
+	 */
+	public static JSONObject slowqueries(int n) {
+		return defaultengine().slowQueries(n);
+	}
+
+	/**
+	 * @param n number of recent slow calls and of top shapes to list
+	 * @return the slow query report of this engine, or
+	 *         {@code {"enabled":false}} unless {@code dbslow} is set
+	 * @see #slowqueries(int)
+	 */
+	public JSONObject slowQueries(int n) {
+		return slowlog == null ? new JSONObject().put("enabled", false) : slowlog.report(n);
+	}
+
+	/**
+	 * Returns the hit/miss/eviction statistics of the statement-shape cache used by
+	 * {@link #executer(JSONObject)}.
+	 * 
+	 * @return JSON object with the cache statistics
+	 */
+	public static JSONObject shapestats() {
+		return defaultengine().shapeStats();
+	}
+
+	/**
+	 * @return the statement-shape cache statistics of this engine
+	 * @see #shapestats()
+	 */
+	public JSONObject shapeStats() {
+		return shapes.stats();
+	}
+
+	/**
+	 * Returns the hit/miss/eviction statistics of the query template cache used
+	 * by {@link #paramexecuter(String)}.
+	 * 
+	 * @return JSON object with the cache statistics
+	 */
+	public static JSONObject templatestats() {
+		return defaultengine().templateStats();
+	}
+
+	/**
+	 * @return the query template cache statistics of this engine
+	 * @see #templatestats()
+	 */
+	public JSONObject templateStats() {
+		return templates.stats();
+	}
+
+	/**
+	 * Returns the hit/miss/eviction statistics of the SELECT result cache of the
+	 * default engine.
+	 * 
+	 * @return JSON object with the cache statistics
+	 */
+	public static JSONObject resultcachestats() {
+		return defaultengine().resultCacheStats();
+	}
+
+	/**
+	 * @return the SELECT result cache statistics of this engine, or
+	 *         {@code {"enabled":false}} when the cache is off
+	 * @see #resultcachestats()
+	 */
+	public JSONObject resultCacheStats() {
+		return resultcache == null ? new JSONObject().put("enabled", false) : resultcache.stats();
+	}
+
+	/**
+	 * Returns the statistics of the schema metadata cache of the default engine.
+	 * 
+	 * @return JSON object with the cache statistics
+	 */
+	public static JSONObject schemastats() {
+		return defaultengine().schemaStats();
+	}
+
+	/**
+	 * @return the schema cache statistics of this engine, or
+	 *         {@code {"enabled":false}} when the cache is off
+	 * @see #schemastats()
+	 */
+	public JSONObject schemaStats() {
+		return schema == null ? new JSONObject().put("enabled", false) : schema.stats();
+	}
+
+	/**
+	 * Drops the cached metadata of a table of the default engine, e.g. after it
+	 * was altered outside the engine.
+	 * 
+	 * @param table table name, or {@code null} for every table
+	 */
+	public static void invalidateschema(String table) {
+		defaultengine().invalidateSchema(table);
+	}
+
+	/**
+	 * @param table table name, or {@code null} for every table
+	 * @see #invalidateschema(String)
+	 */
+	public void invalidateSchema(String table) {
+		if (schema != null) {
+			schema.invalidate(table);
+		}
+	}
+
+	/**
+	 * Returns the metrics of the default engine: per operation (insert, select,
+	 * update, delete, other) the call and row counts and the build, acquire,
+	 * execute and serialize latency histograms, plus error counts by code.
+	 * 
+	 * @return JSON snapshot of the metrics
+	 * @see EngineMetrics#snapshot()
+	 */
+	public static JSONObject metricssnapshot() {
+		return defaultengine().metricsSnapshot();
+	}
+
+	/**
+	 * @return the metrics snapshot of this engine
+	 * @see #metricssnapshot()
+	 */
+	public JSONObject metricsSnapshot() {
+		return metrics.snapshot();
+	}
+
+	/**
+	 * Clears the metrics of this engine.
+	 */
+	public void resetMetrics() {
+		metrics.reset();
+	}
+
+	/**
+	 * Prints a message when debug output ({@code dbdbug}) is on.
+	 * 
+	 * @param msg message to print
+	 */
+	protected void debuglog(String msg) {
+		if (debug) {
+			System.out.println(msg);
+		}
+	}
+
+	/**
+	 * Counts a failed statement under {@code DBEXER} and prints its stack trace
+	 * when debug output is on.
+	 * 
+	 * @param e failure
+	 */
+	protected void dberror(Exception e) {
+		metrics.error("DBEXER");
+		if (debug) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Builds an error response with {@link #errormsgbuilder(String, String)} and
+	 * counts it by its code.
+	 * 
+	 * @param code    error code
+	 * @param message error message
+	 * @return error JSON string
+	 */
+	protected String fail(String code, String message) {
+		metrics.error(code);
+		return errormsgbuilder(code, message).toString();
+	}
+
+	/**
+	 * Records the time spent building the SQL of a request since {@code start}.
+	 */
+	private void built(String type, long start) {
+		metrics.phase(EngineMetrics.operation(type), EngineMetrics.BUILD, System.nanoTime() - start);
+	}
+
+	/**
+	 * Drops cached SELECT results that read from the table written by
+	 * {@code query}, or all of them if the table cannot be determined. A
+	 * statement without a target table (DDL and the like) also drops the cached
+	 * schema metadata.
+	 * 
+	 * @param query INSERT, UPDATE, DELETE or other write statement
+	 */
+	protected void invalidateWrite(String query) {
+		if (resultcache == null && schema == null) {
+			return;
+		}
+		String table = QueryResultCache.writetable(query);
+		if (table != null) {
+			if (resultcache != null) {
+				resultcache.invalidate(table);
+			}
+			return;
+		}
+		if (resultcache != null) {
+			resultcache.invalidateall();
+		}
+		if (schema != null) {
+			schema.invalidate(null);
+		}
+	}
+
+	/**
+	 * Checks the table and column names of a JSON operation against the cached
+	 * schema metadata, before any statement is prepared: {@code qtn}, the keys of
+	 * {@code qdt} (the first row of a batch), {@code qky} and the plain column
+	 * names of {@code qcl}. Expressions in {@code qcl} and the {@code qcn}
+	 * condition are left to the database. Does nothing unless {@code dbschm} =
+	 * Y.
+	 * 
+	 * @param val  JSON operation
+	 * @param type insert, select, update, upsert or delete
+	 * @throws SchemaCache.SchemaException if the table or a column is unknown
+	 * @throws SQLException                if the metadata cannot be read
+	 * @throws ClassNotFoundException      if database driver class is not found
+	 */
+	protected void schemaCheck(JSONObject val, String type)
+			throws SchemaCache.SchemaException, SQLException, ClassNotFoundException {
+		if (schema == null || !val.has("qtn") || val.has("raw_qry")) {
+			return;
+		}
+		List<String> cols = new ArrayList<>();
+		Object qdt = val.opt("qdt");
+		if (qdt instanceof JSONObject) {
+			cols.addAll(((JSONObject) qdt).keySet());
+		} else if (qdt instanceof JSONArray && !((JSONArray) qdt).isEmpty()) {
+			cols.addAll(((JSONArray) qdt).getJSONObject(0).keySet());
+		}
+		Object qky = val.opt("qky");
+		if (qky instanceof JSONArray) {
+			for (int i = 0; i < ((JSONArray) qky).length(); i++) {
+				cols.add(((JSONArray) qky).getString(i));
+			}
+		} else if (qky instanceof String) {
+			cols.add((String) qky);
+		}
+		if (val.has("qpc")) {
+			cols.add(val.optString("qpc").trim());
+		}
+		JSONArray qcl = "select".equals(type) ? val.optJSONArray("qcl") : null;
+		for (int i = 0; qcl != null && i < qcl.length(); i++) {
+			String col = qcl.optString(i).trim();
+			if (col.matches("[A-Za-z_][A-Za-z0-9_$#]*")) {
+				cols.add(col);
+			}
+		}
+		schema.check(val.getString("qtn"), cols);
+	}
+
+	/**
+	 * Converts the bind values of a statement on {@code table} in place to the
+	 * types of their columns (see {@link SchemaCache.Column#convert(Object)}).
+	 * Does nothing unless {@code dbschm} = Y.
+	 * 
+	 * @param table table the statement writes to
+	 * @param shape statement whose names are the bind columns
+	 * @param binds bind values in JDBC index order
+	 * @return {@code binds}
+	 * @throws SchemaCache.SchemaException if a value does not fit its column
+	 * @throws SQLException                if the metadata cannot be read
+	 * @throws ClassNotFoundException      if database driver class is not found
+	 */
+	protected List<Object> typedBinds(String table, SqlTemplate shape, List<Object> binds)
+			throws SchemaCache.SchemaException, SQLException, ClassNotFoundException {
+		if (schema != null && table != null) {
+			SchemaCache.Table t = schema.table(table);
+			if (t.exists()) {
+				t.convert(shape.names(), binds);
+			}
+		}
+		return binds;
+	}
+
+	/**
+	 * Executes a CRUD operation based on the provided JSON object. Determines
+	 * operation type (insert, select, update, delete) and calls respective methods.
+	 * <p>
+	 * When executing, insert, update and delete use the cached parameterized
+	 * statement for their shape (see {@link #insertShape(JSONObject)}) and
+	 * bind the {@code qdt} values instead of inlining them.
+	 * <p>
+	 * For insert and update, {@code qdt} may also be a JSON array of row objects;
+	 * the rows are then executed as one JDBC batch (see
+	 * {@link #batchExecute(JSONObject, String)}).
+	 * <p>
+	 * A select with a page size ({@code qps}) runs in cursor mode (see
+	 * {@link #pageExecute(JSONObject)}). An executed select with a partition
+	 * column ({@code qpc}) runs as parallel range queries whose rows are merged
+	 * into one response (see {@link #parallelSelect(JSONObject)}). Any other
+	 * executed select can ask for a compact response with {@code rfm} (see
+	 * {@link #responseformat(JSONObject)}).
+	 * <p>
+	 * With write-behind on ({@code dbwbhd} = Y, or {@code qwb} = true in the
+	 * request), a single-row insert is group committed with other inserts of
+	 * the same shape and this call returns once its row is committed (see
+	 * {@link #writeBehindInsert(JSONObject)}).
+	 * <p>
+	 * {@code main_sign} = upsert inserts the {@code qdt} row or updates the row
+	 * with the same {@code qky} key columns in one native statement (see
+	 * {@link #upsertShape(JSONObject)}); {@code qdt} may be an array as for
+	 * insert.
+	 * <p>
+	 * {@code main_sign} = pipeline runs the operations listed in {@code qpl}
+	 * in one transaction (see {@link #pipelineExecute(JSONArray)}).
+	 * <p>
+	 * With schema metadata on ({@code dbschm} = Y, reloaded every
+	 * {@code dbschr} ms, default 300000), an executed operation naming an
+	 * unknown table or column, or carrying a value that does not fit its
+	 * column, fails with {@code SCHERR} before any statement is prepared, and
+	 * the {@code qdt} values are bound with the SQL types of their columns.
+	 * <p>
+	 * With read replicas configured ({@code dbrurl}), an executed select runs on
+	 * a replica unless the request sets {@code qrp} = true (read from primary);
+	 * writes and pipelines always run on the primary.
+	 * 
+	 * @param val JSON object containing operation details
+	 * @return Resulting SQL query string
+	 * @throws Exception if input is invalid or processing fails
+	 * @see #execute(JSONObject)
+	 * @author Raviteja J
+	 */
+	public static String executer(JSONObject val) throws Exception {
+		return defaultengine().execute(val);
+	}
+
+	/**
+	 * Executes a CRUD operation on this engine. Safe for concurrent callers.
+	 * 
+	 * @param val JSON object containing operation details
+	 * @return Resulting SQL query string or execution result
+	 * @throws Exception if input is invalid or processing fails
+	 * @see #executer(JSONObject)
+	 */
+	public String execute(JSONObject val) throws Exception {
+		if (val == null || val.isEmpty()) {
+			throw new Exception("Cannot process null or empty JSON");
+		}
+
+		String result = null;
+		String query = null;
+		String exresult = null;
+		long start = System.nanoTime();
+		String type = val.optString("main_sign", "").toLowerCase();
+		String rtp = val.optString("rtp", "query").toLowerCase();
+		try {
+			if ("execute".equals(rtp) && !"pipeline".equals(type)) {
+				schemaCheck(val, type);
+			}
+			switch (type) {
+			case "insert":
+				if (val.optJSONArray("qdt") != null) {
+					result = "execute".equals(rtp) ? batchExecute(val, type) : batchQueries(val, type);
+				} else if ("execute".equals(rtp) && val.optBoolean("qwb", writebehind)) {
+					result = writeBehindInsert(val).get();
+				} else if ("execute".equals(rtp)) {
+					SqlTemplate shape = insertShape(val);
+					List<Object> binds = typedBinds(val.getString("qtn"), shape, shape.binds(val.getJSONObject("qdt")));
+					built(type, start);
+					exresult = dbExecute(shape.sql(), type, binds);
+					result = exresult;
+				} else {
+					result = getinsertq(val);
+					built(type, start);
+				}
+				break;
+
+			case "select":
+				if (val.has("qps")) {
+					result = "execute".equals(rtp) ? pageExecute(val) : pagedSelect(val).sql();
+					break;
+				}
+				if (val.has("qpc") && "execute".equals(rtp)) {
+					ParallelSelect parallel = parallelSelect(val);
+					built(type, start);
+					StringWriter sw = new StringWriter();
+					parallel.stream(sw);
+					exresult = sw.toString();
+					result = exresult;
+					break;
+				}
+				query = getselectq(val);
+				built(type, start);
+
+				if ("execute".equals(rtp)) {
+					exresult = dbExecute(query, type, Collections.emptyList(), val.optBoolean("qrp"),
+							responseformat(val));
+					result = exresult;
+				} else {
+					result = query;
+				}
+				break;
+			case "update":
+				if (val.optJSONArray("qdt") != null) {
+					result = "execute".equals(rtp) ? batchExecute(val, type) : batchQueries(val, type);
+				} else if ("execute".equals(rtp)) {
+					SqlTemplate shape = updateShape(val);
+					List<Object> binds = typedBinds(val.getString("qtn"), shape, shape.binds(val.getJSONObject("qdt")));
+					built(type, start);
+					exresult = dbExecute(shape.sql(), type, binds);
+					result = exresult;
+				} else {
+					result = getupdateq(val);
+					built(type, start);
+				}
+				break;
+			case "upsert":
+				if (val.optJSONArray("qdt") != null) {
+					result = "execute".equals(rtp) ? batchExecute(val, type) : batchQueries(val, type);
+				} else {
+					SqlTemplate shape = upsertShape(val);
+					JSONObject data = val.getJSONObject("qdt");
+					if ("execute".equals(rtp)) {
+						List<Object> binds = typedBinds(val.getString("qtn"), shape, shape.binds(data));
+						built(type, start);
+						result = dbExecute(shape.sql(), type, binds);
+					} else {
+						result = shape.render(data);
+						built(type, start);
+					}
+				}
+				break;
+			case "delete":
+				if ("execute".equals(rtp)) {
+					SqlTemplate shape = deleteShape(val);
+					built(type, start);
+					exresult = dbExecute(shape.sql(), type, Collections.emptyList());
+					result = exresult;
+				} else {
+					result = getdeleteq(val);
+					built(type, start);
+				}
+				break;
+			case "pipeline":
+				result = pipelineExecute(val.getJSONArray("qpl"));
+				break;
+			default:
+				throw new Exception("Unsupported operation: " + type);
+			}
+		} catch (SchemaCache.SchemaException e) {
+			return fail("SCHERR", e.getMessage());
+		}
+
+		return result;
+	}
+
+	/**
+	 * Processes a JSON string input to dynamically build and execute a parameterized SQL query.
+	 * <p>
+	 * The {@code raw_qry} template is compiled once into a {@link SqlTemplate}
+	 * (the {@code dbtcsz} most recently used templates are cached) and the {@code params} values are
+	 * bound as JDBC parameters rather than pasted into the SQL text.
+	 * <p>
+	 * The input JSON must contain the following keys:
+	 * <ul>
+	 *     <li><b>raw_qry</b> – the SQL query with placeholders (e.g., {@code SELECT * FROM table WHERE id = {ID}})</li>
+	 *     <li><b>params</b> – a JSON object containing the actual values to replace the placeholders in {@code raw_qry}</li>
+	 *     <li><b>rtp</b> – return type. If it's {@code "execute"}, the query is executed against the database</li>
+	 *     <li><b>main_sign</b> – the main operation keyword (e.g., SELECT, INSERT, UPDATE, DELETE)</li>
+	 * </ul>
+	 *
+	 * @param sval A JSON string representing the query template and parameters.
+	 * @return A result string:
+	 *         <ul>
+	 *             <li>Execution result if {@code rtp = "execute"}</li>
+	 *             <li>Final SQL query string if {@code rtp != "execute"}</li>
+	 *             <li>Error JSON string if validation or execution fails</li>
+	 *         </ul>
+	 * 
+	 * @see #errormsgbuilder(String, String)
+	 * @see #paramExecute(String)
+	 * @author RAVITEJA J
+	 */
+	public static String paramexecuter(String sval) {
+		return defaultengine().paramExecute(sval);
+	}
+
+	/**
+	 * Builds and executes a parameterized SQL query on this engine. Safe for
+	 * concurrent callers.
+	 * 
+	 * @param sval A JSON string representing the query template and parameters.
+	 * @return Execution result, final SQL query string or error JSON string
+	 * @see #paramexecuter(String)
+	 */
+	public String paramExecute(String sval) {
+		String result = null;
+		String rawQuery = null;
+		String return_type = null;
+		String main_sign = null;
+		JSONObject params = new JSONObject();
+		JSONObject val = new JSONObject(sval);
+		if (val.isEmpty() || val == null) {
+			return fail("JSNNUL", "Json Object is null. Cant Process Null Json .");
+		}
+		if (!val.has("raw_qry") || !val.has("params") || !val.has("rtp")) {
+			return fail("JSPRNL", "JSON Paramaters Are null. Cant Process Null values .");
+		}
+		rawQuery = val.optString("raw_qry", "NO_DATA");
+		return_type = val.optString("rtp", "NO_DATA");
+		main_sign = val.optString("main_sign");
+		params = val.getJSONObject("params");
+		if (rawQuery.trim().isEmpty() || rawQuery == null || rawQuery.equalsIgnoreCase("NO_DATA")
+				|| rawQuery.equalsIgnoreCase("null") || params.isEmpty() || return_type.trim().isEmpty()
+				|| return_type.equalsIgnoreCase("NO_DATA") || return_type == null || main_sign.trim().isEmpty()
+				|| main_sign == null || main_sign.equalsIgnoreCase("NO_DATA")||main_sign.equalsIgnoreCase("null")) {
+			return fail("PRVLNL", "Paramaters values Are null. Cant Process Null values .");
+		}
+		if (debug) {
+			debuglog("rawQuery -->  " + rawQuery);
+			debuglog("params -->  " + params.toString());
+		}
+		long start = System.nanoTime();
+		SqlTemplate template = getTemplate(rawQuery);
+		if ("execute".equals(return_type)) {
+			String exresult;
+			try {
+				List<Object> binds = template.binds(params);
+				built(main_sign, start);
+				exresult = dbExecute(template.sql(), main_sign, binds, val.optBoolean("qrp"), responseformat(val));
+				result = exresult;
+			} catch (IllegalArgumentException e) {
+				return fail("PRMMSS", e.getMessage());
+			} catch (ClassNotFoundException e) {
+				return fail("DBEXER", "Error While Execution the Query [ "+e.toString()+" ]");
+			}
+		} else {
+			try {
+				result = template.render(params);
+				built(main_sign, start);
+			} catch (IllegalArgumentException e) {
+				return fail("PRMMSS", e.getMessage());
+			}
+		}
+		return result;
+
+	}
+
+	/**
+	 * Runs a JSON request given as UTF-8 bytes on the default engine.
+	 * 
+	 * @param body JSON request of {@link #executer(JSONObject)} or, with
+	 *             {@code raw_qry}, of {@link #paramexecuter(String)}
+	 * @return execution result, query text or error JSON string
+	 * @throws Exception if the body is not a JSON object or processing fails
+	 * @see #execute(byte[])
+	 */
+	public static String executer(byte[] body) throws Exception {
+		return defaultengine().execute(body);
+	}
+
+	/**
+	 * Runs a JSON request held in a buffer on the default engine.
+	 * 
+	 * @param body UTF-8 JSON request
+	 * @return execution result, query text or error JSON string
+	 * @throws Exception if the body is not a JSON object or processing fails
+	 * @see #execute(byte[])
+	 */
+	public static String executer(ByteBuffer body) throws Exception {
+		return defaultengine().execute(body);
+	}
+
+	/**
+	 * Runs a JSON request read from a stream on the default engine.
+	 * 
+	 * @param body UTF-8 JSON request, read to its end
+	 * @return execution result, query text or error JSON string
+	 * @throws Exception if the body is not a JSON object, reading fails or
+	 *                   processing fails
+	 * @see #execute(byte[])
+	 */
+	public static String executer(InputStream body) throws Exception {
+		return defaultengine().execute(body);
+	}
+
+	/**
+	 * Runs a JSON request given as UTF-8 bytes, decoded into a reused
+	 * {@link CrudRequest} instead of a String and {@link JSONObject}. A request
+	 * with {@code raw_qry} runs as {@link #paramExecute(CrudRequest)}, any
+	 * other as {@link #execute(CrudRequest)}.
+	 * 
+	 * @param body UTF-8 JSON request
+	 * @return execution result, query text or error JSON string
+	 * @throws Exception if the body is not a JSON object or processing fails
+	 * @see #executer(byte[])
+	 */
+	public String execute(byte[] body) throws Exception {
+		CrudRequest req = request();
+		try {
+			return dispatch(req.decode(body));
+		} finally {
+			recycle(req);
+		}
+	}
+
+	/**
+	 * Runs a JSON request held in a buffer, as {@link #execute(byte[])}.
+	 * 
+	 * @param body UTF-8 JSON request; its position is moved to its limit
+	 * @return execution result, query text or error JSON string
+	 * @throws Exception if the body is not a JSON object or processing fails
+	 */
+	public String execute(ByteBuffer body) throws Exception {
+		CrudRequest req = request();
+		try {
+			return dispatch(req.decode(body));
+		} finally {
+			recycle(req);
+		}
+	}
+
+	/**
+	 * Runs a JSON request read from a stream, as {@link #execute(byte[])}.
+	 * 
+	 * @param body UTF-8 JSON request, read to its end and not closed
+	 * @return execution result, query text or error JSON string
+	 * @throws Exception if the body is not a JSON object, reading fails or
+	 *                   processing fails
+	 */
+	public String execute(InputStream body) throws Exception {
+		CrudRequest req = request();
+		try {
+			return dispatch(req.decode(body));
+		} finally {
+			recycle(req);
+		}
+	}
+
+	/**
+	 * Runs a decoded request the way {@link #execute(byte[])} does: as
+	 * {@link #paramExecute(CrudRequest)} if it carries {@code raw_qry}, else as
+	 * {@link #execute(CrudRequest)}.
+	 * 
+	 * @param req decoded request
+	 * @return execution result, query text or error JSON string
+	 * @throws Exception if input is invalid or processing fails
+	 */
+	protected String dispatch(CrudRequest req) throws Exception {
+		return req.rawQuery() != null || req.options().has("raw_qry") ? paramExecute(req) : execute(req);
+	}
+
+	/**
+	 * Takes a request object from the reuse pool, or a new one.
+	 * 
+	 * @return empty request; hand it back with {@link #recycle(CrudRequest)}
+	 */
+	protected CrudRequest request() {
+		CrudRequest req = requestpool.poll();
+		return req != null ? req : new CrudRequest();
+	}
+
+	/**
+	 * Clears a request object and returns it to the reuse pool.
+	 * 
+	 * @param req request from {@link #request()}, not used afterwards
+	 */
+	protected void recycle(CrudRequest req) {
+		req.clear();
+		requestpool.offer(req);
+	}
+
+	/**
+	 * Executes a decoded CRUD request, as {@link #execute(JSONObject)}.
+	 * <p>
+	 * An executed single-row insert or update, a delete and a select are built
+	 * and bound straight from the decoded fields; a select may carry
+	 * {@code qrp} and {@code rfm}. Every other request (query text only, row
+	 * arrays, pages, partitions, upserts, pipelines, write-behind, schema
+	 * checks with {@code dbschm} = Y, missing fields) goes through
+	 * {@link CrudRequest#toJSON()} and {@link #execute(JSONObject)}, with the
+	 * same results and errors.
+	 * 
+	 * @param req decoded request
+	 * @return Resulting SQL query string or execution result
+	 * @throws Exception if input is invalid or processing fails
+	 */
+	public String execute(CrudRequest req) throws Exception {
+		String type = req.mainSign() == null ? "" : req.mainSign().toLowerCase();
+		String rtp = req.rtp() == null ? "query" : req.rtp().toLowerCase();
+		if (!direct(req, type, rtp)) {
+			return execute(req.toJSON());
+		}
+		long start = System.nanoTime();
+		String table = req.table().toUpperCase();
+		switch (type) {
+		case "insert": {
+			SqlTemplate shape = insertShape(table, req.data().keySet().toArray(new String[0]));
+			List<Object> binds = shape.binds(req.data());
+			built(type, start);
+			return dbExecute(shape.sql(), type, binds);
+		}
+		case "update": {
+			String condition = req.condition() == null ? "" : req.condition().trim();
+			SqlTemplate shape = updateShape(table, req.data().keySet().toArray(new String[0]), new String[0], condition);
+			List<Object> binds = shape.binds(req.data());
+			built(type, start);
+			return dbExecute(shape.sql(), type, binds);
+		}
+		case "delete": {
+			SqlTemplate shape = deleteShape(table, req.condition().trim());
+			built(type, start);
+			return dbExecute(shape.sql(), type, Collections.emptyList());
+		}
+		default: {
+			String query = "SELECT " + String.join(",", req.columns()) + " FROM " + table + " " + req.condition();
+			built(type, start);
+			return dbExecute(query, type, Collections.emptyList(), req.options().optBoolean("qrp"),
+					responseformat(req.options()));
+		}
+		}
+	}
+
+	/**
+	 * @return {@code true} if {@link #execute(CrudRequest)} can run the
+	 *         request without building its JSON object
+	 */
+	private boolean direct(CrudRequest req, String type, String rtp) {
+		if (!"execute".equals(rtp) || schema != null || req.table() == null) {
+			return false;
+		}
+		JSONObject options = req.options();
+		switch (type) {
+		case "insert":
+			return !writebehind && req.hasData() && !req.data().isEmpty() && options.isEmpty();
+		case "update":
+			return req.hasData() && !req.data().isEmpty() && options.isEmpty();
+		case "delete":
+			return req.condition() != null && options.isEmpty();
+		case "select":
+			for (String key : options.keySet()) {
+				if (!"qrp".equals(key) && !"rfm".equals(key)) {
+					return false;
+				}
+			}
+			return req.hasColumns() && !req.columns().isEmpty() && req.condition() != null;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Builds and executes a decoded parameterized request, as
+	 * {@link #paramExecute(String)} with the same checks and error codes. The
+	 * {@code params} values are bound straight from the decoded fields.
+	 * 
+	 * @param req decoded request with {@code raw_qry}, {@code params} and {@code rtp}
+	 * @return Execution result, final SQL query string or error JSON string
+	 */
+	public String paramExecute(CrudRequest req) {
+		JSONObject options = req.options();
+		if (options.has("raw_qry") || options.has("params") || options.has("rtp") || options.has("main_sign")) {
+			// contract keys holding other types keep the checks of the JSON path
+			return paramExecute(req.toString());
+		}
+		if (req.isEmpty()) {
+			return fail("JSNNUL", "Json Object is null. Cant Process Null Json .");
+		}
+		if (req.rawQuery() == null || !req.hasParams() || req.rtp() == null) {
+			return fail("JSPRNL", "JSON Paramaters Are null. Cant Process Null values .");
+		}
+		String rawQuery = req.rawQuery();
+		String return_type = req.rtp();
+		String main_sign = req.mainSign() == null ? "" : req.mainSign();
+		if (rawQuery.trim().isEmpty() || rawQuery.equalsIgnoreCase("NO_DATA") || rawQuery.equalsIgnoreCase("null")
+				|| req.params().isEmpty() || return_type.trim().isEmpty() || return_type.equalsIgnoreCase("NO_DATA")
+				|| main_sign.trim().isEmpty() || main_sign.equalsIgnoreCase("NO_DATA")
+				|| main_sign.equalsIgnoreCase("null")) {
+			return fail("PRVLNL", "Paramaters values Are null. Cant Process Null values .");
+		}
+		if (debug) {
+			debuglog("rawQuery -->  " + rawQuery);
+			debuglog("params -->  " + new JSONObject(req.params()));
+		}
+		long start = System.nanoTime();
+		SqlTemplate template = getTemplate(rawQuery);
+		try {
+			if ("execute".equals(return_type)) {
+				List<Object> binds = template.binds(req.params());
+				built(main_sign, start);
+				return dbExecute(template.sql(), main_sign, binds, options.optBoolean("qrp"), responseformat(options));
+			}
+			String result = template.render(req.params());
+			built(main_sign, start);
+			return result;
+		} catch (IllegalArgumentException e) {
+			return fail("PRMMSS", e.getMessage());
+		} catch (ClassNotFoundException e) {
+			return fail("DBEXER", "Error While Execution the Query [ " + e.toString() + " ]");
+		}
+	}
+
+	/**
+	 * Returns the compiled form of a query template, compiling it on first use.
+	 * The {@code dbtcsz} most recently used templates are kept compiled.
+	 * 
+	 * @param rawQuery query template with {@code {NAME}} placeholders
+	 * @return compiled template
+	 */
+	protected SqlTemplate getTemplate(String rawQuery) {
+		return templates.get(rawQuery, () -> SqlTemplate.compile(rawQuery));
+	}
+
+	/**
+	 * Binds values to the parameters of a prepared statement using the JDBC
+	 * setter matching each value's type. JSON nulls are bound as SQL NULL, of
+	 * the column type for a {@link SchemaCache.Null}.
+	 * 
+	 * @param ps    statement to bind
+	 * @param binds values, index 0 being parameter 1
+	 * @throws SQLException if binding fails
+	 */
+	protected static void bindvalues(PreparedStatement ps, List<Object> binds) throws SQLException {
+		for (int i = 0; i < binds.size(); i++) {
+			Object v = binds.get(i);
+			int idx = i + 1;
+			if (v == null || JSONObject.NULL.equals(v)) {
+				ps.setNull(idx, Types.VARCHAR);
+			} else if (v instanceof SchemaCache.Null) {
+				ps.setNull(idx, ((SchemaCache.Null) v).sqltype());
+			} else if (v instanceof String) {
+				ps.setString(idx, (String) v);
+			} else if (v instanceof Integer) {
+				ps.setInt(idx, (Integer) v);
+			} else if (v instanceof Long) {
+				ps.setLong(idx, (Long) v);
+			} else if (v instanceof BigDecimal) {
+				ps.setBigDecimal(idx, (BigDecimal) v);
+			} else if (v instanceof BigInteger) {
+				ps.setBigDecimal(idx, new BigDecimal((BigInteger) v));
+			} else if (v instanceof Double || v instanceof Float) {
+				ps.setDouble(idx, ((Number) v).doubleValue());
+			} else if (v instanceof Boolean) {
+				ps.setBoolean(idx, (Boolean) v);
+			} else if (v instanceof JSONObject || v instanceof JSONArray) {
+				ps.setString(idx, v.toString());
+			} else {
+				ps.setObject(idx, v);
+			}
+		}
+	}
+
+	/**
+	 * Constructs a standardized JSON error message object.
+	 * <p>
+	 * The JSON contains:
+	 * <ul>
+	 *     <li><b>ProcessedBY</b> – Identifies the origin of the error ("Smart CRUD Engine")</li>
+	 *     <li><b>Status</b> – Always set to "FAIL"</li>
+	 *     <li><b>ecode</b> – The error code (defaults to "Unknown Error Code" if null/empty)</li>
+	 *     <li><b>emsg</b> – The error message (defaults to "Unknown Error Message" if null/empty)</li>
+	 *     <li><b>TimeStamp</b> – Time of the error in "dd-MMM-yyyy HH:mm:ss" format</li>
+	 * </ul>
+	 *
+	 * @param code    The unique error code to identify the type of failure.
+	 * @param message A human-readable message describing the error.
+	 * @return A {@link org.json.JSONObject} containing the formatted error structure.
+	 * @author RAVITEJA J
+	 */
+	public static JSONObject errormsgbuilder(String code, String message) {
+		JSONObject errormsg = new JSONObject();
+		DateTimeFormatter formatter = DateTimeFormatter.ofPattern("dd-MMM-yyyy HH:mm:ss");
+		LocalDateTime now = LocalDateTime.now();
+		String tstamp = now.format(formatter);
+
+		errormsg.put("ProcessedBY", "Smart CRUD Engine");
+		errormsg.put("Status", "FAIL");
+		errormsg.put("ecode", (code.trim().isEmpty() || message == null) ? "Unknown Error Code" : code);
+		errormsg.put("emsg", (message.trim().isEmpty() || message == null) ? "Unknown Error Message" : message);
+		errormsg.put("TimeStamp", tstamp);
+
+		return errormsg;
+	}
+
+	/**
+	 * Generates an INSERT SQL query from the provided JSON object.
+	 * 
+	 * @param jval JSON object containing table name and data
+	 * @return INSERT SQL query string
+	 * @throws Exception if required fields are missing
+	 * @author Raviteja J
+	 */
+	public static String getinsertq(JSONObject jval) throws Exception {
+		StringBuilder allclm = new StringBuilder();
+		StringBuilder allval = new StringBuilder();
+
+		if (!jval.has("qtn") || !jval.has("qdt"))
+			throw new Exception("Missing table name or data");
+
+		String table = jval.getString("qtn").toUpperCase();
+		JSONObject data = jval.getJSONObject("qdt");
+
+		for (String key : data.keySet()) {
+			allclm.append(key).append(",");
+			allval.append("'").append(data.getString(key).replace("'", "''")).append("',");
+		}
+
+		String columns = allclm.substring(0, allclm.length() - 1);
+		String values = allval.substring(0, allval.length() - 1);
+
+		return "INSERT INTO " + table + " (" + columns + ") VALUES (" + values + ")";
+	}
 
 	/**
-	 * Executes a CRUD operation based on the provided JSON object. Determines
-	 * operation type (insert, select, update, delete) and calls respective methods.
+	 * Returns the parameterized INSERT statement for the shape of the provided
+	 * JSON object (table and ordered {@code qdt} columns), from the shape cache.
 	 * 
-	 * @param val JSON object containing operation details
-	 * @return Resulting SQL query string
-	 * @throws Exception if input is invalid or processing fails
-	 * @author Raviteja J
+	 * @param jval JSON object containing table name and data
+	 * @return template whose names are the {@code qdt} columns in bind order
+	 * @throws Exception if required fields are missing
 	 */
-	public static String executer(JSONObject val) throws Exception {
-		if (val == null || val.isEmpty()) {
-			throw new Exception("Cannot process null or empty JSON");
-		}
+	public SqlTemplate insertShape(JSONObject jval) throws Exception {
+		if (!jval.has("qtn") || !jval.has("qdt"))
+			throw new Exception("Missing table name or data");
 
-		String result = null;
-		String query = null;
-		String exresult = null;
-		String type = val.optString("main_sign", "").toLowerCase();
-		String rtp = val.optString("rtp", "query").toLowerCase();
-		switch (type) {
-		case "insert":
-			query = getinsertq(val);
-			if ("execute".equals(rtp)) {
-				exresult = dbexecuter(query, type);
-				result = exresult;
-			} else {
-				result = query;
+		String table = jval.getString("qtn").toUpperCase();
+		String[] cols = jval.getJSONObject("qdt").keySet().toArray(new String[0]);
+		if (cols.length == 0)
+			throw new Exception("Missing table name or data");
+
+		return insertShape(table, cols);
+	}
+
+	/**
+	 * Returns the parameterized INSERT statement for a table and column list,
+	 * from the shape cache.
+	 * 
+	 * @param table upper-case table name
+	 * @param cols  columns in bind order
+	 * @return template whose names are {@code cols}
+	 */
+	protected SqlTemplate insertShape(String table, String[] cols) {
+		String key = "INSERT|" + table + "|" + String.join(",", cols);
+		return shapes.get(key, () -> {
+			String[] parts = new String[cols.length + 1];
+			parts[0] = "INSERT INTO " + table + " (" + String.join(",", cols) + ") VALUES (";
+			for (int i = 1; i < cols.length; i++) {
+				parts[i] = ",";
 			}
-			break;
+			parts[cols.length] = ")";
+			return SqlTemplate.of(parts, cols);
+		});
+	}
 
-		case "select":
-			query = getinsertq(val);
+	/**
+	 * Returns the parameterized UPDATE statement for the shape of the provided
+	 * JSON object (table, ordered {@code qdt} columns and condition), from the
+	 * shape cache.
+	 * 
+	 * @param jval JSON object containing table name, data, and condition
+	 * @return template whose names are the {@code qdt} columns in bind order
+	 * @throws Exception if required fields are missing
+	 */
+	public SqlTemplate updateShape(JSONObject jval) throws Exception {
+		if (!jval.has("qtn") || !jval.has("qdt"))
+			throw new Exception("Missing table name or data");
 
-			if ("execute".equals(rtp)) {
-				exresult = dbexecuter(query, type);
-				result = exresult;
-			} else {
-				result = query;
+		String table = jval.getString("qtn").toUpperCase();
+		String condition = jval.optString("qcn", "").trim();
+		String[] cols = jval.getJSONObject("qdt").keySet().toArray(new String[0]);
+		if (cols.length == 0)
+			throw new Exception("Missing table name or data");
+
+		return updateShape(table, cols, new String[0], condition);
+	}
+
+	/**
+	 * Returns the parameterized UPDATE statement for a table, the columns to
+	 * set and the key columns matched by the WHERE clause, from the shape cache.
+	 * 
+	 * @param table     upper-case table name
+	 * @param cols      columns to set, in bind order
+	 * @param keys      key columns bound after {@code cols} ({@code KEY = ?})
+	 * @param condition additional condition, may be empty
+	 * @return template whose names are {@code cols} followed by {@code keys}
+	 */
+	protected SqlTemplate updateShape(String table, String[] cols, String[] keys, String condition) {
+		String key = "UPDATE|" + table + "|" + String.join(",", cols) + "|" + String.join(",", keys) + "|"
+				+ condition;
+		return shapes.get(key, () -> {
+			String[] names = new String[cols.length + keys.length];
+			String[] parts = new String[names.length + 1];
+			parts[0] = "UPDATE " + table + " SET " + cols[0] + " = ";
+			for (int i = 1; i < cols.length; i++) {
+				parts[i] = ", " + cols[i] + " = ";
 			}
-			break;
-		case "update":
-			query = getupdateq(val);
-			if ("execute".equals(rtp)) {
-				exresult = dbexecuter(query, type);
-				result = exresult;
-			} else {
-				result = query;
+			for (int i = 0; i < keys.length; i++) {
+				parts[cols.length + i] = (i == 0 ? " WHERE " : " AND ") + keys[i] + " = ";
 			}
-			break;
-		case "delete":
-			query = getdeleteq(val);
-			if ("execute".equals(rtp)) {
-				exresult = dbexecuter(query, type);
-				result = exresult;
+			String tail;
+			if (condition.isEmpty()) {
+				tail = "";
+			} else if (keys.length == 0) {
+				tail = " WHERE " + condition;
 			} else {
-				result = query;
+				tail = " AND (" + condition + ")";
 			}
-			break;
-		default:
-			throw new Exception("Unsupported operation: " + type);
+			parts[names.length] = tail;
+			System.arraycopy(cols, 0, names, 0, cols.length);
+			System.arraycopy(keys, 0, names, cols.length, keys.length);
+			return SqlTemplate.of(parts, names);
+		});
+	}
+
+	/**
+	 * Returns the DELETE statement for the provided JSON object (table and
+	 * condition).
+	 * 
+	 * @param jval JSON object containing table name and condition
+	 * @return template without bind parameters
+	 * @throws Exception if required fields are missing
+	 */
+	public SqlTemplate deleteShape(JSONObject jval) throws Exception {
+		if (!jval.has("qtn") || !jval.has("qcn"))
+			throw new Exception("Missing table name or condition");
+
+		return deleteShape(jval.getString("qtn").toUpperCase(), jval.getString("qcn").trim());
+	}
+
+	/**
+	 * Returns the DELETE statement for a table and condition. It is not taken
+	 * from the shape cache: the condition carries its values as literals, so
+	 * the key would be the statement itself and nothing would be saved.
+	 * 
+	 * @param table     upper-case table name
+	 * @param condition WHERE clause, may be empty
+	 * @return template without bind parameters
+	 */
+	protected SqlTemplate deleteShape(String table, String condition) {
+		return SqlTemplate.of(
+				new String[] { condition.isEmpty() ? "DELETE FROM " + table : "DELETE FROM " + table + " " + condition },
+				new String[0]);
+	}
+
+	/**
+	 * Returns the native upsert statement for the shape of the provided JSON
+	 * object (table, ordered {@code qdt} columns and {@code qky} key columns),
+	 * from the shape cache. The statement form follows the dialect of the
+	 * configured driver (see {@link SqlDialect#upsert(String, String[], String[])}).
+	 * 
+	 * @param jval JSON object containing table name, data and key columns
+	 * @return template whose names are the {@code qdt} columns in bind order
+	 * @throws Exception if required fields are missing or a key is not in {@code qdt}
+	 */
+	public SqlTemplate upsertShape(JSONObject jval) throws Exception {
+		if (!jval.has("qtn") || !jval.has("qdt") || !jval.has("qky"))
+			throw new Exception("Missing table name, data, or key columns");
+
+		String table = jval.getString("qtn").toUpperCase();
+		String[] cols = jval.getJSONObject("qdt").keySet().toArray(new String[0]);
+		if (cols.length == 0)
+			throw new Exception("Missing table name or data");
+
+		return upsertShape(table, cols, upsertkeys(jval, cols));
+	}
+
+	/**
+	 * Returns the native upsert statement for a table, column list and key
+	 * columns, from the shape cache.
+	 * 
+	 * @param table upper-case table name
+	 * @param cols  columns in bind order, including the keys
+	 * @param keys  key columns identifying an existing row
+	 * @return template whose names are {@code cols}
+	 */
+	protected SqlTemplate upsertShape(String table, String[] cols, String[] keys) {
+		String key = "UPSERT|" + table + "|" + String.join(",", cols) + "|" + String.join(",", keys);
+		return shapes.get(key, () -> SqlTemplate.of(dialect.upsert(table, cols, keys), cols));
+	}
+
+	/**
+	 * Reads the {@code qky} key columns of an upsert, a JSON array or a single
+	 * column name, and checks that each one is among {@code cols}.
+	 */
+	private static String[] upsertkeys(JSONObject jval, String[] cols) throws Exception {
+		JSONArray qky = jval.optJSONArray("qky");
+		String[] keys;
+		if (qky != null) {
+			keys = new String[qky.length()];
+			for (int i = 0; i < keys.length; i++) {
+				keys[i] = qky.getString(i);
+			}
+		} else {
+			keys = new String[] { jval.getString("qky") };
+		}
+		if (keys.length == 0)
+			throw new Exception("Missing key columns");
+		List<String> collist = Arrays.asList(cols);
+		for (String key : keys) {
+			if (!collist.contains(key))
+				throw new Exception("Key column " + key + " is missing in qdt");
 		}
+		return keys;
+	}
 
-		return result;
+	/**
+	 * Generates a SELECT SQL query from the provided JSON object.
+	 * 
+	 * @param jval JSON object containing table name, columns, and condition
+	 * @return SELECT SQL query string
+	 * @throws Exception if required fields are missing
+	 * @author Raviteja J
+	 */
+	public static String getselectq(JSONObject jval) throws Exception {
+		StringBuilder allclm = new StringBuilder();
+
+		if (!jval.has("qtn") || !jval.has("qcl") || !jval.has("qcn"))
+			throw new Exception("Missing table name, columns, or condition");
+
+		JSONArray cols = jval.getJSONArray("qcl");
+		for (int i = 0; i < cols.length(); i++) {
+			allclm.append(cols.getString(i)).append(",");
+		}
+
+		String table = jval.getString("qtn").toUpperCase();
+		String condition = jval.getString("qcn");
+		String columns = allclm.substring(0, allclm.length() - 1);
+
+		return "SELECT " + columns + " FROM " + table + " " + condition;
 	}
 
 	/**
-	 * Processes a JSON string input to dynamically build and execute a parameterized SQL query.
+	 * Generates a DELETE SQL query from the provided JSON object.
+	 * 
+	 * @param jval JSON object containing table name and condition
+	 * @return DELETE SQL query string
+	 * @throws Exception if required fields are missing
+	 * @author Raviteja J
+	 */
+	public static String getdeleteq(JSONObject jval) throws Exception {
+		if (!jval.has("qtn") || !jval.has("qcn"))
+			throw new Exception("Missing table name or condition");
+
+		String table = jval.getString("qtn").toUpperCase();
+		String condition = jval.getString("qcn").trim();
+
+		return condition.isEmpty() ? "DELETE FROM " + table : "DELETE FROM " + table + " " + condition;
+	}
+
+	/**
+	 * Generates an UPDATE SQL query from the provided JSON object.
+	 * 
+	 * @param jval JSON object containing table name, data, and condition
+	 * @return UPDATE SQL query string
+	 * @throws Exception if required fields are missing
+	 * @author Raviteja J
+	 */
+	public static String getupdateq(JSONObject jval) throws Exception {
+		StringBuilder allclm = new StringBuilder();
+
+		if (!jval.has("qtn") || !jval.has("qdt"))
+			throw new Exception("Missing table name or data");
+
+		JSONObject data = jval.getJSONObject("qdt");
+		for (String key : data.keySet()) {
+			allclm.append(key).append(" = '").append(data.getString(key).replace("'", "''")).append("', ");
+		}
+
+		String updates = allclm.substring(0, allclm.length() - 2);
+		String table = jval.getString("qtn").toUpperCase();
+		String condition = jval.optString("qcn", "").trim();
+
+		return condition.isEmpty() ? "UPDATE " + table + " SET " + updates
+				: "UPDATE " + table + " SET " + updates + " WHERE " + condition;
+	}
+
+	/**
+	 * Runs one page of a JSON select in cursor (keyset) mode as a
+	 * {@link PagedSelect}. Rows are ordered by the key column and each page
+	 * continues after the last key of the previous one with
+	 * {@code WHERE key > ?}, so every page costs the same regardless of depth.
 	 * <p>
-	 * The input JSON must contain the following keys:
+	 * Request keys besides {@code qtn}, {@code qcl} and {@code qcn}:
 	 * <ul>
-	 *     <li><b>raw_qry</b> – the SQL query with placeholders (e.g., {@code SELECT * FROM table WHERE id = {ID}})</li>
-	 *     <li><b>params</b> – a JSON object containing the actual values to replace the placeholders in {@code raw_qry}</li>
-	 *     <li><b>rtp</b> – return type. If it's {@code "execute"}, the query is executed against the database</li>
-	 *     <li><b>main_sign</b> – the main operation keyword (e.g., SELECT, INSERT, UPDATE, DELETE)</li>
+	 *     <li><b>qky</b> – key column, unique and not null (rows with a NULL key are skipped)</li>
+	 *     <li><b>qps</b> – page size</li>
+	 *     <li><b>qct</b> – continuation token from the previous page, absent for the first page</li>
+	 * </ul>
+	 * The response is the usual select response plus {@code next_token}, which is
+	 * only present when more rows follow. {@code qcn} may not contain its own
+	 * ORDER BY.
+	 * 
+	 * @param val JSON select with the cursor keys
+	 * @return Result of the execution as a string
+	 * @throws Exception if input is invalid or the token does not belong to this query
+	 */
+	public String pageExecute(JSONObject val) throws Exception {
+		long start = System.nanoTime();
+		PagedSelect page = pagedSelect(val);
+		built("select", start);
+		return page.execute();
+	}
+
+	/**
+	 * Builds the cursor mode form of a JSON select.
+	 * 
+	 * @param val JSON select with the cursor keys
+	 * @return paged select
+	 * @throws Exception if input is invalid or the token does not belong to this query
+	 */
+	protected PagedSelect pagedSelect(JSONObject val) throws Exception {
+		if (!val.has("qtn") || !val.has("qcl") || !val.has("qky"))
+			throw new Exception("Missing table name, columns, or key column");
+
+		int size = val.getInt("qps");
+		JSONArray keyarr = val.optJSONArray("qky");
+		String key = keyarr != null ? keyarr.getString(0) : val.getString("qky");
+
+		String table = val.getString("qtn").toUpperCase();
+		JSONArray cols = val.getJSONArray("qcl");
+		StringBuilder allclm = new StringBuilder();
+		boolean haskey = false;
+		for (int i = 0; i < cols.length(); i++) {
+			String col = cols.getString(i).trim();
+			haskey |= col.equals("*") || col.equalsIgnoreCase(key);
+			allclm.append(col).append(",");
+		}
+		if (!haskey) {
+			allclm.append(key).append(",");
+		}
+		String columns = allclm.substring(0, allclm.length() - 1);
+
+		String condition = val.optString("qcn", "").trim();
+		if (condition.regionMatches(true, 0, "WHERE", 0, 5)) {
+			condition = condition.substring(5).trim();
+		}
+		if (condition.toUpperCase().matches("(?s).*\\bORDER\\s+BY\\b.*"))
+			throw new Exception("Cursor mode orders by the key column; remove ORDER BY from qcn");
+
+		return new PagedSelect(this, table, columns, condition, key, size, val.optString("qct", null),
+				val.optBoolean("qrp"));
+	}
+
+	/**
+	 * Builds the parallel form of a JSON select. Request keys:
+	 * <ul>
+	 *     <li><b>qpc</b> – numeric, date or timestamp column whose range is split</li>
+	 *     <li><b>qdp</b> – degree of parallelism (default {@code dbpdop}, 4; at most {@code dbpmax} - 2, so
+	 *     the ranges and the NULL partition leave one pooled connection free)</li>
+	 *     <li><b>qpo</b> – order the rows by {@code qpc}, NULLs last (default false)</li>
+	 *     <li><b>qfs</b> – JDBC fetch size of each partition (default {@code dbfsz}, 1000)</li>
 	 * </ul>
+	 * {@code qcn} may not hold ORDER BY, GROUP BY, HAVING or row limits, which
+	 * do not survive the split.
 	 *
-	 * @param sval A JSON string representing the query template and parameters.
-	 * @return A result string:
-	 *         <ul>
-	 *             <li>Execution result if {@code rtp = "execute"}</li>
-	 *             <li>Final SQL query string if {@code rtp != "execute"}</li>
-	 *             <li>Error JSON string if validation or execution fails</li>
-	 *         </ul>
+	 * @param val JSON select with {@code qtn}, {@code qcl}, {@code qcn} and {@code qpc}
+	 * @return parallel select
+	 * @throws Exception if input is invalid
+	 */
+	protected ParallelSelect parallelSelect(JSONObject val) throws Exception {
+		if (!val.has("qtn") || !val.has("qcl"))
+			throw new Exception("Missing table name or columns");
+
+		String partcol = val.getString("qpc").trim();
+		if (!partcol.matches("[A-Za-z_][A-Za-z0-9_$]*"))
+			throw new Exception("Invalid partition column " + partcol);
+		// the NULL partition takes one more connection; one is left for other calls
+		int maxdegree = Math.max(1, Integer.parseInt(rbval("dbpmax", "10")) - 2);
+		int degree = Math.min(val.optInt("qdp", Integer.parseInt(rbval("dbpdop", "4"))), maxdegree);
+		if (degree <= 0)
+			throw new Exception("Degree of parallelism must be positive");
+
+		String table = val.getString("qtn").toUpperCase();
+		JSONArray cols = val.getJSONArray("qcl");
+		StringBuilder allclm = new StringBuilder();
+		for (int i = 0; i < cols.length(); i++) {
+			allclm.append(cols.getString(i).trim()).append(",");
+		}
+		String columns = allclm.substring(0, allclm.length() - 1);
+
+		String condition = val.optString("qcn", "").trim();
+		if (condition.regionMatches(true, 0, "WHERE", 0, 5)) {
+			condition = condition.substring(5).trim();
+		}
+		if (condition.toUpperCase().matches("(?s).*\\b(ORDER\\s+BY|GROUP\\s+BY|HAVING|LIMIT|FETCH|OFFSET)\\b.*"))
+			throw new Exception("Parallel select splits on qpc; remove ORDER BY, GROUP BY and row limits from qcn");
+
+		return new ParallelSelect(this, table, columns, condition, partcol, degree, val.optBoolean("qpo"),
+				val.optBoolean("qrp"), val.optInt("qfs", Integer.parseInt(rbval("dbfsz", "1000"))));
+	}
+
+	/**
+	 * Streams the result of a SELECT to {@code out} on the default engine.
 	 * 
-	 * @see #errormsgbuilder(String, String)
-	 * @author RAVITEJA J
+	 * @param val JSON select ({@code qtn}, {@code qcl}, {@code qcn}) or
+	 *            {@code raw_qry} with {@code params}
+	 * @param out destination of the JSON response
+	 * @return number of rows written
+	 * @throws Exception if input is invalid or writing fails
+	 * @see #streamSelect(JSONObject, Writer)
 	 */
-	public static String paramexecuter(String sval) {
-		String result = null;
-		String rawQuery = null;
-		String return_type = null;
-		String main_sign = null;
-		JSONObject params = new JSONObject();
-		JSONObject val = new JSONObject(sval);
-		if (val.isEmpty() || val == null) {
-			return errormsgbuilder("JSNNUL", "Json Object is null. Cant Process Null Json .").toString();
+	public static long streamselect(JSONObject val, Writer out) throws Exception {
+		return defaultengine().streamSelect(val, out);
+	}
+
+	/**
+	 * Streams the result of a SELECT as UTF-8 JSON to {@code out}. The stream is
+	 * flushed but not closed.
+	 * 
+	 * @param val JSON select or {@code raw_qry} with {@code params}
+	 * @param out destination of the JSON response
+	 * @return number of rows written
+	 * @throws Exception if input is invalid or writing fails
+	 * @see #streamSelect(JSONObject, Writer)
+	 */
+	public long streamSelect(JSONObject val, OutputStream out) throws Exception {
+		Writer wr = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+		long rows = streamSelect(val, wr);
+		wr.flush();
+		return rows;
+	}
+
+	/**
+	 * Streams the result of a SELECT to {@code out} as rows arrive with a
+	 * {@link StreamSelect}, instead of collecting them in a {@link JSONArray}.
+	 * The response has the same keys as
+	 * {@link #dbExecute(String, String)}; {@code sign}, {@code effected_row} and
+	 * {@code message} follow {@code query_data} because the row count is only
+	 * known at the end. A failure after the first row closes the array and
+	 * reports {@code "sign":"ERROR"}.
+	 * <p>
+	 * The JDBC fetch size comes from {@code qfs} in the request or
+	 * {@code dbfsz} in the configuration (default 1000). With a partition
+	 * column {@code qpc} the select runs as parallel range queries, see
+	 * {@link #parallelSelect(JSONObject)}.
+	 * 
+	 * @param val JSON select ({@code qtn}, {@code qcl}, {@code qcn}) or
+	 *            {@code raw_qry} with {@code params}
+	 * @param out destination of the JSON response
+	 * @return number of rows written
+	 * @throws Exception if input is invalid or writing fails
+	 */
+	public long streamSelect(JSONObject val, Writer out) throws Exception {
+		if (val == null || val.isEmpty()) {
+			throw new Exception("Cannot process null or empty JSON");
 		}
-		if (!val.has("raw_qry") || !val.has("params") || !val.has("rtp")) {
-			return errormsgbuilder("JSPRNL", "JSON Paramaters Are null. Cant Process Null values .").toString();
+		long start = System.nanoTime();
+		int fetchsize = val.optInt("qfs", Integer.parseInt(rbval("dbfsz", "1000")));
+		if (val.has("raw_qry")) {
+			SqlTemplate template = getTemplate(val.getString("raw_qry"));
+			JSONObject params = val.optJSONObject("params");
+			List<Object> binds = template.binds(params == null ? new JSONObject() : params);
+			built("select", start);
+			return new StreamSelect(this, template.sql(), binds, fetchsize, val.optBoolean("qrp")).stream(out);
+		}
+		schemaCheck(val, "select");
+		if (val.has("qpc")) {
+			ParallelSelect parallel = parallelSelect(val);
+			built("select", start);
+			return parallel.stream(out);
+		}
+		String query = getselectq(val);
+		built("select", start);
+		return new StreamSelect(this, query, Collections.emptyList(), fetchsize, val.optBoolean("qrp")).stream(out);
+	}
+
+	/**
+	 * Returns the response format requested by {@code rfm}:
+	 * <ul>
+	 *     <li><b>rows</b> – one JSON object per row (default)</li>
+	 *     <li><b>array</b> – column names and types once in {@code columns},
+	 *     then one positional array per row in {@code query_data}</li>
+	 *     <li><b>column</b> – column names and types once in {@code columns},
+	 *     then one array of values per column in {@code query_data}</li>
+	 * </ul>
+	 * The compact formats write SQL NULL as {@code null} and decode with
+	 * {@link CompactResultDecoder}; for the binary format see
+	 * {@link #selectBinary(JSONObject, OutputStream)}.
+	 * 
+	 * @param val JSON request
+	 * @return rows, array or column
+	 * @throws IllegalArgumentException if {@code rfm} names another format
+	 */
+	protected static String responseformat(JSONObject val) {
+		String format = val.optString("rfm", ROWS).toLowerCase();
+		if (!ROWS.equals(format) && !"array".equals(format) && !"column".equals(format)) {
+			throw new IllegalArgumentException("Unknown response format " + format + "; use rows, array or column");
 		}
-		rawQuery = val.optString("raw_qry", "NO_DATA");
-		return_type = val.optString("rtp", "NO_DATA");
-		main_sign = val.optString("main_sign");
-		params = val.getJSONObject("params");
-		if (rawQuery.trim().isEmpty() || rawQuery == null || rawQuery.equalsIgnoreCase("NO_DATA")
-				|| rawQuery.equalsIgnoreCase("null") || params.isEmpty() || return_type.trim().isEmpty()
-				|| return_type.equalsIgnoreCase("NO_DATA") || return_type == null || main_sign.trim().isEmpty()
-				|| main_sign == null || main_sign.equalsIgnoreCase("NO_DATA")||main_sign.equalsIgnoreCase("null")) {
-			return errormsgbuilder("PRVLNL", "Paramaters values Are null. Cant Process Null values .").toString();
+		return format;
+	}
+
+	/**
+	 * Writes the head of a compact response and the rows of {@code rs} in the
+	 * {@code array} or {@code column} format, leaving {@code query_data} open.
+	 */
+	private static long compactrows(ResultSet rs, JsonRowEncoder encoder, String format, StringBuilder sb)
+			throws SQLException {
+		long rows = 0;
+		sb.append("{\"columns\":");
+		encoder.appendcolumns(sb);
+		sb.append(",\"format\":\"").append(format).append("\",\"query_data\":[");
+		if ("array".equals(format)) {
+			while (rs.next()) {
+				if (rows++ > 0) {
+					sb.append(',');
+				}
+				encoder.appendarray(rs, sb);
+			}
+			return rows;
 		}
-		System.out.println("rawQuery -->  " + rawQuery);
-		System.out.println("params -->  " + params.toString());
-		Set<String> key = params.keySet();
-		for (String tky : key) {
-			rawQuery = rawQuery.replace("{" + tky + "}", "'" + params.get(tky) + "'");
+		int n = encoder.columnCount();
+		StringBuilder[] cols = new StringBuilder[n];
+		for (int i = 0; i < n; i++) {
+			cols[i] = new StringBuilder(256);
 		}
-		System.out.println(rawQuery);
-		if ("execute".equals(return_type)) {
-			String exresult;
-			try {
-				exresult = dbexecuter(rawQuery, main_sign);
-				result = exresult;
-			} catch (ClassNotFoundException e) {
-				return errormsgbuilder("DBEXER", "Error While Execution the Query [ "+e.toString()+" ]").toString();
+		while (rs.next()) {
+			for (int i = 0; i < n; i++) {
+				if (rows > 0) {
+					cols[i].append(',');
+				}
+				if (!encoder.appendvalue(rs, i, cols[i])) {
+					cols[i].append("null");
+				}
 			}
-		} else {
-			result = rawQuery;
+			rows++;
 		}
-		return result;
+		for (int i = 0; i < n; i++) {
+			sb.append(i > 0 ? ",[" : "[").append(cols[i]).append(']');
+		}
+		return rows;
+	}
 
+	/**
+	 * Streams the result of a SELECT in the binary format to {@code out} on the
+	 * default engine.
+	 * 
+	 * @param val JSON select ({@code qtn}, {@code qcl}, {@code qcn}) or
+	 *            {@code raw_qry} with {@code params}
+	 * @param out destination of the binary response
+	 * @return number of rows written
+	 * @throws Exception if input is invalid or writing fails
+	 * @see #selectBinary(JSONObject, OutputStream)
+	 */
+	public static long binaryselect(JSONObject val, OutputStream out) throws Exception {
+		return defaultengine().selectBinary(val, out);
 	}
 
 	/**
-	 * Constructs a standardized JSON error message object.
+	 * Streams the result of a SELECT to {@code out} in the length-prefixed
+	 * binary format of {@link BinaryRowEncoder}, for JVM callers that decode it
+	 * with {@link CompactResultDecoder#read(java.io.InputStream)}. Column names
+	 * and types are written once and every value in its binary form, so
+	 * nothing is parsed as text on either side. The rows are written by
+	 * {@link StreamSelect#binary(OutputStream)}; the stream is flushed but not
+	 * closed.
 	 * <p>
-	 * The JSON contains:
+	 * The JDBC fetch size comes from {@code qfs} in the request or
+	 * {@code dbfsz} in the configuration (default 1000).
+	 * 
+	 * @param val JSON select ({@code qtn}, {@code qcl}, {@code qcn}) or
+	 *            {@code raw_qry} with {@code params}
+	 * @param out destination of the binary response
+	 * @return number of rows written
+	 * @throws Exception if input is invalid or writing fails
+	 */
+	public long selectBinary(JSONObject val, OutputStream out) throws Exception {
+		if (val == null || val.isEmpty()) {
+			throw new Exception("Cannot process null or empty JSON");
+		}
+		long start = System.nanoTime();
+		int fetchsize = val.optInt("qfs", Integer.parseInt(rbval("dbfsz", "1000")));
+		if (val.has("raw_qry")) {
+			SqlTemplate template = getTemplate(val.getString("raw_qry"));
+			JSONObject params = val.optJSONObject("params");
+			List<Object> binds = template.binds(params == null ? new JSONObject() : params);
+			built("select", start);
+			return new StreamSelect(this, template.sql(), binds, fetchsize, val.optBoolean("qrp")).binary(out);
+		}
+		schemaCheck(val, "select");
+		String query = getselectq(val);
+		built("select", start);
+		return new StreamSelect(this, query, Collections.emptyList(), fetchsize, val.optBoolean("qrp")).binary(out);
+	}
+
+	/**
+	 * Executes a batch insert, update or upsert whose {@code qdt} is a JSON array of row
+	 * objects. All rows must carry the same columns as the first row. The rows
+	 * run through one {@link PreparedStatement} with {@code addBatch} /
+	 * {@code executeBatch} in chunks, inside a single transaction.
+	 * <p>
+	 * Optional keys:
 	 * <ul>
-	 *     <li><b>ProcessedBY</b> – Identifies the origin of the error ("Smart CRUD Engine")</li>
-	 *     <li><b>Status</b> – Always set to "FAIL"</li>
-	 *     <li><b>ecode</b> – The error code (defaults to "Unknown Error Code" if null/empty)</li>
-	 *     <li><b>emsg</b> – The error message (defaults to "Unknown Error Message" if null/empty)</li>
-	 *     <li><b>TimeStamp</b> – Time of the error in "dd-MMM-yyyy HH:mm:ss" format</li>
+	 *     <li><b>qbs</b> – rows per chunk (default {@code dbbtsz}, 500)</li>
+	 *     <li><b>qky</b> – update: key columns taken from each row for the WHERE clause;
+	 *     upsert (required): key columns identifying an existing row</li>
+	 *     <li><b>qcn</b> – update only: condition applied to every row</li>
 	 * </ul>
-	 *
-	 * @param code    The unique error code to identify the type of failure.
-	 * @param message A human-readable message describing the error.
-	 * @return A {@link org.json.JSONObject} containing the formatted error structure.
-	 * @author RAVITEJA J
+	 * The response uses the {@code sign}/{@code effected_row} format, with the
+	 * per-chunk counts in {@code chunk_rows}.
+	 * 
+	 * @param val  JSON object with {@code qtn} and the {@code qdt} rows
+	 * @param type insert, update or upsert
+	 * @return Result of the execution as a string
+	 * @throws Exception if input is invalid or the driver class is not found
 	 */
-	public static JSONObject errormsgbuilder(String code, String message) {
-		JSONObject errormsg = new JSONObject();
-		DateTimeFormatter formatter = DateTimeFormatter.ofPattern("dd-MMM-yyyy HH:mm:ss");
-		LocalDateTime now = LocalDateTime.now();
-		String tstamp = now.format(formatter);
-
-		errormsg.put("ProcessedBY", "Smart CRUD Engine");
-		errormsg.put("Status", "FAIL");
-		errormsg.put("ecode", (code.trim().isEmpty() || message == null) ? "Unknown Error Code" : code);
-		errormsg.put("emsg", (message.trim().isEmpty() || message == null) ? "Unknown Error Message" : message);
-		errormsg.put("TimeStamp", tstamp);
-
-		return errormsg;
+	public String batchExecute(JSONObject val, String type) throws Exception {
+		long start = System.nanoTime();
+		SqlTemplate shape = batchShape(val, type);
+		int chunk = val.optInt("qbs", Integer.parseInt(rbval("dbbtsz", "500")));
+		if (chunk <= 0)
+			throw new Exception("Batch chunk size must be positive");
+		built(type, start);
+		return dbBatch(shape, type, val.getJSONArray("qdt"), chunk);
 	}
 
 	/**
-	 * Generates an INSERT SQL query from the provided JSON object.
+	 * Returns the literal SQL of every row of a batch request, separated by
+	 * {@code ";\n"}, for callers asking for the query text.
 	 * 
-	 * @param jval JSON object containing table name and data
-	 * @return INSERT SQL query string
-	 * @throws Exception if required fields are missing
-	 * @author Raviteja J
+	 * @param val  JSON object with {@code qtn} and the {@code qdt} rows
+	 * @param type insert, update or upsert
+	 * @return SQL statements, one per row
+	 * @throws Exception if input is invalid
 	 */
-	public static String getinsertq(JSONObject jval) throws Exception {
-		allclm.setLength(0);
-		allval.setLength(0);
+	protected String batchQueries(JSONObject val, String type) throws Exception {
+		JSONArray rows = val.getJSONArray("qdt");
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < rows.length(); i++) {
+			JSONObject single = new JSONObject(val, "qtn", "qcn");
+			single.put("qdt", rows.getJSONObject(i));
+			if ("upsert".equals(type)) {
+				single.put("qky", val.get("qky"));
+				sb.append(i == 0 ? "" : ";\n").append(upsertShape(single).render(single.getJSONObject("qdt")));
+			} else {
+				sb.append(i == 0 ? "" : ";\n").append("insert".equals(type) ? getinsertq(single) : getupdateq(single));
+			}
+		}
+		return sb.toString();
+	}
 
-		if (!jval.has("qtn") || !jval.has("qdt"))
+	/**
+	 * Builds the statement shape shared by all rows of a batch request.
+	 */
+	protected SqlTemplate batchShape(JSONObject val, String type) throws Exception {
+		if (!val.has("qtn") || !val.has("qdt"))
 			throw new Exception("Missing table name or data");
 
-		String table = jval.getString("qtn").toUpperCase();
-		JSONObject data = jval.getJSONObject("qdt");
+		JSONArray rows = val.getJSONArray("qdt");
+		if (rows.isEmpty())
+			throw new Exception("Missing table name or data");
 
-		for (String key : data.keySet()) {
-			allclm.append(key).append(",");
-			allval.append("'").append(data.getString(key).replace("'", "''")).append("',");
+		String table = val.getString("qtn").toUpperCase();
+		Set<String> first = rows.getJSONObject(0).keySet();
+		for (int i = 1; i < rows.length(); i++) {
+			if (!first.equals(rows.getJSONObject(i).keySet()))
+				throw new Exception("Batch row " + i + " does not have the same columns as row 0");
 		}
 
-		String columns = allclm.substring(0, allclm.length() - 1);
-		String values = allval.substring(0, allval.length() - 1);
-
-		return "INSERT INTO " + table + " (" + columns + ") VALUES (" + values + ")";
+		if ("insert".equals(type)) {
+			return insertShape(table, first.toArray(new String[0]));
+		}
+		if ("upsert".equals(type)) {
+			String[] cols = first.toArray(new String[0]);
+			return upsertShape(table, cols, upsertkeys(val, cols));
+		}
+		JSONArray qky = val.optJSONArray("qky");
+		List<String> keys = new ArrayList<>();
+		for (int i = 0; qky != null && i < qky.length(); i++) {
+			if (!first.contains(qky.getString(i)))
+				throw new Exception("Key column " + qky.getString(i) + " is missing in qdt rows");
+			keys.add(qky.getString(i));
+		}
+		List<String> cols = new ArrayList<>(first);
+		cols.removeAll(keys);
+		if (cols.isEmpty())
+			throw new Exception("No columns left to update besides the key columns");
+		return updateShape(table, cols.toArray(new String[0]), keys.toArray(new String[0]),
+				val.optString("qcn", "").trim());
 	}
 
 	/**
-	 * Generates a SELECT SQL query from the provided JSON object.
+	 * Runs the rows through one prepared statement in chunks of {@code chunk}
+	 * rows, committing once at the end and rolling back on any failure.
 	 * 
-	 * @param jval JSON object containing table name, columns, and condition
-	 * @return SELECT SQL query string
-	 * @throws Exception if required fields are missing
-	 * @author Raviteja J
+	 * @param shape statement and bind names
+	 * @param qtyp  Type of query (INSERT, UPDATE)
+	 * @param rows  row objects
+	 * @param chunk rows per {@code executeBatch}
+	 * @return Result of the execution as a string
+	 * @throws ClassNotFoundException if database driver class is not found
 	 */
-	public static String getselectq(JSONObject jval) throws Exception {
-		allclm.setLength(0);
+	protected String dbBatch(SqlTemplate shape, String qtyp, JSONArray rows, int chunk)
+			throws ClassNotFoundException {
+		int op = EngineMetrics.operation(qtyp);
+		DbConnectionPool cp = getPool();
+		JSONObject response = new JSONObject();
 
-		if (!jval.has("qtn") || !jval.has("qcl") || !jval.has("qcn"))
-			throw new Exception("Missing table name, columns, or condition");
+		if (debug) {
+			debuglog("Batch query received: " + shape.sql());
+			debuglog("Batch rows: " + rows.length() + " in chunks of " + chunk);
+		}
 
-		JSONArray cols = jval.getJSONArray("qcl");
-		for (int i = 0; i < cols.length(); i++) {
-			allclm.append(cols.getString(i)).append(",");
+		String rejected = admit(op);
+		if (rejected != null) {
+			return rejected;
+		}
+		String[] names = shape.names();
+		SchemaCache.Table table = null;
+		boolean overload = false;
+		long t0 = System.nanoTime();
+		try (Connection cn = cp.borrow()) {
+			long t1 = System.nanoTime();
+			metrics.phase(op, EngineMetrics.ACQUIRE, t1 - t0);
+			if (schema != null) {
+				table = schema.table(QueryResultCache.writetable(shape.sql()));
+			}
+			cn.setAutoCommit(false);
+			try (PreparedStatement ps = cn.prepareStatement(shape.sql())) {
+				trackstatement(ps);
+				timeout(ps);
+				JSONArray chunkrows = new JSONArray();
+				long total = 0;
+				for (int i = 0; i < rows.length(); i++) {
+					List<Object> binds = shape.binds(rows.getJSONObject(i));
+					if (table != null && table.exists()) {
+						try {
+							table.convert(names, binds);
+						} catch (SchemaCache.SchemaException e) {
+							throw new SchemaCache.SchemaException("Batch row " + i + ": " + e.getMessage());
+						}
+					}
+					bindvalues(ps, binds);
+					ps.addBatch();
+					if ((i + 1) % chunk == 0 || i == rows.length() - 1) {
+						long affected = 0;
+						for (int count : ps.executeBatch()) {
+							// SUCCESS_NO_INFO: the row ran but the driver does not report a count
+							affected += count == Statement.SUCCESS_NO_INFO ? 1 : Math.max(count, 0);
+						}
+						chunkrows.put(affected);
+						total += affected;
+					}
+				}
+				cn.commit();
+				metrics.phase(op, EngineMetrics.EXECUTE, System.nanoTime() - t1);
+				metrics.done(op, total);
+				invalidateWrite(shape.sql());
+				response.put("sign", "DONE");
+				response.put("executed_cmd", qtyp.toUpperCase());
+				response.put("effected_row", total);
+				response.put("chunk_rows", chunkrows);
+				response.put("message", "[" + qtyp.toUpperCase() + "] batch executed. Rows affected: " + total
+						+ " in " + chunkrows.length() + " chunk(s)");
+			} catch (Exception e) {
+				cn.rollback();
+				throw e;
+			}
+		} catch (SchemaCache.SchemaException e) {
+			return fail("SCHERR", e.getMessage());
+		} catch (Exception e) {
+			dberror(e);
+			overload = e instanceof SQLTimeoutException;
+			response.put("sign", "ERROR");
+			response.put("error", e.getMessage());
+		} finally {
+			// one executeBatch round trip is what compares with a single statement
+			int chunks = Math.max(1, (rows.length() + chunk - 1) / chunk);
+			release(op, (System.nanoTime() - t0) / chunks, overload);
 		}
 
-		String table = jval.getString("qtn").toUpperCase();
-		String condition = jval.getString("qcn");
-		String columns = allclm.substring(0, allclm.length() - 1);
+		return response.toString();
+	}
 
-		return "SELECT " + columns + " FROM " + table + " " + condition;
+	/**
+	 * Loads a CSV or NDJSON file into a table on the default engine.
+	 * 
+	 * @param val JSON object describing the load
+	 * @return Result of the load as a string
+	 * @throws Exception if input is invalid or the file cannot be read
+	 * @see #bulkLoad(JSONObject, Consumer)
+	 */
+	public static String bulkload(JSONObject val) throws Exception {
+		return defaultengine().bulkLoad(val, null);
 	}
 
 	/**
-	 * Generates a DELETE SQL query from the provided JSON object.
+	 * Loads a CSV or NDJSON file into a table with batched prepared inserts,
+	 * reading the file through memory-mapped windows (see
+	 * {@link BulkFileLoader}). The file is named by the caller, so this is not
+	 * reachable through {@link #execute(JSONObject)}.
+	 * <p>
+	 * Request keys:
+	 * <ul>
+	 *     <li><b>qfl</b> – path of the file</li>
+	 *     <li><b>qtn</b> – target table</li>
+	 *     <li><b>qff</b> – csv or ndjson (default from the file extension, else csv)</li>
+	 *     <li><b>qmp</b> – mapping of source field to target column; CSV fields without a header are named
+	 *     by their 1-based position (default every field into the column of the same name)</li>
+	 *     <li><b>qhd</b> – CSV has a header record (default true)</li>
+	 *     <li><b>qdl</b> – CSV delimiter (default ,)</li>
+	 *     <li><b>qbs</b> – records per batch and commit (default {@code dbbtsz}, 500)</li>
+	 *     <li><b>qth</b> – parallel loader threads (default {@code dbblth}, 2)</li>
+	 *     <li><b>qpi</b> – ms between progress reports (default {@code dbblpi}, 5000)</li>
+	 * </ul>
 	 * 
-	 * @param jval JSON object containing table name and condition
-	 * @return DELETE SQL query string
-	 * @throws Exception if required fields are missing
-	 * @author Raviteja J
+	 * @param val      JSON object describing the load
+	 * @param progress receives progress reports (rows, bytes, percent, rows_per_sec), may be {@code null}
+	 * @return Result of the load as a string
+	 * @throws Exception if input is invalid or the file cannot be read
 	 */
-	public static String getdeleteq(JSONObject jval) throws Exception {
-		if (!jval.has("qtn") || !jval.has("qcn"))
-			throw new Exception("Missing table name or condition");
+	public String bulkLoad(JSONObject val, Consumer<JSONObject> progress) throws Exception {
+		if (!val.has("qfl") || !val.has("qtn"))
+			throw new Exception("Missing file or table name");
 
-		String table = jval.getString("qtn").toUpperCase();
-		String condition = jval.getString("qcn").trim();
+		Path file = Paths.get(val.getString("qfl"));
+		String name = file.getFileName().toString().toLowerCase();
+		String format = val.optString("qff", name.endsWith(".ndjson") || name.endsWith(".jsonl") ? "ndjson" : "csv");
+		if (!format.equalsIgnoreCase("csv") && !format.equalsIgnoreCase("ndjson"))
+			throw new Exception("Unsupported file format: " + format);
+		String delimiter = val.optString("qdl", ",");
+		if (delimiter.equals("\\t")) {
+			delimiter = "\t";
+		}
+		if (delimiter.length() != 1)
+			throw new Exception("CSV delimiter must be a single character");
+		Map<String, String> mapping = null;
+		JSONObject qmp = val.optJSONObject("qmp");
+		if (qmp != null) {
+			mapping = new LinkedHashMap<>();
+			for (String source : qmp.keySet()) {
+				mapping.put(source, qmp.getString(source));
+			}
+		}
+		BulkFileLoader loader = new BulkFileLoader(this, file, val.getString("qtn").toUpperCase(),
+				format.equalsIgnoreCase("ndjson"), delimiter.charAt(0), val.optBoolean("qhd", true), mapping,
+				val.optInt("qbs", Integer.parseInt(rbval("dbbtsz", "500"))),
+				val.optInt("qth", Integer.parseInt(rbval("dbblth", "2"))),
+				val.optLong("qpi", Long.parseLong(rbval("dbblpi", "5000"))), progress);
+		String result = loader.load().toString();
+		invalidateWrite("INSERT INTO " + val.getString("qtn"));
+		return result;
+	}
 
-		return condition.isEmpty() ? "DELETE FROM " + table : "DELETE FROM " + table + " " + condition;
+	/**
+	 * Exports the result of a SELECT to a file on the default engine.
+	 * 
+	 * @param val JSON object describing the export
+	 * @return Result of the export as a string
+	 * @throws Exception if input is invalid or the file cannot be written
+	 * @see #bulkExport(JSONObject, Consumer)
+	 */
+	public static String bulkexport(JSONObject val) throws Exception {
+		return defaultengine().bulkExport(val, null);
 	}
 
 	/**
-	 * Generates an UPDATE SQL query from the provided JSON object.
+	 * Exports the result of a SELECT to an NDJSON or CSV file, streaming the
+	 * rows from the cursor to the file (see {@link BulkFileExporter}) instead of
+	 * building the {@code query_data} response in memory. Like
+	 * {@link #bulkLoad(JSONObject, Consumer)} the file is named by the caller,
+	 * so this is not reachable through {@link #execute(JSONObject)}.
+	 * <p>
+	 * Request keys, besides the select ({@code qtn}, {@code qcl}, {@code qcn})
+	 * or {@code raw_qry} with {@code params}:
+	 * <ul>
+	 *     <li><b>qfl</b> – path of the file, created or truncated</li>
+	 *     <li><b>qff</b> – csv or ndjson (default from the file extension, else csv)</li>
+	 *     <li><b>qgz</b> – gzip the file (default true if the name ends with .gz)</li>
+	 *     <li><b>qhd</b> – CSV: write a header record (default true)</li>
+	 *     <li><b>qdl</b> – CSV delimiter (default ,)</li>
+	 *     <li><b>qfs</b> – JDBC fetch size (default {@code dbfsz}, 1000)</li>
+	 *     <li><b>qpi</b> – ms between progress reports (default {@code dbblpi}, 5000)</li>
+	 * </ul>
 	 * 
-	 * @param jval JSON object containing table name, data, and condition
-	 * @return UPDATE SQL query string
-	 * @throws Exception if required fields are missing
-	 * @author Raviteja J
+	 * @param val      JSON object describing the export
+	 * @param progress receives progress reports (rows, bytes, rows_per_sec), may be {@code null}
+	 * @return Result of the export as a string
+	 * @throws Exception if input is invalid or the file cannot be written
 	 */
-	public static String getupdateq(JSONObject jval) throws Exception {
-		allclm.setLength(0);
+	public String bulkExport(JSONObject val, Consumer<JSONObject> progress) throws Exception {
+		if (val == null || val.isEmpty()) {
+			throw new Exception("Cannot process null or empty JSON");
+		}
+		if (!val.has("qfl"))
+			throw new Exception("Missing file name");
 
-		if (!jval.has("qtn") || !jval.has("qdt"))
-			throw new Exception("Missing table name or data");
+		long start = System.nanoTime();
+		Path file = Paths.get(val.getString("qfl"));
+		String name = file.getFileName().toString().toLowerCase();
+		boolean gzip = val.optBoolean("qgz", name.endsWith(".gz"));
+		if (name.endsWith(".gz")) {
+			name = name.substring(0, name.length() - 3);
+		}
+		String format = val.optString("qff", name.endsWith(".ndjson") || name.endsWith(".jsonl") ? "ndjson" : "csv");
+		if (!format.equalsIgnoreCase("csv") && !format.equalsIgnoreCase("ndjson"))
+			throw new Exception("Unsupported file format: " + format);
+		String delimiter = val.optString("qdl", ",");
+		if (delimiter.equals("\\t")) {
+			delimiter = "\t";
+		}
+		if (delimiter.length() != 1)
+			throw new Exception("CSV delimiter must be a single character");
 
-		JSONObject data = jval.getJSONObject("qdt");
-		for (String key : data.keySet()) {
-			allclm.append(key).append(" = '").append(data.getString(key).replace("'", "''")).append("', ");
+		String query;
+		List<Object> binds;
+		if (val.has("raw_qry")) {
+			SqlTemplate template = getTemplate(val.getString("raw_qry"));
+			JSONObject params = val.optJSONObject("params");
+			query = template.sql();
+			binds = template.binds(params == null ? new JSONObject() : params);
+		} else {
+			schemaCheck(val, "select");
+			query = getselectq(val);
+			binds = Collections.emptyList();
 		}
+		built("select", start);
+		BulkFileExporter exporter = new BulkFileExporter(this, query, binds, file, format.equalsIgnoreCase("ndjson"),
+				delimiter.charAt(0), val.optBoolean("qhd", true), gzip, val.optBoolean("qrp"),
+				val.optInt("qfs", Integer.parseInt(rbval("dbfsz", "1000"))),
+				val.optLong("qpi", Long.parseLong(rbval("dbblpi", "5000"))), progress);
+		return exporter.export().toString();
+	}
 
-		String updates = allclm.substring(0, allclm.length() - 2);
-		String table = jval.getString("qtn").toUpperCase();
-		String condition = jval.optString("qcn", "").trim();
+	/**
+	 * Runs a pipeline of operations in one transaction on the default engine.
+	 * 
+	 * @param ops JSON array of operations
+	 * @return combined result of the steps as a string
+	 * @throws Exception if the pipeline is empty or the driver class is not found
+	 * @see #pipelineExecute(JSONArray)
+	 */
+	public static String pipelineexecuter(JSONArray ops) throws Exception {
+		return defaultengine().pipelineExecute(ops);
+	}
 
-		return condition.isEmpty() ? "UPDATE " + table + " SET " + updates
-				: "UPDATE " + table + " SET " + updates + " WHERE " + condition;
+	/**
+	 * Runs a pipeline of operations on one pooled connection in one transaction
+	 * as a {@link Pipeline}: either every step is committed or, on the first
+	 * failing step, all of them are rolled back.
+	 * <p>
+	 * Each step is an operation in the usual format ({@code main_sign},
+	 * {@code qtn}, {@code qdt}, {@code qcl}, {@code qcn}, or {@code raw_qry} with
+	 * {@code params}; {@code qdt} may be an array for a batch insert or
+	 * update), plus:
+	 * <ul>
+	 *     <li><b>sid</b> – step id used in references (default the step index)</li>
+	 *     <li><b>qgk</b> – insert only: {@code true}, or an array of key columns, to return the generated keys</li>
+	 * </ul>
+	 * A {@code qdt} or {@code params} value of the form {@code "@sid.COLUMN"} is
+	 * replaced by that column of the first row returned by an earlier step
+	 * (its {@code query_data} or {@code generated_keys}), and
+	 * {@code "@sid.effected_row"} by its row count. A value that really starts
+	 * with {@code @} is written as {@code "@@..."}.
+	 * <p>
+	 * The response carries the step results in {@code steps}, with
+	 * {@code effected_row} summed over all steps. A failure reports the
+	 * {@code failed_step} index and its {@code sid}: a database error as an
+	 * {@code ERROR} response, an invalid step (unknown {@code @sid} reference,
+	 * missing table or data, unsupported operation, duplicate {@code sid}) as
+	 * a {@code REQERR} failure and an unknown table or column as
+	 * {@code SCHERR}.
+	 * 
+	 * @param ops JSON array of operations
+	 * @return combined result of the steps as a string
+	 * @throws Exception if the pipeline is empty or the driver class is not found
+	 */
+	public String pipelineExecute(JSONArray ops) throws Exception {
+		if (ops == null || ops.isEmpty()) {
+			throw new Exception("Cannot process null or empty pipeline");
+		}
+		return new Pipeline(this, ops).execute();
 	}
 
 	/**
 	 * Executes the provided SQL query against the database. Supports insert,
-	 * update, delete, and select operations.
+	 * update, delete, and select operations on the default engine, whose
+	 * connection pool supplies the connection (see {@link #getPool()}).
 	 * 
 	 * @param query SQL query string to execute
 	 * @param qtyp  Type of query (INSERT, UPDATE, DELETE, SELECT)
@@ -303,61 +2627,252 @@ public class SmartCrudEngine {
 	 * @author Raviteja J
 	 */
 	public static String dbexecuter(String query, String qtyp) throws ClassNotFoundException {
-		Class.forName(dbdriver);
+		return defaultengine().dbExecute(query, qtyp, Collections.emptyList());
+	}
+
+	/**
+	 * Executes the provided SQL query on this engine.
+	 * 
+	 * @param query SQL query string to execute
+	 * @param qtyp  Type of query (INSERT, UPDATE, DELETE, SELECT)
+	 * @return Result of the execution as a string
+	 * @throws ClassNotFoundException if database driver class is not found
+	 * @see #dbexecuter(String, String)
+	 */
+	public String dbExecute(String query, String qtyp) throws ClassNotFoundException {
+		return dbExecute(query, qtyp, Collections.emptyList());
+	}
+
+	/**
+	 * Executes the provided parameterized SQL query against the database,
+	 * binding {@code binds} to its {@code ?} markers.
+	 * 
+	 * @param query SQL query string with JDBC {@code ?} markers
+	 * @param qtyp  Type of query (INSERT, UPDATE, DELETE, SELECT)
+	 * @param binds values for the markers, in order
+	 * @return Result of the execution as a string
+	 * @throws ClassNotFoundException if database driver class is not found
+	 * @see #bindvalues(PreparedStatement, List)
+	 */
+	public static String dbexecuter(String query, String qtyp, List<Object> binds) throws ClassNotFoundException {
+		return defaultengine().dbExecute(query, qtyp, binds);
+	}
+
+	/**
+	 * Executes the provided parameterized SQL query on this engine. SELECT rows
+	 * are serialized with a {@link JsonRowEncoder} straight into the response.
+	 * <p>
+	 * When {@code dbrcsz} is set, SELECT responses are served from and stored in
+	 * the {@link QueryResultCache} (entries live {@code dbrcttl} ms, default
+	 * 5000), and successful writes invalidate the results of the written table.
+	 * <p>
+	 * The acquire, execute and serialize phases are recorded in the engine
+	 * metrics (see {@link #metricsSnapshot()}); with {@code dbdbug} = Y each
+	 * statement is also printed with a one-line JSON trace of its timings.
+	 * <p>
+	 * With read replicas configured, a SELECT runs on a replica (see
+	 * {@link #readConnection(boolean)}); other statements run on the primary.
+	 * <p>
+	 * With admission control on ({@code dbadmc} = Y) each operation type runs at
+	 * most its current limit of statements at once (see
+	 * {@link AdmissionControl}); a call not admitted within {@code dbadmw} ms
+	 * (default 200) fails at once with {@code ADMREJ}. Optional keys:
+	 * <ul>
+	 *     <li><b>dbadml</b> – starting limit (default {@code dbpmax})</li>
+	 *     <li><b>dbadmn</b>, <b>dbadmx</b> – lowest and highest limit (default 1 and 4 x {@code dbpmax})</li>
+	 *     <li><b>dbadmt</b> – latency target in ms; slower statements lower the limit (default 100)</li>
+	 * </ul>
+	 * The same limits apply to batch, page, pipeline (as other), stream,
+	 * binary and parallel selects and exports, one slot per call, to each
+	 * bulk load thread and write-behind flush, and to plan captures (see
+	 * {@link #admit(int)}). Batches, bulk loads, exports and pipelines are
+	 * timed per chunk, fetch and step, streamed selects to their first row.
+	 * {@code dbqtmo} sets a statement timeout in seconds (default none) for
+	 * these statements and every other statement the engine runs: batch,
+	 * page, pipeline, stream, binary, parallel and export selects, bulk
+	 * loads, write-behind groups and plan captures.
+	 * <p>
+	 * With {@code dbslow} set, these statements and the page queries taking at
+	 * least {@code dbslow} ms are recorded in the {@link SlowQueryLog}, reported
+	 * by {@link #slowQueries(int)}. Optional keys:
+	 * <ul>
+	 *     <li><b>dbslsz</b> – slow calls kept (default 1000)</li>
+	 *     <li><b>dbslsh</b> – statement shapes kept (default 500)</li>
+	 *     <li><b>dbslpn</b> – slowest shapes whose plan is captured once (default 10, 0 for none)</li>
+	 *     <li><b>dbslfl</b> – file the slow calls are appended to as JSON lines</li>
+	 *     <li><b>dbslfs</b>, <b>dbslfn</b> – bytes before the file rolls over and rolled files kept (default 10485760 and 5)</li>
+	 * </ul>
+	 * 
+	 * @param query SQL query string with JDBC {@code ?} markers
+	 * @param qtyp  Type of query (INSERT, UPDATE, DELETE, SELECT)
+	 * @param binds values for the markers, in order
+	 * @return Result of the execution as a string
+	 * @throws ClassNotFoundException if database driver class is not found
+	 * @see #dbexecuter(String, String, List)
+	 */
+	public String dbExecute(String query, String qtyp, List<Object> binds) throws ClassNotFoundException {
+		return dbExecute(query, qtyp, binds, false);
+	}
+
+	/**
+	 * Executes the provided parameterized SQL query, a SELECT on the primary if
+	 * {@code primary} is set.
+	 * 
+	 * @param query   SQL query string with JDBC {@code ?} markers
+	 * @param qtyp    Type of query (INSERT, UPDATE, DELETE, SELECT)
+	 * @param binds   values for the markers, in order
+	 * @param primary read from the primary even with replicas configured
+	 * @return Result of the execution as a string
+	 * @throws ClassNotFoundException if database driver class is not found
+	 * @see #dbExecute(String, String, List)
+	 */
+	protected String dbExecute(String query, String qtyp, List<Object> binds, boolean primary)
+			throws ClassNotFoundException {
+		return dbExecute(query, qtyp, binds, primary, ROWS);
+	}
+
+	/**
+	 * Executes the provided parameterized SQL query, returning the rows of a
+	 * SELECT in the given response format (see {@link #responseformat(JSONObject)}).
+	 * 
+	 * @param query   SQL query string with JDBC {@code ?} markers
+	 * @param qtyp    Type of query (INSERT, UPDATE, DELETE, SELECT)
+	 * @param binds   values for the markers, in order
+	 * @param primary read from the primary even with replicas configured
+	 * @param format  {@code rows}, {@code array} or {@code column}
+	 * @return Result of the execution as a string
+	 * @throws ClassNotFoundException if database driver class is not found
+	 */
+	protected String dbExecute(String query, String qtyp, List<Object> binds, boolean primary, String format)
+			throws ClassNotFoundException {
+		DbConnectionPool cp = getPool();
+		boolean read = qtyp.equalsIgnoreCase("SELECT");
 		JSONObject response = new JSONObject();
 		String result = "";
+		String cachekey = null;
+		long generation = 0;
 
-		System.out.println("Query received: " + query);
-		System.out.println("Query type: " + qtyp);
+		if (resultcache != null && qtyp.equalsIgnoreCase("SELECT")) {
+			cachekey = QueryResultCache.key(query, binds);
+			if (!ROWS.equals(format)) {
+				cachekey = format + "|" + cachekey;
+			}
+			generation = resultcache.generation();
+			String cached = resultcache.get(cachekey);
+			if (cached != null) {
+				return cached;
+			}
+		}
 
-		try (Connection cn = DriverManager.getConnection(dburl, dbunm, dbpwd);
-				PreparedStatement ps = cn.prepareStatement(query)) {
+		if (debug) {
+			debuglog("Query received: " + query);
+			debuglog("Query type: " + qtyp);
+		}
 
-			if (qtyp.equalsIgnoreCase("INSERT") || qtyp.equalsIgnoreCase("UPDATE") || qtyp.equalsIgnoreCase("DELETE")) {
-				int rows = ps.executeUpdate();
-				response.put("sign", "DONE");
-				response.put("executed_cmd", qtyp.toUpperCase());
-				response.put("effected_row", rows);
-				response.put("message", "[" + qtyp.toUpperCase() + "] executed. Rows affected: " + rows);
-				result = response.toString();
-			} else if (qtyp.equalsIgnoreCase("SELECT")) {
-				ResultSet rs = ps.executeQuery();
-				ResultSetMetaData meta = rs.getMetaData();
-				int colCount = meta.getColumnCount();
-				JSONArray data = new JSONArray();
-
-				while (rs.next()) {
-					JSONObject row = new JSONObject();
-					for (int i = 1; i <= colCount; i++) {
-						row.put(meta.getColumnName(i), rs.getObject(i));
-					}
-					data.put(row);
-				}
+		int op = EngineMetrics.operation(qtyp);
+		String rejected = admit(op);
+		if (rejected != null) {
+			return rejected;
+		}
+		boolean overload = false;
+		boolean failed = false;
+		long rows = 0;
+		long t0 = System.nanoTime();
+		long t1 = t0;
+		long t2 = t0;
+		try (Connection cn = read ? readConnection(primary) : cp.borrow()) {
+			t1 = System.nanoTime();
+			metrics.phase(op, EngineMetrics.ACQUIRE, t1 - t0);
+			t2 = t1;
+			try (PreparedStatement ps = cn.prepareStatement(query)) {
+				trackstatement(ps);
+				timeout(ps);
+				bindvalues(ps, binds);
 
-				response.put("sign", "DONE");
-				response.put("executed_cmd", qtyp.toUpperCase());
-				response.put("effected_row", data.length());
-				response.put("message", "[" + qtyp.toUpperCase() + "] executed. Rows fetched: " + data.length());
-				response.put("query_data", data);
-				result = response.toString();
+				if (qtyp.equalsIgnoreCase("INSERT") || qtyp.equalsIgnoreCase("UPDATE") || qtyp.equalsIgnoreCase("DELETE")
+						|| qtyp.equalsIgnoreCase("UPSERT")) {
+					rows = ps.executeUpdate();
+					t2 = System.nanoTime();
+					metrics.phase(op, EngineMetrics.EXECUTE, t2 - t1);
+					response.put("sign", "DONE");
+					response.put("executed_cmd", qtyp.toUpperCase());
+					response.put("effected_row", rows);
+					response.put("message", "[" + qtyp.toUpperCase() + "] executed. Rows affected: " + rows);
+					result = response.toString();
+					invalidateWrite(query);
+				} else if (qtyp.equalsIgnoreCase("SELECT")) {
+					ResultSet rs = ps.executeQuery();
+					t2 = System.nanoTime();
+					metrics.phase(op, EngineMetrics.EXECUTE, t2 - t1);
+					JsonRowEncoder encoder = new JsonRowEncoder(rs.getMetaData());
+					StringBuilder sb = new StringBuilder(1024);
 
-				// System.out.println("Query Result: " + result);
-			} else {
-				response.put("sign", "FAIL");
-				response.put("message", "Unknown query type: " + qtyp);
-				result = response.toString();
+					if (ROWS.equals(format)) {
+						sb.append("{\"query_data\":[");
+						while (rs.next()) {
+							if (rows++ > 0) {
+								sb.append(',');
+							}
+							encoder.append(rs, sb);
+						}
+					} else {
+						rows = compactrows(rs, encoder, format, sb);
+					}
+
+					sb.append("],\"executed_cmd\":\"").append(qtyp.toUpperCase()).append("\",\"sign\":\"DONE\",\"effected_row\":")
+							.append(rows).append(",\"message\":\"[").append(qtyp.toUpperCase())
+							.append("] executed. Rows fetched: ").append(rows).append("\"}");
+					result = sb.toString();
+					metrics.phase(op, EngineMetrics.SERIALIZE, System.nanoTime() - t2);
+					if (cachekey != null) {
+						resultcache.put(cachekey, query, result, generation);
+					}
+				} else {
+					response.put("sign", "FAIL");
+					response.put("message", "Unknown query type: " + qtyp);
+					result = response.toString();
+				}
 			}
+			metrics.done(op, rows);
 
 		} catch (Exception e) {
-			e.printStackTrace();
+			dberror(e);
+			overload = e instanceof SQLTimeoutException;
+			failed = true;
 			response.put("sign", "ERROR");
 			response.put("error", e.getMessage());
 			result = response.toString();
+		} finally {
+			long elapsed = System.nanoTime() - t0;
+			release(op, elapsed, overload);
+			if (slowlog != null) {
+				slowlog.record(qtyp, query, binds, elapsed, rows, failed);
+			}
 		}
 
+		if (debug) {
+			debuglog(trace(qtyp, query, binds.size(), rows, t1 - t0, t2 - t1, System.nanoTime() - t2));
+		}
 		return result;
 	}
 
+	/**
+	 * Formats one executed statement as a single-line JSON trace for the debug
+	 * output.
+	 */
+	private static String trace(String qtyp, String query, int binds, long rows, long acquire, long execute,
+			long serialize) {
+		JSONObject tr = new JSONObject();
+		tr.put("op", qtyp.toLowerCase());
+		tr.put("sql", query);
+		tr.put("binds", binds);
+		tr.put("rows", rows);
+		tr.put("acquire_us", acquire / 1000);
+		tr.put("execute_us", execute / 1000);
+		tr.put("serialize_us", serialize / 1000);
+		return "TRACE " + tr;
+	}
+
 	/**
 	 * Main method for testing the engine. Demonstrates an insert operation with
 	 * sample JSON.
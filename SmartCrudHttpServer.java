@@ -0,0 +1,448 @@
+package com.chat.db;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * SmartCrudHttpServer serves a {@link SmartCrudEngine} over HTTP with the
+ * JDK's built-in {@link HttpServer}, one virtual thread per request.
+ * Connections are kept alive between requests; JSON request bodies are parsed
+ * as they are read and select results are streamed with chunked transfer
+ * encoding. <br>
+ * Endpoints (POST unless noted):
+ * <ul>
+ *     <li><b>/execute</b> – JSON request of {@link SmartCrudEngine#execute(JSONObject)}, decoded
+ *     into a pooled {@link CrudRequest} and run as {@link SmartCrudEngine#execute(byte[])} runs it,
+ *     so a request with {@code raw_qry} goes to {@link SmartCrudEngine#paramExecute(CrudRequest)}</li>
+ *     <li><b>/param</b> – JSON request of {@link SmartCrudEngine#paramExecute(String)}, decoded
+ *     for {@link SmartCrudEngine#paramExecute(CrudRequest)}</li>
+ *     <li><b>/stream</b> – JSON select streamed by {@link SmartCrudEngine#streamSelect(JSONObject, OutputStream)}</li>
+ *     <li><b>/binary</b> – JSON select streamed by {@link SmartCrudEngine#selectBinary(JSONObject, OutputStream)}</li>
+ *     <li><b>/jconsoleapp</b> – urlencoded form posted by the pages of
+ *     {@code WebInterfaceEngine.pagegenerater}, inserted as one row</li>
+ *     <li><b>/metrics</b> (GET) – {@link SmartCrudEngine#metricsSnapshot()}</li>
+ *     <li><b>/slow</b> (GET) – {@link SmartCrudEngine#slowQueries(int)}, listing
+ *     {@code n} entries (query parameter, default 10)</li>
+ * </ul>
+ * Engine responses are sent with status 200 whatever their {@code sign};
+ * unreadable or invalid requests get 400 with an {@code REQERR} error,
+ * database failures the engine does not answer itself 500 with
+ * {@code DBEXER}, unknown paths 404 and other methods 405.
+ * <p>
+ * Optional keys in the engine configuration:
+ * <ul>
+ *     <li><b>dbhprt</b> – port (default 8080)</li>
+ *     <li><b>dbhbkl</b> – TCP backlog (default 0, the system default)</li>
+ *     <li><b>dbhtbl</b> – table of form inserts without a {@code qtn} field</li>
+ *     <li><b>dbhmax</b> – maximum form body size in bytes (default 1048576)</li>
+ * </ul>
+ * The JDK server leaves Nagle's algorithm on unless the JVM-wide system
+ * property {@code sun.net.httpserver.nodelay} is {@code true}; without it each
+ * small response waits for the client's delayed ACK, about 40 ms on Linux.
+ * {@link #main(String[])} sets it when it is not given; an application
+ * embedding the server should pass {@code -Dsun.net.httpserver.nodelay=true}
+ * or set it before the first server is created.
+ */
+public class SmartCrudHttpServer implements AutoCloseable {
+
+	protected final SmartCrudEngine engine;
+	protected final String formtable;
+	protected final int maxform;
+
+	private final HttpServer server;
+	private final ExecutorService executor;
+	/** Column names for form inserts; the engine's cache when {@code dbschm} = Y. */
+	private final SchemaCache columns;
+
+	/**
+	 * Binds the server to {@code dbhprt} of the engine configuration. The
+	 * server does not accept requests until {@link #start()}.
+	 *
+	 * @param engine engine serving the requests
+	 * @throws IOException if the port cannot be bound
+	 */
+	public SmartCrudHttpServer(SmartCrudEngine engine) throws IOException {
+		this(engine, new InetSocketAddress(Integer.parseInt(engine.rbval("dbhprt", "8080"))));
+	}
+
+	/**
+	 * @param engine  engine serving the requests
+	 * @param address address to bind, port 0 for any free port
+	 * @throws IOException if the address cannot be bound
+	 */
+	public SmartCrudHttpServer(SmartCrudEngine engine, InetSocketAddress address) throws IOException {
+		this.engine = engine;
+		this.formtable = engine.rbval("dbhtbl", "");
+		this.maxform = Integer.parseInt(engine.rbval("dbhmax", "1048576"));
+		this.columns = engine.schema != null ? engine.schema
+				: new SchemaCache(engine, Long.parseLong(engine.rbval("dbschr", "300000")));
+		this.server = HttpServer.create(address, Integer.parseInt(engine.rbval("dbhbkl", "0")));
+		this.executor = Executors.newVirtualThreadPerTaskExecutor();
+		server.setExecutor(executor);
+		server.createContext("/execute", post(this::execute));
+		server.createContext("/param", post(this::param));
+		server.createContext("/stream", post(this::stream));
+		server.createContext("/binary", post(this::binary));
+		server.createContext("/jconsoleapp", post(this::form));
+		server.createContext("/metrics", ex -> {
+			drain(ex);
+			if (!"GET".equals(ex.getRequestMethod())) {
+				reject(ex, 405, "GET");
+				return;
+			}
+			send(ex, 200, engine.metricsSnapshot().toString());
+		});
+		server.createContext("/slow", ex -> {
+			drain(ex);
+			if (!"GET".equals(ex.getRequestMethod())) {
+				reject(ex, 405, "GET");
+				return;
+			}
+			String n = urldecode(String.valueOf(ex.getRequestURI().getRawQuery())).getOrDefault("n", "10");
+			if (!n.matches("\\d{1,6}")) {
+				send(ex, 400, engine.fail("REQERR", "n must be a number, got " + n));
+				return;
+			}
+			send(ex, 200, engine.slowQueries(Integer.parseInt(n)).toString());
+		});
+		server.createContext("/", ex -> {
+			drain(ex);
+			reject(ex, 404, null);
+		});
+	}
+
+	/**
+	 * Starts the server on the default engine, with
+	 * {@code sun.net.httpserver.nodelay} on unless set otherwise on the
+	 * command line.
+	 *
+	 * @param args optional port, overriding {@code dbhprt}
+	 * @throws IOException if the port cannot be bound
+	 */
+	public static void main(String[] args) throws IOException {
+		// read once when the JDK server classes load, so before the first server
+		if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+			System.setProperty("sun.net.httpserver.nodelay", "true");
+		}
+		SmartCrudEngine engine = SmartCrudEngine.defaultengine();
+		SmartCrudHttpServer http = args.length > 0
+				? new SmartCrudHttpServer(engine, new InetSocketAddress(Integer.parseInt(args[0])))
+				: new SmartCrudHttpServer(engine);
+		http.start();
+		System.out.println("SmartCrudEngine listening on port " + http.port());
+	}
+
+	/**
+	 * Starts accepting requests.
+	 */
+	public void start() {
+		server.start();
+	}
+
+	/**
+	 * @return the bound port
+	 */
+	public int port() {
+		return server.getAddress().getPort();
+	}
+
+	/**
+	 * Stops accepting requests, waits up to one second for running exchanges
+	 * and ends the request threads. The engine stays open.
+	 */
+	@Override
+	public void close() {
+		server.stop(1);
+		executor.shutdownNow();
+	}
+
+	private void execute(HttpExchange ex) throws Exception {
+		CrudRequest req = readrequest(ex);
+		if (req != null) {
+			String result;
+			try {
+				result = engine.dispatch(req);
+			} finally {
+				engine.recycle(req);
+			}
+			send(ex, 200, result);
+		}
+	}
+
+	private void param(HttpExchange ex) throws Exception {
+		CrudRequest req = readrequest(ex);
+		if (req != null) {
+			String result;
+			try {
+				result = engine.paramExecute(req);
+			} finally {
+				engine.recycle(req);
+			}
+			send(ex, 200, result);
+		}
+	}
+
+	private void stream(HttpExchange ex) throws Exception {
+		JSONObject val = readjson(ex);
+		if (val != null) {
+			ex.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+			ex.sendResponseHeaders(200, 0);
+			try (OutputStream out = ex.getResponseBody()) {
+				try {
+					engine.streamSelect(val, out);
+				} catch (IOException e) {
+					throw e;
+				} catch (Exception e) {
+					// invalid requests fail before the first byte is written
+					out.write(engine.fail("REQERR", String.valueOf(e.getMessage())).getBytes(StandardCharsets.UTF_8));
+				}
+			}
+		}
+	}
+
+	private void binary(HttpExchange ex) throws Exception {
+		JSONObject val = readjson(ex);
+		if (val != null) {
+			ex.getResponseHeaders().set("Content-Type", "application/octet-stream");
+			ex.sendResponseHeaders(200, 0);
+			try (OutputStream out = ex.getResponseBody()) {
+				try {
+					engine.selectBinary(val, out);
+				} catch (IOException e) {
+					throw e;
+				} catch (Exception e) {
+					// invalid requests fail before the first byte is written
+					engine.fail("REQERR", String.valueOf(e.getMessage()));
+					DataOutputStream dout = new DataOutputStream(out);
+					BinaryRowEncoder encoder = new BinaryRowEncoder(null, dout);
+					encoder.header();
+					encoder.end(0, String.valueOf(e.getMessage()), null);
+					dout.flush();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Inserts the fields of a generated form as one row. The table is the
+	 * {@code qtn} field, the {@code qtn} query parameter or {@code dbhtbl};
+	 * fields that are not columns of the table (submit and reset buttons,
+	 * unnamed selects) are left out. A repeated field keeps its last value.
+	 */
+	private void form(HttpExchange ex) throws Exception {
+		String type = String.valueOf(ex.getRequestHeaders().getFirst("Content-Type"));
+		if (!type.startsWith("application/x-www-form-urlencoded")) {
+			drain(ex);
+			send(ex, 400, engine.fail("REQERR", "Expected an application/x-www-form-urlencoded form, got " + type));
+			return;
+		}
+		String body = readbody(ex);
+		if (body == null) {
+			return;
+		}
+		Map<String, String> fields = urldecode(body);
+		Map<String, String> query = urldecode(String.valueOf(ex.getRequestURI().getRawQuery()));
+		String table = fields.getOrDefault("qtn", query.getOrDefault("qtn", formtable));
+		fields.remove("qtn");
+		if (table.isEmpty()) {
+			send(ex, 400, engine.fail("JSPRNL", "Form has no qtn field and dbhtbl is not set"));
+			return;
+		}
+
+		SchemaCache.Table meta;
+		try {
+			meta = columns.table(table);
+		} catch (SQLException e) {
+			send(ex, 200, engine.fail("SCHERR", e.getMessage()));
+			return;
+		}
+		if (!meta.exists()) {
+			send(ex, 200, engine.fail("SCHERR", "Unknown table " + table));
+			return;
+		}
+		JSONObject row = new JSONObject();
+		for (Map.Entry<String, String> f : fields.entrySet()) {
+			if (meta.column(f.getKey()) != null) {
+				row.put(f.getKey(), f.getValue());
+			}
+		}
+		if (row.isEmpty()) {
+			send(ex, 400, engine.fail("PRVLNL", "No form field matches a column of " + table));
+			return;
+		}
+		send(ex, 200, engine.execute(new JSONObject().put("main_sign", "insert").put("rtp", "execute")
+				.put("qtn", table).put("qdt", row)));
+	}
+
+	/**
+	 * Decodes the request body into a pooled {@link CrudRequest} while reading
+	 * it. Sends a 400 and returns {@code null} if it is not a JSON object; the
+	 * caller hands a returned request back with
+	 * {@link SmartCrudEngine#recycle(CrudRequest)}.
+	 */
+	private CrudRequest readrequest(HttpExchange ex) throws IOException {
+		CrudRequest req = engine.request();
+		String error = null;
+		try (InputStream in = ex.getRequestBody()) {
+			try {
+				req.decode(in);
+			} catch (JSONException e) {
+				error = e.getMessage();
+			}
+			// the rest of the body must be read for the connection to be reused
+			in.transferTo(OutputStream.nullOutputStream());
+		} catch (IOException e) {
+			engine.recycle(req);
+			throw e;
+		}
+		if (error != null) {
+			engine.recycle(req);
+			send(ex, 400, engine.fail("REQERR", "Invalid JSON body: " + error));
+			return null;
+		}
+		return req;
+	}
+
+	/**
+	 * Parses the request body as JSON while reading it. Sends a 400 and
+	 * returns {@code null} if it is not a JSON object.
+	 */
+	private JSONObject readjson(HttpExchange ex) throws IOException {
+		JSONObject val = null;
+		String error = null;
+		try (InputStream in = ex.getRequestBody()) {
+			try {
+				val = new JSONObject(new JSONTokener(new InputStreamReader(in, StandardCharsets.UTF_8)));
+			} catch (JSONException e) {
+				error = e.getMessage();
+			}
+			// the rest of the body must be read for the connection to be reused
+			in.transferTo(OutputStream.nullOutputStream());
+		}
+		if (val == null) {
+			send(ex, 400, engine.fail("REQERR", "Invalid JSON body: " + error));
+		}
+		return val;
+	}
+
+	/**
+	 * Reads a form body of at most {@code dbhmax} bytes. Sends a 413 and
+	 * returns {@code null} if it is larger.
+	 */
+	private String readbody(HttpExchange ex) throws IOException {
+		ByteArrayOutputStream body = new ByteArrayOutputStream(512);
+		try (InputStream in = ex.getRequestBody()) {
+			byte[] buf = new byte[8192];
+			int n;
+			while ((n = in.read(buf)) > 0) {
+				if (body.size() + n > maxform) {
+					in.transferTo(OutputStream.nullOutputStream());
+					send(ex, 413, engine.fail("REQERR", "Form body exceeds " + maxform + " bytes"));
+					return null;
+				}
+				body.write(buf, 0, n);
+			}
+		}
+		return body.toString(StandardCharsets.UTF_8);
+	}
+
+	private static Map<String, String> urldecode(String s) {
+		Map<String, String> fields = new LinkedHashMap<>();
+		if (s == null || s.isEmpty() || "null".equals(s)) {
+			return fields;
+		}
+		for (String pair : s.split("&")) {
+			if (pair.isEmpty()) {
+				continue;
+			}
+			int eq = pair.indexOf('=');
+			String key = URLDecoder.decode(eq < 0 ? pair : pair.substring(0, eq), StandardCharsets.UTF_8);
+			String value = eq < 0 ? "" : URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8);
+			fields.put(key.trim(), value);
+		}
+		return fields;
+	}
+
+	/**
+	 * Wraps a handler so it only accepts POST. A database failure the engine
+	 * did not answer itself is counted as {@code DBEXER} and answered with 500;
+	 * any other failure is an invalid request, answered with 400
+	 * {@code REQERR}. A client that went away is not answered.
+	 */
+	private HttpHandler post(Handler handler) {
+		return ex -> {
+			try {
+				if (!"POST".equals(ex.getRequestMethod())) {
+					drain(ex);
+					reject(ex, 405, "POST");
+					return;
+				}
+				handler.handle(ex);
+			} catch (IOException e) {
+				engine.debuglog("HTTP exchange " + ex.getRequestURI().getPath() + " aborted: " + e.getMessage());
+			} catch (SQLException | ClassNotFoundException e) {
+				engine.dberror(e);
+				if (ex.getResponseCode() < 0) {
+					send(ex, 500, SmartCrudEngine.errormsgbuilder("DBEXER", String.valueOf(e.getMessage())).toString());
+				}
+			} catch (Exception e) {
+				if (ex.getResponseCode() < 0) {
+					send(ex, 400, engine.fail("REQERR", String.valueOf(e.getMessage())));
+				}
+			} finally {
+				ex.close();
+			}
+		};
+	}
+
+	private void reject(HttpExchange ex, int status, String allow) throws IOException {
+		if (allow != null) {
+			ex.getResponseHeaders().set("Allow", allow);
+		}
+		send(ex, status, engine.fail("REQERR", status == 404 ? "No endpoint " + ex.getRequestURI().getPath()
+				: "Method " + ex.getRequestMethod() + " not allowed"));
+	}
+
+	private static void send(HttpExchange ex, int status, String body) throws IOException {
+		byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		ex.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+		ex.sendResponseHeaders(status, bytes.length);
+		try (OutputStream out = ex.getResponseBody()) {
+			out.write(bytes);
+		}
+	}
+
+	private static void drain(HttpExchange ex) throws IOException {
+		try (InputStream in = ex.getRequestBody()) {
+			in.transferTo(OutputStream.nullOutputStream());
+		}
+	}
+
+	/**
+	 * Request handler that may throw.
+	 */
+	@FunctionalInterface
+	private interface Handler {
+		void handle(HttpExchange ex) throws Exception;
+	}
+}
@@ -0,0 +1,326 @@
+package com.chat.db;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * SmartCrudStress checks that one shared {@link SmartCrudEngine} builds and
+ * executes correct SQL when called from many threads at once, and reports how
+ * the throughput grows with the number of threads.
+ * <p>
+ * The correctness run starts {@code stress.threads} threads (at least 64)
+ * together. Every call uses values unique to its thread and iteration,
+ * including a quote to escape, and compares the text of
+ * {@code getinsertq}, {@code getselectq}, {@code getupdateq} and of
+ * {@code execute} with {@code rtp=query} against the SQL expected for that
+ * request. It then inserts, updates and reads back a row per call through
+ * {@code execute} with {@code rtp=execute} and checks the row read back. Any
+ * mismatch is printed and the run exits with status 1.
+ * <p>
+ * The throughput run measures the query builders and an executed select on
+ * 1, 2, 4, ... threads up to {@code stress.threads}, with the speed-up over
+ * one thread.
+ * <p>
+ * Run with the database driver and org.json on the classpath:
+ *
+ * <pre>
+ * java -cp .:json.jar:h2.jar com.chat.db.SmartCrudStress
+ * </pre>
+ *
+ * Optional system properties:
+ * <ul>
+ *     <li><b>stress.url</b> – JDBC url (default an H2 in-memory database)</li>
+ *     <li><b>stress.driver</b>, <b>stress.user</b>, <b>stress.password</b> – connection settings</li>
+ *     <li><b>stress.threads</b> – concurrent callers, at least 64 (default 64)</li>
+ *     <li><b>stress.ops</b> – calls per thread of the correctness run (default 500)</li>
+ *     <li><b>stress.time</b> – measured time per thread count in ms (default 2000)</li>
+ * </ul>
+ */
+public class SmartCrudStress {
+
+	private static final String TABLE = "STRESS_ROWS";
+
+	private final SmartCrudEngine engine;
+	private final int threads;
+	private final int ops;
+	private final long time;
+	private final AtomicLong mismatches = new AtomicLong();
+	private final List<String> samples = new ArrayList<>();
+	private volatile Object sink;
+
+	/**
+	 * @param engine  engine under test, connected to the stress database
+	 * @param threads concurrent callers
+	 * @param ops     calls per thread of the correctness run
+	 * @param time    measured time per thread count in ms
+	 */
+	public SmartCrudStress(SmartCrudEngine engine, int threads, int ops, long time) {
+		this.engine = engine;
+		this.threads = threads;
+		this.ops = ops;
+		this.time = time;
+	}
+
+	/**
+	 * Runs the correctness and throughput runs.
+	 *
+	 * @param args unused, see the class description for the settings
+	 * @throws Exception if the database cannot be set up
+	 */
+	public static void main(String[] args) throws Exception {
+		int threads = Math.max(64, Integer.getInteger("stress.threads", 64));
+		Properties props = new Properties();
+		props.setProperty("dbdrv", System.getProperty("stress.driver", "org.h2.Driver"));
+		props.setProperty("dburl", System.getProperty("stress.url", "jdbc:h2:mem:smartcrudstress;DB_CLOSE_DELAY=-1"));
+		props.setProperty("dbunm", System.getProperty("stress.user", "sa"));
+		props.setProperty("dbpwd", System.getProperty("stress.password", ""));
+		props.setProperty("dbpmax", String.valueOf(threads));
+
+		boolean ok;
+		try (SmartCrudEngine engine = new SmartCrudEngine(props)) {
+			SmartCrudStress stress = new SmartCrudStress(engine, threads, Integer.getInteger("stress.ops", 500),
+					Long.getLong("stress.time", 2000));
+			stress.setup();
+			ok = stress.correctness();
+			stress.throughput();
+		}
+		if (!ok) {
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Creates the empty {@code STRESS_ROWS} table.
+	 *
+	 * @throws Exception if a statement fails
+	 */
+	public void setup() throws Exception {
+		ddl("DROP TABLE IF EXISTS " + TABLE);
+		ddl("CREATE TABLE " + TABLE + " (ID BIGINT PRIMARY KEY, NAME VARCHAR(80), QTY BIGINT)");
+	}
+
+	private void ddl(String sql) throws Exception {
+		String res = engine.dbExecute(sql, "update");
+		if ("ERROR".equals(new JSONObject(res).optString("sign"))) {
+			throw new Exception("Stress setup failed: " + res);
+		}
+	}
+
+	/**
+	 * Runs every thread through the builders and {@code execute} at once and
+	 * checks each result.
+	 *
+	 * @return {@code true} if every SQL text and row matched
+	 * @throws InterruptedException if interrupted while waiting for the threads
+	 */
+	public boolean correctness() throws InterruptedException {
+		long start = System.nanoTime();
+		Throwable[] failure = parallel(threads, (t, stop) -> {
+			for (int i = 0; i < ops; i++) {
+				check(t, i);
+			}
+		});
+		double secs = (System.nanoTime() - start) / 1e9;
+		System.out.println(String.format(Locale.ROOT, "correctness: %d threads x %d calls in %.1f s, %d mismatches",
+				threads, ops, secs, mismatches.get()));
+		for (String sample : samples) {
+			System.out.println("  " + sample);
+		}
+		if (failure[0] != null) {
+			System.out.println("  FAILED: " + failure[0]);
+		}
+		return mismatches.get() == 0 && failure[0] == null;
+	}
+
+	/**
+	 * Builds and executes the requests of one call of thread {@code t}.
+	 */
+	private void check(int t, int i) throws Exception {
+		long id = (long) t * ops + i + 1;
+		String name = "t" + t + "'s row " + i;
+		String renamed = "t" + t + "'s update " + i;
+		String requoted = renamed.replace("'", "''");
+
+		JSONObject data = new JSONObject().put("ID", String.valueOf(id)).put("NAME", name).put("QTY",
+				String.valueOf(i));
+		StringBuilder cols = new StringBuilder();
+		StringBuilder vals = new StringBuilder();
+		for (String key : data.keySet()) {
+			cols.append(cols.length() == 0 ? "" : ",").append(key);
+			vals.append(vals.length() == 0 ? "'" : ",'").append(data.getString(key).replace("'", "''")).append("'");
+		}
+		JSONObject insert = new JSONObject().put("main_sign", "insert").put("qtn", TABLE.toLowerCase(Locale.ROOT))
+				.put("qdt", data);
+		JSONObject select = new JSONObject().put("main_sign", "select").put("qtn", TABLE)
+				.put("qcl", new JSONArray().put("ID").put("NAME")).put("qcn", "WHERE ID = " + id);
+		JSONObject update = new JSONObject().put("main_sign", "update").put("qtn", TABLE)
+				.put("qdt", new JSONObject().put("NAME", renamed)).put("qcn", "ID = " + id);
+
+		String insertsql = "INSERT INTO " + TABLE + " (" + cols + ") VALUES (" + vals + ")";
+		String selectsql = "SELECT ID,NAME FROM " + TABLE + " WHERE ID = " + id;
+		String updatesql = "UPDATE " + TABLE + " SET NAME = '" + requoted + "' WHERE ID = " + id;
+
+		expect("getinsertq", insertsql, SmartCrudEngine.getinsertq(insert));
+		expect("getselectq", selectsql, SmartCrudEngine.getselectq(select));
+		expect("getupdateq", updatesql, SmartCrudEngine.getupdateq(update));
+		expect("execute insert query", insertsql, engine.execute(new JSONObject(insert.toString()).put("rtp", "query")));
+		expect("execute select query", selectsql, engine.execute(new JSONObject(select.toString()).put("rtp", "query")));
+		expect("execute update query", updatesql, engine.execute(new JSONObject(update.toString()).put("rtp", "query")));
+
+		expect("execute insert", "1", String.valueOf(
+				new JSONObject(engine.execute(insert.put("rtp", "execute"))).opt("effected_row")));
+		JSONArray rows = new JSONObject(engine.execute(select.put("rtp", "execute"))).optJSONArray("query_data");
+		expect("execute select", id + "|" + name, rows == null || rows.length() != 1 ? String.valueOf(rows)
+				: rows.getJSONObject(0).get("ID") + "|" + rows.getJSONObject(0).get("NAME"));
+		expect("execute update", "1", String.valueOf(
+				new JSONObject(engine.execute(update.put("rtp", "execute"))).opt("effected_row")));
+		rows = new JSONObject(engine.execute(select)).optJSONArray("query_data");
+		expect("execute select updated", renamed, rows == null || rows.length() != 1 ? String.valueOf(rows)
+				: rows.getJSONObject(0).getString("NAME"));
+	}
+
+	private void expect(String what, String expected, String actual) {
+		if (!expected.equals(actual)) {
+			mismatches.incrementAndGet();
+			synchronized (samples) {
+				if (samples.size() < 10) {
+					samples.add(what + ": expected [" + expected + "] got [" + actual + "]");
+				}
+			}
+		}
+	}
+
+	/**
+	 * Measures the query builders and an executed one-row select on 1, 2, 4,
+	 * ... threads up to {@code threads}, printing the throughput and the
+	 * speed-up over one thread.
+	 *
+	 * @throws InterruptedException if interrupted while waiting for the threads
+	 */
+	public void throughput() throws InterruptedException {
+		JSONObject insert = new JSONObject().put("main_sign", "insert").put("qtn", TABLE).put("qdt",
+				new JSONObject().put("ID", "1").put("NAME", "stress").put("QTY", "10"));
+		JSONObject update = new JSONObject().put("main_sign", "update").put("qtn", TABLE)
+				.put("qdt", new JSONObject().put("NAME", "it's stress")).put("qcn", "ID = 1");
+		JSONObject select = new JSONObject().put("main_sign", "select").put("qtn", TABLE)
+				.put("qcl", new JSONArray().put("ID").put("NAME")).put("qcn", "WHERE ID = 1");
+		String execute = new JSONObject(select.toString()).put("rtp", "execute").toString();
+
+		System.out.println(String.format(Locale.ROOT, "%nthroughput (%d processors)", Runtime.getRuntime()
+				.availableProcessors()));
+		System.out.println(String.format(Locale.ROOT, "%-10s %8s %14s %10s", "scenario", "threads", "ops/s",
+				"speed-up"));
+		double[] base = new double[2];
+		for (int n = 1;; n = Math.min(n * 2, threads)) {
+			double builders = rate(n, () -> {
+				sink = SmartCrudEngine.getinsertq(insert);
+				sink = SmartCrudEngine.getselectq(select);
+				sink = SmartCrudEngine.getupdateq(update);
+			});
+			double executed = rate(n, () -> sink = engine.execute(new JSONObject(execute)));
+			if (n == 1) {
+				base[0] = builders;
+				base[1] = executed;
+			}
+			System.out.println(String.format(Locale.ROOT, "%-10s %8d %14.0f %10.2f", "builders", n, builders,
+					builders / base[0]));
+			System.out.println(String.format(Locale.ROOT, "%-10s %8d %14.0f %10.2f", "execute", n, executed,
+					executed / base[1]));
+			if (n == threads) {
+				break;
+			}
+		}
+	}
+
+	/**
+	 * One timed operation.
+	 */
+	@FunctionalInterface
+	private interface Call {
+		void run() throws Exception;
+	}
+
+	/**
+	 * Body of one stress thread.
+	 */
+	@FunctionalInterface
+	private interface Worker {
+		void run(int thread, long stop) throws Exception;
+	}
+
+	/**
+	 * @return calls per second of {@code call} on {@code n} threads over {@code time} ms
+	 */
+	private double rate(int n, Call call) throws InterruptedException {
+		long[] counts = new long[n];
+		Throwable[] failure = parallel(n, (t, end) -> {
+			long k = 0;
+			while (System.nanoTime() < end) {
+				call.run();
+				k++;
+			}
+			counts[t] = k;
+		}, time * 1_000_000L);
+		if (failure[0] != null) {
+			System.out.println("  FAILED: " + failure[0]);
+			return 0;
+		}
+		long total = 0;
+		for (long k : counts) {
+			total += k;
+		}
+		return total * 1000.0 / time;
+	}
+
+	private Throwable[] parallel(int n, Worker worker) throws InterruptedException {
+		return parallel(n, worker, 0);
+	}
+
+	/**
+	 * Starts {@code n} threads together on {@code worker} and waits for all of
+	 * them. Each worker is given the {@link System#nanoTime()} at which a timed
+	 * run ends.
+	 *
+	 * @param nanos length of a timed run, 0 if the workers end by themselves
+	 * @return one-element array holding the first failure, if any
+	 */
+	private Throwable[] parallel(int n, Worker worker, long nanos) throws InterruptedException {
+		Throwable[] failure = new Throwable[1];
+		CountDownLatch ready = new CountDownLatch(n);
+		CountDownLatch go = new CountDownLatch(1);
+		CountDownLatch done = new CountDownLatch(n);
+		long[] stop = new long[1];
+		for (int t = 0; t < n; t++) {
+			final int idx = t;
+			Thread th = new Thread(() -> {
+				try {
+					ready.countDown();
+					go.await();
+					worker.run(idx, stop[0]);
+				} catch (Throwable e) {
+					synchronized (failure) {
+						if (failure[0] == null) {
+							failure[0] = e;
+						}
+					}
+				} finally {
+					done.countDown();
+				}
+			}, "stress-" + t);
+			th.setDaemon(true);
+			th.start();
+		}
+		ready.await();
+		stop[0] = nanos == 0 ? Long.MAX_VALUE : System.nanoTime() + nanos;
+		go.countDown();
+		done.await();
+		return failure;
+	}
+}
@@ -0,0 +1,177 @@
+package com.chat.db;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * SqlDialect identifies the database behind the configured JDBC driver, for
+ * the few statements whose syntax differs between vendors. <br>
+ * The dialect is derived from the {@code dbdrv} class name, falling back to
+ * the {@code dburl} prefix.
+ */
+public enum SqlDialect {
+
+	ORACLE, POSTGRES, MYSQL, SQLSERVER, DB2, H2, SQLITE, GENERIC;
+
+	/**
+	 * Resolves the dialect from the driver class name and JDBC url.
+	 *
+	 * @param dbdriver JDBC driver class name
+	 * @param dburl    JDBC url
+	 * @return matching dialect, {@link #GENERIC} if unknown
+	 */
+	public static SqlDialect fromdriver(String dbdriver, String dburl) {
+		String id = ((dbdriver == null ? "" : dbdriver) + " " + (dburl == null ? "" : dburl)).toLowerCase(Locale.ROOT);
+		if (id.contains("oracle")) {
+			return ORACLE;
+		} else if (id.contains("postgresql")) {
+			return POSTGRES;
+		} else if (id.contains("mysql") || id.contains("mariadb")) {
+			return MYSQL;
+		} else if (id.contains("sqlserver") || id.contains("jtds")) {
+			return SQLSERVER;
+		} else if (id.contains("db2")) {
+			return DB2;
+		} else if (id.contains("h2")) {
+			return H2;
+		} else if (id.contains("sqlite")) {
+			return SQLITE;
+		}
+		return GENERIC;
+	}
+
+	/**
+	 * Appends the row limiting clause of this dialect to an ordered query.
+	 *
+	 * @param sql  query ending with its ORDER BY clause
+	 * @param rows maximum rows to return
+	 * @return limited query
+	 */
+	public String limit(String sql, int rows) {
+		switch (this) {
+		case MYSQL:
+		case SQLITE:
+			return sql + " LIMIT " + rows;
+		case SQLSERVER:
+			return sql + " OFFSET 0 ROWS FETCH NEXT " + rows + " ROWS ONLY";
+		default:
+			return sql + " FETCH FIRST " + rows + " ROWS ONLY";
+		}
+	}
+
+	/**
+	 * Builds the statement returning the execution plan of {@code sql} as a
+	 * result set, with the same bind markers.
+	 * <ul>
+	 *     <li>SQLite – {@code EXPLAIN QUERY PLAN ...}</li>
+	 *     <li>H2, PostgreSQL, MySQL and others – {@code EXPLAIN ...}</li>
+	 *     <li>Oracle, SQL Server, DB2 – not supported, their plans go to plan
+	 *     tables or session settings rather than a result set</li>
+	 * </ul>
+	 *
+	 * @param sql statement to explain
+	 * @return EXPLAIN statement, {@code null} if the dialect has none
+	 */
+	public String explain(String sql) {
+		switch (this) {
+		case ORACLE:
+		case SQLSERVER:
+		case DB2:
+			return null;
+		case SQLITE:
+			return "EXPLAIN QUERY PLAN " + sql;
+		default:
+			return "EXPLAIN " + sql;
+		}
+	}
+
+	/**
+	 * Builds the single-statement upsert of this dialect as template parts for
+	 * {@link SqlTemplate#of(String[], String[])}: one bind marker per column
+	 * of {@code cols}, in order.
+	 * <ul>
+	 *     <li>H2 – {@code MERGE INTO ... KEY (...) VALUES (...)}</li>
+	 *     <li>PostgreSQL, SQLite – {@code INSERT ... ON CONFLICT (...) DO UPDATE}</li>
+	 *     <li>MySQL – {@code INSERT ... ON DUPLICATE KEY UPDATE}</li>
+	 *     <li>Oracle – {@code MERGE ... USING (SELECT ... FROM DUAL)}</li>
+	 *     <li>SQL Server, DB2 and others – {@code MERGE ... USING (VALUES (...))}</li>
+	 * </ul>
+	 * Columns that are not keys are updated when the row exists.
+	 *
+	 * @param table upper-case table name
+	 * @param cols  columns to insert, including the keys
+	 * @param keys  key columns identifying an existing row
+	 * @return template parts around the bind markers
+	 */
+	public String[] upsert(String table, String[] cols, String[] keys) {
+		List<String> keylist = Arrays.asList(keys);
+		StringBuilder on = new StringBuilder();
+		StringBuilder set = new StringBuilder();
+		for (String key : keys) {
+			on.append(on.length() == 0 ? "" : " AND ").append("t.").append(key).append(" = s.").append(key);
+		}
+		String collist = String.join(",", cols);
+		String[] parts = new String[cols.length + 1];
+
+		switch (this) {
+		case H2:
+			return values(parts, "MERGE INTO " + table + " (" + collist + ") KEY (" + String.join(",", keys) + ") VALUES ",
+					"");
+		case POSTGRES:
+		case SQLITE:
+			for (String col : cols) {
+				if (!keylist.contains(col)) {
+					set.append(set.length() == 0 ? "" : ", ").append(col).append(" = EXCLUDED.").append(col);
+				}
+			}
+			return values(parts, "INSERT INTO " + table + " (" + collist + ") VALUES ", " ON CONFLICT ("
+					+ String.join(",", keys) + ") DO " + (set.length() == 0 ? "NOTHING" : "UPDATE SET " + set));
+		case MYSQL:
+			for (String col : cols) {
+				if (!keylist.contains(col)) {
+					set.append(set.length() == 0 ? "" : ", ").append(col).append(" = VALUES(").append(col).append(")");
+				}
+			}
+			if (set.length() == 0) {
+				set.append(keys[0]).append(" = ").append(keys[0]);
+			}
+			return values(parts, "INSERT INTO " + table + " (" + collist + ") VALUES ", " ON DUPLICATE KEY UPDATE " + set);
+		default:
+			for (String col : cols) {
+				if (!keylist.contains(col)) {
+					set.append(set.length() == 0 ? "" : ", ").append(col).append(" = s.").append(col);
+				}
+			}
+			StringBuilder merge = new StringBuilder(" ON (").append(on).append(")");
+			if (set.length() > 0) {
+				merge.append(" WHEN MATCHED THEN UPDATE SET ").append(set);
+			}
+			merge.append(" WHEN NOT MATCHED THEN INSERT (").append(collist).append(") VALUES (s.")
+					.append(String.join(", s.", cols)).append(")");
+			if (this == ORACLE) {
+				parts[0] = "MERGE INTO " + table + " t USING (SELECT ";
+				for (int i = 1; i < cols.length; i++) {
+					parts[i] = " AS " + cols[i - 1] + ", ";
+				}
+				parts[cols.length] = " AS " + cols[cols.length - 1] + " FROM DUAL) s" + merge;
+				return parts;
+			}
+			// SQL Server requires MERGE to be terminated
+			return values(parts, "MERGE INTO " + table + " t USING (VALUES ",
+					") AS s (" + collist + ")" + merge + (this == SQLSERVER ? ";" : ""));
+		}
+	}
+
+	/**
+	 * Fills {@code parts} as {@code head(?,?,...)tail}.
+	 */
+	private static String[] values(String[] parts, String head, String tail) {
+		parts[0] = head + "(";
+		for (int i = 1; i < parts.length - 1; i++) {
+			parts[i] = ",";
+		}
+		parts[parts.length - 1] = ")" + tail;
+		return parts;
+	}
+}
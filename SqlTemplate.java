@@ -0,0 +1,187 @@
+package com.chat.db;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import org.json.JSONObject;
+
+/**
+ * SqlTemplate is the compiled form of a {@code raw_qry} used by
+ * {@link SmartCrudEngine#paramexecuter(String)}. <br>
+ * Every {@code {NAME}} placeholder is replaced by a JDBC {@code ?} once, and
+ * the placeholder names are kept in bind order, so each call only has to look
+ * up its values in {@code params} and bind them.
+ * <p>
+ * Placeholders inside quoted SQL literals ({@code '...'}) are left untouched.
+ */
+public final class SqlTemplate {
+
+	private final String sql;
+	private final String[] names;
+	private final String[] parts;
+
+	private SqlTemplate(String sql, String[] names, String[] parts) {
+		this.sql = sql;
+		this.names = names;
+		this.parts = parts;
+	}
+
+	/**
+	 * Compiles a query template with {@code {NAME}} placeholders.
+	 *
+	 * @param raw the query template (e.g. {@code SELECT * FROM T WHERE ID = {ID}})
+	 * @return compiled template
+	 */
+	public static SqlTemplate compile(String raw) {
+		StringBuilder sqlbuilder = new StringBuilder(raw.length());
+		StringBuilder partbuilder = new StringBuilder();
+		List<String> names = new ArrayList<>();
+		List<String> parts = new ArrayList<>();
+		boolean quoted = false;
+		int i = 0;
+		while (i < raw.length()) {
+			char c = raw.charAt(i);
+			if (c == '\'') {
+				quoted = !quoted;
+			} else if (c == '{' && !quoted) {
+				int end = i + 1;
+				while (end < raw.length() && isnamechar(raw.charAt(end))) {
+					end++;
+				}
+				if (end > i + 1 && end < raw.length() && raw.charAt(end) == '}') {
+					names.add(raw.substring(i + 1, end));
+					parts.add(partbuilder.toString());
+					partbuilder.setLength(0);
+					sqlbuilder.append('?');
+					i = end + 1;
+					continue;
+				}
+			}
+			sqlbuilder.append(c);
+			partbuilder.append(c);
+			i++;
+		}
+		parts.add(partbuilder.toString());
+		return new SqlTemplate(sqlbuilder.toString(), names.toArray(new String[0]), parts.toArray(new String[0]));
+	}
+
+	/**
+	 * Builds a template from literal SQL fragments and the column or placeholder
+	 * names bound between them. Unlike {@link #compile(String)} the fragments are
+	 * not scanned, so they may contain braces or quotes.
+	 *
+	 * @param parts SQL fragments, one more than {@code names}
+	 * @param names bind names in JDBC index order
+	 * @return template
+	 */
+	public static SqlTemplate of(String[] parts, String[] names) {
+		if (parts.length != names.length + 1) {
+			throw new IllegalArgumentException("Expected " + (names.length + 1) + " SQL fragments");
+		}
+		StringBuilder sqlbuilder = new StringBuilder();
+		for (int i = 0; i < names.length; i++) {
+			sqlbuilder.append(parts[i]).append('?');
+		}
+		sqlbuilder.append(parts[names.length]);
+		return new SqlTemplate(sqlbuilder.toString(), names.clone(), parts.clone());
+	}
+
+	/**
+	 * @return the SQL text with JDBC {@code ?} markers
+	 */
+	public String sql() {
+		return sql;
+	}
+
+	/**
+	 * @return bind names in JDBC index order
+	 */
+	public String[] names() {
+		return names.clone();
+	}
+
+	/**
+	 * @return number of bind parameters
+	 */
+	public int paramcount() {
+		return names.length;
+	}
+
+	/**
+	 * Collects the bind values from {@code params} in JDBC index order.
+	 *
+	 * @param params placeholder values
+	 * @return values to bind, index 0 being parameter 1
+	 * @throws IllegalArgumentException if a placeholder has no value in {@code params}
+	 */
+	public List<Object> binds(JSONObject params) {
+		return binds(params::opt);
+	}
+
+	/**
+	 * Collects the bind values from decoded {@code params} in JDBC index order,
+	 * a {@code null} value counting as missing.
+	 *
+	 * @param params placeholder values, e.g. {@link CrudRequest#params()}
+	 * @return values to bind, index 0 being parameter 1
+	 * @throws IllegalArgumentException if a placeholder has no value in {@code params}
+	 */
+	public List<Object> binds(Map<String, ?> params) {
+		return binds(params::get);
+	}
+
+	private List<Object> binds(Function<String, ?> params) {
+		List<Object> binds = new ArrayList<>(names.length);
+		for (String name : names) {
+			binds.add(value(params, name));
+		}
+		return binds;
+	}
+
+	/**
+	 * Renders the template with quoted literal values, for callers asking for the
+	 * query text instead of its execution.
+	 *
+	 * @param params placeholder values
+	 * @return SQL text with the values inlined
+	 * @throws IllegalArgumentException if a placeholder has no value in {@code params}
+	 */
+	public String render(JSONObject params) {
+		return render(params::opt);
+	}
+
+	/**
+	 * Renders the template with quoted literal values from decoded
+	 * {@code params}, a {@code null} value counting as missing.
+	 *
+	 * @param params placeholder values, e.g. {@link CrudRequest#params()}
+	 * @return SQL text with the values inlined
+	 * @throws IllegalArgumentException if a placeholder has no value in {@code params}
+	 */
+	public String render(Map<String, ?> params) {
+		return render(params::get);
+	}
+
+	private String render(Function<String, ?> params) {
+		StringBuilder sb = new StringBuilder(sql.length() + names.length * 8);
+		for (int i = 0; i < names.length; i++) {
+			sb.append(parts[i]).append('\'').append(String.valueOf(value(params, names[i])).replace("'", "''"))
+					.append('\'');
+		}
+		return sb.append(parts[names.length]).toString();
+	}
+
+	private static Object value(Function<String, ?> params, String name) {
+		Object v = params.apply(name);
+		if (v == null) {
+			throw new IllegalArgumentException("No value passed for placeholder {" + name + "}");
+		}
+		return v;
+	}
+
+	private static boolean isnamechar(char c) {
+		return Character.isLetterOrDigit(c) || c == '_';
+	}
+}
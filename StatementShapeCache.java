@@ -0,0 +1,107 @@
+package com.chat.db;
+
+import java.util.LinkedHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+import org.json.JSONObject;
+
+/**
+ * StatementShapeCache keeps the parameterized SQL generated for the JSON
+ * insert, update and upsert operations of {@link SmartCrudEngine}. <br>
+ * A shape key is made of the operation, the table ({@code qtn}), the ordered
+ * column names of {@code qdt} and, for updates, the condition ({@code qcn}).
+ * Identical operations therefore share one SQL text and one server-side plan.
+ * The engine keeps its compiled {@code raw_qry} templates, keyed by their
+ * text, in a second instance.
+ * The cache is bounded and evicts the least recently used shape, so shapes
+ * that are used once do not keep recurring ones out.
+ */
+public class StatementShapeCache {
+
+	protected final int maxsize;
+	private final ReentrantLock lock = new ReentrantLock();
+	private final LinkedHashMap<String, SqlTemplate> shapes = new LinkedHashMap<>(64, 0.75f, true);
+	private long hits;
+	private long misses;
+	private long evictions;
+
+	/**
+	 * @param maxsize maximum number of cached shapes; the least recently used
+	 *                shape is evicted beyond it
+	 */
+	public StatementShapeCache(int maxsize) {
+		this.maxsize = maxsize;
+	}
+
+	/**
+	 * Returns the cached template for {@code key}, building it on a miss.
+	 *
+	 * @param key     shape key
+	 * @param builder creates the template when it is not cached
+	 * @return template for the shape
+	 */
+	public SqlTemplate get(String key, Supplier<SqlTemplate> builder) {
+		lock.lock();
+		try {
+			SqlTemplate shape = shapes.get(key);
+			if (shape != null) {
+				hits++;
+				return shape;
+			}
+			misses++;
+		} finally {
+			lock.unlock();
+		}
+		// built outside the lock; a concurrent miss of the same key keeps the first
+		SqlTemplate shape = builder.get();
+		if (maxsize <= 0) {
+			return shape;
+		}
+		lock.lock();
+		try {
+			SqlTemplate prev = shapes.putIfAbsent(key, shape);
+			if (prev != null) {
+				return prev;
+			}
+			if (shapes.size() > maxsize) {
+				shapes.remove(shapes.keySet().iterator().next());
+				evictions++;
+			}
+			return shape;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Removes all cached shapes. Counters are kept.
+	 */
+	public void clear() {
+		lock.lock();
+		try {
+			shapes.clear();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return JSON object with size, hits, misses, hit ratio and evictions
+	 */
+	public JSONObject stats() {
+		JSONObject st = new JSONObject();
+		lock.lock();
+		try {
+			st.put("size", shapes.size());
+			st.put("max_size", maxsize);
+			st.put("hits", hits);
+			st.put("misses", misses);
+			st.put("hit_ratio", hits + misses == 0 ? 0.0 : hits / (double) (hits + misses));
+			st.put("evictions", evictions);
+		} finally {
+			lock.unlock();
+		}
+		return st;
+	}
+}
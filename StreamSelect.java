@@ -0,0 +1,206 @@
+package com.chat.db;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.List;
+
+import org.json.JSONObject;
+
+/**
+ * StreamSelect runs a SELECT on one pooled connection and writes its rows to
+ * the caller's output as they are fetched, so the result is never held in
+ * memory as a whole: as JSON text to a {@link Writer}, or in the binary format
+ * of {@link BinaryRowEncoder} to an {@link OutputStream}. <br>
+ * The statement runs with the engine's fetch size inside a transaction, which
+ * some drivers need for cursor based fetching, and the JSON output is flushed
+ * after the first row so a client sees data before the last row is read. A
+ * failure after rows were written ends the JSON response with
+ * {@code "sign":"ERROR"} and the binary one with an error trailer.
+ */
+public class StreamSelect {
+
+	protected final SmartCrudEngine engine;
+	protected final String query;
+	protected final List<Object> binds;
+	protected final int fetchsize;
+	protected final boolean primary;
+
+	/**
+	 * @param engine    engine whose connection runs the query
+	 * @param query     SELECT with JDBC {@code ?} markers
+	 * @param binds     values for the markers, in order
+	 * @param fetchsize JDBC fetch size
+	 * @param primary   read from the primary even with replicas configured
+	 */
+	public StreamSelect(SmartCrudEngine engine, String query, List<Object> binds, int fetchsize, boolean primary) {
+		this.engine = engine;
+		this.query = query;
+		this.binds = binds;
+		this.fetchsize = fetchsize;
+		this.primary = primary;
+	}
+
+	/**
+	 * Executes the SELECT and writes the JSON response to {@code out} row by
+	 * row. The writer is flushed after the first row and at the end.
+	 *
+	 * @param out destination of the JSON response
+	 * @return number of rows written
+	 * @throws ClassNotFoundException if database driver class is not found
+	 * @throws IOException            if writing to {@code out} fails
+	 */
+	public long stream(Writer out) throws ClassNotFoundException, IOException {
+		int op = EngineMetrics.operation("select");
+		long rows = 0;
+		boolean started = false;
+
+		engine.debuglog("Stream query received: " + query);
+
+		String rejected = engine.admit(op);
+		if (rejected != null) {
+			out.write(rejected);
+			out.flush();
+			return 0;
+		}
+		boolean overload = false;
+		long first = 0;
+		long t0 = System.nanoTime();
+		try (Connection cn = engine.readConnection(primary)) {
+			long t1 = System.nanoTime();
+			engine.metrics.phase(op, EngineMetrics.ACQUIRE, t1 - t0);
+			// cursor based fetching needs an open transaction on some drivers
+			cn.setAutoCommit(false);
+			try (PreparedStatement ps = cn.prepareStatement(query)) {
+				SmartCrudEngine.trackstatement(ps);
+				engine.timeout(ps);
+				ps.setFetchSize(fetchsize);
+				SmartCrudEngine.bindvalues(ps, binds);
+				try (ResultSet rs = ps.executeQuery()) {
+					long t2 = System.nanoTime();
+					engine.metrics.phase(op, EngineMetrics.EXECUTE, t2 - t1);
+					first = t2 - t0;
+					JsonRowEncoder encoder = new JsonRowEncoder(rs.getMetaData());
+					out.write("{\"executed_cmd\":\"SELECT\",\"query_data\":[");
+					started = true;
+					while (rs.next()) {
+						if (rows > 0) {
+							out.write(',');
+						}
+						encoder.write(rs, out);
+						if (++rows == 1) {
+							out.flush();
+						}
+					}
+					engine.metrics.phase(op, EngineMetrics.SERIALIZE, System.nanoTime() - t2);
+				}
+			}
+			cn.commit();
+			out.write("],\"sign\":\"DONE\",\"effected_row\":" + rows
+					+ ",\"message\":\"[SELECT] executed. Rows fetched: " + rows + "\"}");
+			engine.metrics.done(op, rows);
+		} catch (SQLException e) {
+			engine.dberror(e);
+			overload = e instanceof SQLTimeoutException;
+			JSONObject error = new JSONObject();
+			error.put("sign", "ERROR");
+			error.put("error", e.getMessage());
+			if (started) {
+				String body = error.toString();
+				out.write("],\"effected_row\":" + rows + "," + body.substring(1));
+			} else {
+				error.write(out);
+			}
+		} finally {
+			// the time to the first row; the rest depends on the reader
+			engine.release(op, first > 0 ? first : System.nanoTime() - t0, overload);
+		}
+		out.flush();
+		return rows;
+	}
+
+	/**
+	 * Executes the SELECT and writes the response to {@code out} row by row in
+	 * the binary format of {@link BinaryRowEncoder}. A failure ends the
+	 * response with an error trailer.
+	 *
+	 * @param out destination of the binary response
+	 * @return number of rows written
+	 * @throws ClassNotFoundException if database driver class is not found
+	 * @throws IOException            if writing to {@code out} fails
+	 */
+	public long binary(OutputStream out) throws ClassNotFoundException, IOException {
+		int op = EngineMetrics.operation("select");
+		long rows = 0;
+		boolean started = false;
+		DataOutputStream dout = new DataOutputStream(new BufferedOutputStream(out, 1 << 16));
+
+		engine.debuglog("Binary query received: " + query);
+
+		String rejected = engine.admit(op);
+		if (rejected != null) {
+			JSONObject error = new JSONObject(rejected);
+			BinaryRowEncoder encoder = new BinaryRowEncoder(null, dout);
+			encoder.header();
+			encoder.end(0, error.getString("ecode") + ": " + error.getString("emsg"), null);
+			dout.flush();
+			return 0;
+		}
+		boolean overload = false;
+		long first = 0;
+		long t0 = System.nanoTime();
+		try (Connection cn = engine.readConnection(primary)) {
+			long t1 = System.nanoTime();
+			engine.metrics.phase(op, EngineMetrics.ACQUIRE, t1 - t0);
+			// cursor based fetching needs an open transaction on some drivers
+			cn.setAutoCommit(false);
+			BinaryRowEncoder encoder;
+			try (PreparedStatement ps = cn.prepareStatement(query)) {
+				SmartCrudEngine.trackstatement(ps);
+				engine.timeout(ps);
+				ps.setFetchSize(fetchsize);
+				SmartCrudEngine.bindvalues(ps, binds);
+				try (ResultSet rs = ps.executeQuery()) {
+					long t2 = System.nanoTime();
+					engine.metrics.phase(op, EngineMetrics.EXECUTE, t2 - t1);
+					first = t2 - t0;
+					encoder = new BinaryRowEncoder(new JsonRowEncoder(rs.getMetaData()), dout);
+					encoder.header();
+					started = true;
+					while (rs.next()) {
+						encoder.row(rs);
+						rows++;
+					}
+					engine.metrics.phase(op, EngineMetrics.SERIALIZE, System.nanoTime() - t2);
+				}
+			}
+			cn.commit();
+			encoder.end(rows, null, "[SELECT] executed. Rows fetched: " + rows);
+			engine.metrics.done(op, rows);
+		} catch (SQLException e) {
+			engine.dberror(e);
+			overload = e instanceof SQLTimeoutException;
+			BinaryRowEncoder encoder = new BinaryRowEncoder(null, dout);
+			if (!started) {
+				encoder.header();
+			}
+			encoder.end(rows, String.valueOf(e.getMessage()), null);
+		} finally {
+			engine.release(op, first > 0 ? first : System.nanoTime() - t0, overload);
+		}
+		dout.flush();
+		return rows;
+	}
+
+	@Override
+	public String toString() {
+		return "StreamSelect " + query;
+	}
+}
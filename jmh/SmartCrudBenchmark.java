@@ -0,0 +1,323 @@
+package com.chat.db;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Properties;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * SmartCrudBenchmark measures the query builders and the end-to-end execution
+ * paths of {@link SmartCrudEngine} with JMH, against an embedded in-process
+ * database (H2 by default) standing in for the {@code dbdetails} target. <br>
+ * Scenarios named {@code ...Threads} run the same operation on
+ * {@value #THREADS} threads, {@code ...Writers} on {@value #WRITERS} threads
+ * sharing the pool of {@value #THREADS} connections, where group commit pays
+ * off.
+ * <p>
+ * Run through the build, which adds the GC profiler for the allocation rate
+ * per operation and the GC count and time:
+ *
+ * <pre>
+ * gradle jmh
+ * </pre>
+ *
+ * or from the benchmark jar, e.g. for the select scenarios only:
+ *
+ * <pre>
+ * gradle jmhJar
+ * java -jar build/libs/Java-Engines-jmh.jar -prof gc 'SmartCrudBenchmark.select'
+ * </pre>
+ *
+ * Optional system properties of the forked JVM (JMH option {@code -jvmArgsAppend}):
+ * <ul>
+ *     <li><b>bench.url</b> – JDBC url (default an H2 in-memory database)</li>
+ *     <li><b>bench.driver</b>, <b>bench.user</b>, <b>bench.password</b> – connection settings</li>
+ *     <li><b>bench.db.*</b> – engine settings, e.g. {@code -Dbench.db.dbwbdl=2} sets {@code dbwbdl}</li>
+ * </ul>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SmartCrudBenchmark {
+
+	/** Threads of the multi-threaded scenarios, and connections of the pool. */
+	public static final int THREADS = 8;
+
+	/** Threads of the concurrent insert scenarios. */
+	public static final int WRITERS = THREADS * 16;
+
+	/** Rows of the large result set. */
+	@Param("10000")
+	public int rows;
+
+	private SmartCrudEngine engine;
+	private final AtomicLong ids = new AtomicLong(1_000_000);
+
+	private JSONObject insert;
+	private JSONObject update;
+	private JSONObject select;
+	private String render;
+	private byte[] insertbody;
+	private byte[] renderbody;
+
+	/**
+	 * Request decoder of one benchmark thread.
+	 */
+	@State(Scope.Thread)
+	public static class Decoder {
+		final CrudRequest req = new CrudRequest();
+	}
+
+	/**
+	 * Opens the engine, creates and fills the benchmark tables and builds the
+	 * requests.
+	 *
+	 * @throws Exception if the database cannot be set up
+	 */
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		engine = open(THREADS);
+		load(engine, rows);
+
+		insert = new JSONObject().put("main_sign", "insert").put("qtn", "BENCH_WRITE").put("qdt",
+				new JSONObject().put("ID", "1").put("NAME", "bench").put("AMOUNT", "10.50").put("NOTE", "it's a note"));
+		update = new JSONObject().put("main_sign", "update").put("qtn", "BENCH_WRITE")
+				.put("qdt", new JSONObject().put("NAME", "bench").put("AMOUNT", "10.50")).put("qcn", "ID = 1");
+		select = new JSONObject().put("main_sign", "select").put("qtn", "BENCH_ROWS")
+				.put("qcl", new JSONArray().put("ID").put("NAME").put("AMOUNT")).put("qcn", "WHERE ID = 1");
+		render = new JSONObject().put("main_sign", "select").put("rtp", "query")
+				.put("raw_qry", "SELECT ID, NAME FROM BENCH_ROWS WHERE ID = {ID} AND NAME = {NAME}")
+				.put("params", new JSONObject().put("ID", 42).put("NAME", "name-42")).toString();
+		insertbody = new JSONObject(insert.toString()).put("rtp", "execute").toString()
+				.getBytes(StandardCharsets.UTF_8);
+		renderbody = render.getBytes(StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Closes the engine and its pool.
+	 */
+	@TearDown(Level.Trial)
+	public void teardown() {
+		engine.close();
+	}
+
+	/**
+	 * Opens an engine on the benchmark database.
+	 *
+	 * @param poolsize connections of the pool
+	 * @return engine configured from the {@code bench.*} system properties
+	 */
+	static SmartCrudEngine open(int poolsize) {
+		Properties props = new Properties();
+		props.setProperty("dbdrv", System.getProperty("bench.driver", "org.h2.Driver"));
+		props.setProperty("dburl", System.getProperty("bench.url", "jdbc:h2:mem:smartcrudbench;DB_CLOSE_DELAY=-1"));
+		props.setProperty("dbunm", System.getProperty("bench.user", "sa"));
+		props.setProperty("dbpwd", System.getProperty("bench.password", ""));
+		props.setProperty("dbpmin", String.valueOf(poolsize));
+		props.setProperty("dbpmax", String.valueOf(poolsize));
+		for (String key : System.getProperties().stringPropertyNames()) {
+			if (key.startsWith("bench.db.")) {
+				props.setProperty(key.substring(9), System.getProperty(key));
+			}
+		}
+		return new SmartCrudEngine(props);
+	}
+
+	/**
+	 * Creates and fills the benchmark tables: {@code BENCH_ROWS} with
+	 * {@code rows} rows for the selects and an empty {@code BENCH_WRITE} for
+	 * the inserts.
+	 *
+	 * @param engine engine connected to the benchmark database
+	 * @param rows   rows of {@code BENCH_ROWS}
+	 * @throws Exception if a statement fails
+	 */
+	static void load(SmartCrudEngine engine, int rows) throws Exception {
+		ddl(engine, "DROP TABLE IF EXISTS BENCH_ROWS");
+		ddl(engine, "DROP TABLE IF EXISTS BENCH_WRITE");
+		ddl(engine, "CREATE TABLE BENCH_ROWS (ID INT PRIMARY KEY, NAME VARCHAR(40), AMOUNT DECIMAL(12,2), QTY BIGINT, "
+				+ "NOTE VARCHAR(200))");
+		ddl(engine, "CREATE TABLE BENCH_WRITE (ID BIGINT PRIMARY KEY, NAME VARCHAR(40), AMOUNT DECIMAL(12,2), "
+				+ "NOTE VARCHAR(200))");
+		JSONArray batch = new JSONArray();
+		for (int i = 1; i <= rows; i++) {
+			batch.put(new JSONObject().put("ID", i).put("NAME", "name-" + i).put("AMOUNT", i / 7.0).put("QTY", i * 1000L)
+					.put("NOTE", "row " + i + " of the benchmark result set"));
+		}
+		String res = engine.execute(new JSONObject().put("main_sign", "insert").put("rtp", "execute")
+				.put("qtn", "BENCH_ROWS").put("qdt", batch));
+		if (!"DONE".equals(new JSONObject(res).optString("sign"))) {
+			throw new Exception("Benchmark data could not be loaded: " + res);
+		}
+	}
+
+	private static void ddl(SmartCrudEngine engine, String sql) throws Exception {
+		String res = engine.dbExecute(sql, "update");
+		if ("ERROR".equals(new JSONObject(res).optString("sign"))) {
+			throw new Exception("Benchmark setup failed: " + res);
+		}
+	}
+
+	@Benchmark
+	public String getinsertq() throws Exception {
+		return SmartCrudEngine.getinsertq(insert);
+	}
+
+	@Benchmark
+	public String getupdateq() throws Exception {
+		return SmartCrudEngine.getupdateq(update);
+	}
+
+	@Benchmark
+	public String getselectq() throws Exception {
+		return SmartCrudEngine.getselectq(select);
+	}
+
+	@Benchmark
+	public String paramexecuterRender() throws Exception {
+		return engine.paramExecute(render);
+	}
+
+	@Benchmark
+	@Threads(THREADS)
+	public String paramexecuterRenderThreads() throws Exception {
+		return engine.paramExecute(render);
+	}
+
+	/*
+	 * Request decoding alone: String and JSONObject tree against a reused
+	 * CrudRequest.
+	 */
+
+	@Benchmark
+	public void decodeInsertJSONObject(Blackhole bh) {
+		JSONObject val = new JSONObject(new String(insertbody, StandardCharsets.UTF_8));
+		bh.consume(val.optString("main_sign"));
+		bh.consume(val.getJSONObject("qdt").get("NAME"));
+	}
+
+	@Benchmark
+	public void decodeInsertCrudRequest(Decoder decoder, Blackhole bh) {
+		decoder.req.decode(insertbody);
+		bh.consume(decoder.req.mainSign());
+		bh.consume(decoder.req.data().get("NAME"));
+	}
+
+	@Benchmark
+	public void decodeParamJSONObject(Blackhole bh) {
+		JSONObject val = new JSONObject(new String(renderbody, StandardCharsets.UTF_8));
+		bh.consume(val.optString("raw_qry"));
+		bh.consume(val.getJSONObject("params").get("NAME"));
+	}
+
+	@Benchmark
+	public void decodeParamCrudRequest(Decoder decoder, Blackhole bh) {
+		decoder.req.decode(renderbody);
+		bh.consume(decoder.req.rawQuery());
+		bh.consume(decoder.req.params().get("NAME"));
+	}
+
+	@Benchmark
+	public String paramexecuterRenderBytes() throws Exception {
+		return engine.execute(renderbody);
+	}
+
+	@Benchmark
+	public String selectRow() throws Exception {
+		return selectone();
+	}
+
+	@Benchmark
+	@Threads(THREADS)
+	public String selectRowThreads() throws Exception {
+		return selectone();
+	}
+
+	@Benchmark
+	public String selectLarge() throws Exception {
+		return engine.dbExecute("SELECT * FROM BENCH_ROWS", "select");
+	}
+
+	@Benchmark
+	@Threads(THREADS)
+	public String selectLargeThreads() throws Exception {
+		return engine.dbExecute("SELECT * FROM BENCH_ROWS", "select");
+	}
+
+	@Benchmark
+	public String insert() throws Exception {
+		return insertone(false);
+	}
+
+	@Benchmark
+	@Threads(THREADS)
+	public String insertThreads() throws Exception {
+		return insertone(false);
+	}
+
+	@Benchmark
+	public String insertParsed() throws Exception {
+		return engine.execute(new JSONObject(new String(insertbytes(), StandardCharsets.UTF_8)));
+	}
+
+	@Benchmark
+	public String insertBytes() throws Exception {
+		return engine.execute(insertbytes());
+	}
+
+	@Benchmark
+	@Threads(WRITERS)
+	public String insertWriters() throws Exception {
+		return insertone(false);
+	}
+
+	@Benchmark
+	@Threads(WRITERS)
+	public String insertWriteBehindWriters() throws Exception {
+		return insertone(true);
+	}
+
+	private String selectone() throws Exception {
+		return engine.dbExecute("SELECT * FROM BENCH_ROWS WHERE ID = ?", "select",
+				Collections.singletonList((Object) (ThreadLocalRandom.current().nextInt(rows) + 1)));
+	}
+
+	/**
+	 * @return a single-row insert request as UTF-8 bytes, as read from a socket
+	 */
+	private byte[] insertbytes() {
+		return ("{\"main_sign\":\"insert\",\"rtp\":\"execute\",\"qtn\":\"BENCH_WRITE\",\"qdt\":{\"ID\":"
+				+ ids.incrementAndGet() + ",\"NAME\":\"bench\",\"AMOUNT\":10.5,\"NOTE\":\"inserted by the benchmark\"}}")
+				.getBytes(StandardCharsets.UTF_8);
+	}
+
+	private String insertone(boolean writebehind) throws Exception {
+		return engine.execute(new JSONObject().put("main_sign", "insert").put("rtp", "execute").put("qwb", writebehind)
+				.put("qtn", "BENCH_WRITE")
+				.put("qdt", new JSONObject().put("ID", ids.incrementAndGet()).put("NAME", "bench").put("AMOUNT", 10.5)
+						.put("NOTE", "inserted by the benchmark")));
+	}
+}
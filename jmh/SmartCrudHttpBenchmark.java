@@ -0,0 +1,119 @@
+package com.chat.db;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * SmartCrudHttpBenchmark load-tests {@link SmartCrudHttpServer} on a free
+ * local port with {@value #CLIENTS} client threads sharing a keep-alive
+ * {@link HttpClient}: JSON selects and inserts, and form inserts as posted by
+ * the generated pages. <br>
+ * Every request is timed (JMH sample time mode); the report gives the
+ * request latency percentiles, p50, p99 and maximum included, and with
+ * {@code -prof gc} the allocation and GC figures of client and server
+ * together. See {@link SmartCrudBenchmark} for how to run it and the
+ * database settings.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dsun.net.httpserver.nodelay=true")
+@Threads(SmartCrudHttpBenchmark.CLIENTS)
+public class SmartCrudHttpBenchmark {
+
+	/** Client threads of the load test. */
+	public static final int CLIENTS = SmartCrudBenchmark.THREADS * 4;
+
+	/** Rows of the selected table. */
+	@Param("10000")
+	public int rows;
+
+	private SmartCrudEngine engine;
+	private SmartCrudHttpServer http;
+	private HttpClient client;
+	private URI execute;
+	private URI param;
+	private URI form;
+	private final AtomicLong ids = new AtomicLong(1_000_000);
+
+	/**
+	 * Opens the engine, fills the benchmark tables and starts the server.
+	 *
+	 * @throws Exception if the database or the server cannot be set up
+	 */
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		engine = SmartCrudBenchmark.open(SmartCrudBenchmark.THREADS);
+		SmartCrudBenchmark.load(engine, rows);
+		http = new SmartCrudHttpServer(engine, new InetSocketAddress("127.0.0.1", 0));
+		http.start();
+		client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+		String base = "http://127.0.0.1:" + http.port();
+		execute = URI.create(base + "/execute");
+		param = URI.create(base + "/param");
+		form = URI.create(base + "/jconsoleapp?qtn=BENCH_WRITE");
+	}
+
+	/**
+	 * Stops the server and closes the engine.
+	 */
+	@TearDown(Level.Trial)
+	public void teardown() {
+		http.close();
+		engine.close();
+	}
+
+	@Benchmark
+	public String httpSelectRow() throws Exception {
+		return post(param, "application/json", new JSONObject().put("main_sign", "select").put("rtp", "execute")
+				.put("raw_qry", "SELECT * FROM BENCH_ROWS WHERE ID = {ID}")
+				.put("params", new JSONObject().put("ID", ThreadLocalRandom.current().nextInt(rows) + 1)).toString());
+	}
+
+	@Benchmark
+	public String httpInsert() throws Exception {
+		return post(execute, "application/json", new JSONObject().put("main_sign", "insert").put("rtp", "execute")
+				.put("qtn", "BENCH_WRITE").put("qdt", new JSONObject().put("ID", ids.incrementAndGet())
+						.put("NAME", "bench").put("AMOUNT", 10.5).put("NOTE", "inserted over http"))
+				.toString());
+	}
+
+	@Benchmark
+	public String httpFormInsert() throws Exception {
+		return post(form, "application/x-www-form-urlencoded",
+				"ID=" + ids.incrementAndGet() + "&NAME=bench&AMOUNT=10.50&NOTE=posted+by+a+form&submit=Save");
+	}
+
+	private String post(URI uri, String type, String body) throws Exception {
+		HttpResponse<String> res = client.send(HttpRequest.newBuilder(uri).header("Content-Type", type)
+				.POST(HttpRequest.BodyPublishers.ofString(body)).build(), HttpResponse.BodyHandlers.ofString());
+		if (res.statusCode() != 200 || res.body().contains("\"ERROR\"") || res.body().contains("\"FAIL\"")) {
+			throw new Exception("HTTP " + res.statusCode() + ": " + res.body());
+		}
+		return res.body();
+	}
+}